@@ -0,0 +1,77 @@
+package ru.ifmo.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.modeling.EquationSystems;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Solves of equation systems on whole grid from cold start: one by one and in lockstep batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchSolverBenchmark {
+    private final List<Double> initial1 = Arrays.asList(50., 50., 50., 50., 500.);
+    private final List<Double> initial3 = Arrays.asList(10., 10., 10., 10., 1000., 0.5);
+
+    private double[] temperatures;
+    private double[] xgs;
+
+    private Function<Double, List<Double>> system1, system3;
+    private Function<double[], double[][]> batch1, batch3;
+
+    @Setup
+    public void setUp() {
+        temperatures = new double[301];
+        for (int i = 0; i < temperatures.length; ++i) {
+            temperatures[i] = 350 + 273 + i;
+        }
+        xgs = new double[101];
+        for (int i = 0; i < xgs.length; ++i) {
+            xgs[i] = i / 100.;
+        }
+        system1 = EquationSystems.createEquationSystem1(initial1, 1e-5, 10000);
+        system3 = EquationSystems.createEquationSystem3(0.1, initial3, 1e-5, 10000);
+        batch1 = EquationSystems.createBatchEquationSystem1(initial1, 1e-5, 10000);
+        batch3 = EquationSystems.createBatchEquationSystem3(0.1, initial3, 1e-5, 10000);
+    }
+
+    private static double sweep(Function<Double, List<Double>> system, double[] grid) {
+        double sum = 0;
+        for (double x : grid) {
+            try {
+                sum += system.apply(x).get(0);
+            } catch (ArithmeticException e) {
+                sum += Double.NaN;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double scalarSystem1() {
+        return sweep(system1, temperatures);
+    }
+
+    @Benchmark
+    public double[][] batchSystem1() {
+        return batch1.apply(temperatures);
+    }
+
+    @Benchmark
+    public double scalarSystem3() {
+        return sweep(system3, xgs);
+    }
+
+    @Benchmark
+    public double[][] batchSystem3() {
+        return batch3.apply(xgs);
+    }
+}
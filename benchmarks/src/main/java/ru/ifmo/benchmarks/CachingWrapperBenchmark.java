@@ -0,0 +1,58 @@
+package ru.ifmo.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.lang.CachingWrapper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link CachingWrapper} around a trivial function.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CachingWrapperBenchmark {
+    private static final int KEYS = 1024;
+
+    private CachingWrapper<Double, Double> hits;
+    private CachingWrapper<Double, Double> misses;
+
+    @Setup
+    public void setUp() {
+        hits = new CachingWrapper<Double, Double>(x -> x * x).quantize(1e-6);
+        for (int i = 0; i < KEYS; ++i) {
+            hits.apply((double) i);
+        }
+        misses = new CachingWrapper<Double, Double>(x -> x * x).quantize(1e-6).bound(KEYS, CachingWrapper.Eviction.LRU);
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        long next;
+    }
+
+    /**
+     * Every call finds stored result
+     */
+    @Benchmark
+    public Double hit(Counter counter) {
+        return hits.apply((double) (counter.next++ & (KEYS - 1)));
+    }
+
+    /**
+     * Every call computes new result and from time to time evicts old ones
+     */
+    @Benchmark
+    public Double miss(Counter counter) {
+        return misses.apply((double) counter.next++);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Double concurrentHit(Counter counter) {
+        return hits.apply((double) (counter.next++ & (KEYS - 1)));
+    }
+}
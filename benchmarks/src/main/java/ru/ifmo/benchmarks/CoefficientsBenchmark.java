@@ -0,0 +1,84 @@
+package ru.ifmo.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.modeling.Coefficients;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Evaluation of equilibrium constants K and diffusion coefficients D, counted directly and tabulated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoefficientsBenchmark {
+    /**
+     * Temperature is moved every call, so that results can not be reused
+     */
+    private double t = 623;
+
+    private double nextT() {
+        t += 0.37;
+        if (t > 923) {
+            t = 623;
+        }
+        return t;
+    }
+
+    @Benchmark
+    public double kCounterLookup() {
+        return Coefficients.getKCounter(3).applyAsDouble(nextT());
+    }
+
+    @Benchmark
+    public double dCounterLookup() {
+        return Coefficients.getDCounter("AlCl3").applyAsDouble(nextT());
+    }
+
+    @State(Scope.Thread)
+    public static class Resolved {
+        DoubleUnaryOperator k, d;
+
+        @Setup
+        public void setUp() {
+            k = Coefficients.getKCounter(3);
+            d = Coefficients.getDCounter("AlCl3");
+        }
+    }
+
+    @Benchmark
+    public double kCounter(Resolved counters) {
+        return counters.k.applyAsDouble(nextT());
+    }
+
+    @Benchmark
+    public double dCounter(Resolved counters) {
+        return counters.d.applyAsDouble(nextT());
+    }
+
+    @State(Scope.Thread)
+    public static class Tabulated {
+        DoubleUnaryOperator k, d;
+
+        @Setup
+        public void setUp() {
+            Coefficients.Tabulation tabulation = new Coefficients.Tabulation(623, 923, 3001);
+            k = tabulation.tabulate(Coefficients.getKCounter(3));
+            d = tabulation.tabulate(Coefficients.getDCounter("AlCl3"));
+        }
+    }
+
+    @Benchmark
+    public double tabulatedKCounter(Tabulated counters) {
+        return counters.k.applyAsDouble(nextT());
+    }
+
+    @Benchmark
+    public double tabulatedDCounter(Tabulated counters) {
+        return counters.d.applyAsDouble(nextT());
+    }
+}
@@ -0,0 +1,65 @@
+package ru.ifmo.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.lang.CachingWrapper;
+import ru.ifmo.lang.Continuation;
+import ru.ifmo.lang.DoubleSeries;
+import ru.ifmo.lang.Experiment;
+import ru.ifmo.modeling.Coefficients;
+import ru.ifmo.modeling.EquationSystems;
+import ru.ifmo.modeling.SystemOfEquationsSolve;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Full sweep of {@link ru.ifmo.Main#analyzeEqSystem1()}: all its experiments, without drawing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExperimentBenchmark {
+    /**
+     * Step of temperature grid; Main uses 10
+     */
+    @Param({"10", "1"})
+    public double step;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    /**
+     * Solver of system 1 with K and D tabulated as in Main; tables are built once, outside of measurement
+     */
+    private Continuation.Solver system1;
+
+    @Setup
+    public void setUp() {
+        system1 = EquationSystems.createEquationSolver1(new Coefficients.Tabulation(350 + 273, 650 + 273, 3001), 1e-5, 10000,
+                SystemOfEquationsSolve.Method.NEWTON);
+    }
+
+    @Benchmark
+    public List<DoubleSeries> analyzeEqSystem1() {
+        double R = 8314.4621;
+        double sigma = 0.01;
+
+        Experiment.ExperimentSeries experiments = new Experiment.ExperimentSeries(350 + 273, 650 + 273, step)
+                .parallel(parallelism).mapX(x -> 1 / x).mapY(y -> Math.log(-y));
+        Function<Double, List<Double>> solver = new CachingWrapper<>(experiments.continuation(system1, Arrays.asList(50., 50., 50., 50., 500.), Continuation.Mode.SECANT)).quantize(1e-6);
+
+        BiFunction<Integer, Double, Double> countG = (index, t) -> -solver.apply(t).get(index) / R / t / sigma * Coefficients.getDCounter("AlCl" + (index == 0 ? "" : (index + 1) + "")).applyAsDouble(t);
+
+        return Arrays.asList(
+                experiments.create(t -> Arrays.asList(0, 1, 2).stream().map(index -> countG.apply(index, t)).reduce(0., (a, b) -> a + b) * Coefficients.getMolarVolume("Al") * 1e9).get(),
+                experiments.create(t -> countG.apply(0, t)).get(),
+                experiments.create(t -> countG.apply(1, t)).get(),
+                experiments.create(t -> countG.apply(2, t)).get());
+    }
+}
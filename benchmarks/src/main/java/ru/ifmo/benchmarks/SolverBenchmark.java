@@ -0,0 +1,87 @@
+package ru.ifmo.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.lang.Continuation;
+import ru.ifmo.modeling.EquationSystems;
+import ru.ifmo.modeling.SystemOfEquationsSolve;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Single solves of equation systems from cold start, at points where all methods converge.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolverBenchmark {
+    @Param({"NEWTON", "BROYDEN", "LEVENBERG_MARQUARDT"})
+    public SystemOfEquationsSolve.Method method;
+
+    private final double[] start1 = {50., 50., 50., 50., 500.};
+    private final double[] start2 = {1.0e4, 15., 100., 15000., 10.};
+    private final double[] start3 = {10., 10., 10., 10., 1000., 0.5};
+
+    public double t1 = 873;
+    public double t2 = 1000;
+    public double xg = 0.5;
+
+    private Continuation.Solver system1, system2, system3;
+
+    @Setup
+    public void setUp() {
+        system1 = EquationSystems.createEquationSolver1(1e-5, 10000, method);
+        system2 = EquationSystems.createEquationSolver2(1e-5, 10000, method);
+        system3 = EquationSystems.createEquationSolver3(0, 1e-5, 10000, method);
+    }
+
+    @Benchmark
+    public double[] equationSystem1() {
+        return system1.solve(t1, start1);
+    }
+
+    @Benchmark
+    public double[] equationSystem2() {
+        return system2.solve(t2, start2);
+    }
+
+    @Benchmark
+    public double[] equationSystem3() {
+        return system3.solve(xg, start3);
+    }
+
+    /**
+     * Original boxed entry points, Newton method only
+     */
+    @State(Scope.Thread)
+    public static class Boxed {
+        private Function<Double, List<Double>> system1, system2, system3;
+
+        @Setup
+        public void setUp() {
+            system1 = EquationSystems.createEquationSystem1(Arrays.asList(50., 50., 50., 50., 500.), 1e-5, 10000);
+            system2 = EquationSystems.createEquationSystem2(Arrays.asList(1.0e4, 15., 100., 15000., 10.), 1e-5, 10000);
+            system3 = EquationSystems.createEquationSystem3(0, Arrays.asList(10., 10., 10., 10., 1000., 0.5), 1e-5, 10000);
+        }
+    }
+
+    @Benchmark
+    public List<Double> boxedEquationSystem1(Boxed boxed) {
+        return boxed.system1.apply(t1);
+    }
+
+    @Benchmark
+    public List<Double> boxedEquationSystem2(Boxed boxed) {
+        return boxed.system2.apply(t2);
+    }
+
+    @Benchmark
+    public List<Double> boxedEquationSystem3(Boxed boxed) {
+        return boxed.system3.apply(xg);
+    }
+}
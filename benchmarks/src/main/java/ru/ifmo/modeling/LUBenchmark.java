@@ -0,0 +1,93 @@
+package ru.ifmo.modeling;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dense and sparse LU factorization and solve, as made on every Newton iteration, on Jacobians of
+ * chemistry-like arrowhead pattern: every gas is linked with its own equation, one other gas
+ * and the last variable, and the last equation (balance of atoms) contains all gases.
+ * Gives the size at which sparse factorization overtakes dense, see {@link SystemOfEquationsSolve#SPARSE_THRESHOLD}.
+ * <p>
+ * Is in package of factorizations, because they are package-private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LUBenchmark {
+    @Param({"6", "8", "12", "16", "32", "64", "128", "256"})
+    public int size;
+
+    private JacobianPattern pattern;
+    private double[] entries;
+    private double[] b;
+    private double[] x;
+
+    private double[][] matrix;
+    private LUDecomposition dense;
+    private SparseLUDecomposition sparse;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        int n = size;
+        boolean[][] nonZero = new boolean[n][n];
+        for (int i = 0; i < n - 1; ++i) {
+            nonZero[i][i] = true;
+            nonZero[i][random.nextInt(n)] = true;
+            nonZero[i][n - 1] = true;
+            nonZero[n - 1][i] = true;
+        }
+        nonZero[n - 1][n - 1] = true;
+        pattern = new JacobianPattern(nonZero);
+
+        entries = new double[pattern.getNonZeroCount()];
+        for (int i = 0; i < n; ++i) {
+            for (int k = pattern.getRowStart(i); k < pattern.getRowStart(i + 1); ++k) {
+                entries[k] = pattern.getColumn(k) == i ? 2 + random.nextDouble() : 0.1 * random.nextDouble();
+            }
+        }
+        b = new double[n];
+        for (int i = 0; i < n; ++i) {
+            b[i] = random.nextDouble();
+        }
+        x = new double[n];
+
+        matrix = new double[n][n];
+        dense = LUDecomposition.forSize(n);
+        sparse = new SparseLUDecomposition(pattern);
+    }
+
+    /**
+     * Entries are scattered into matrix, because dense factorization is made in place
+     */
+    @Benchmark
+    public double[] dense() {
+        pattern.scatter(entries, matrix);
+        if (!dense.factor(matrix)) {
+            throw new IllegalStateException("Singular matrix");
+        }
+        System.arraycopy(b, 0, x, 0, b.length);
+        dense.solve(matrix, x);
+        return x;
+    }
+
+    /**
+     * Pivots stay the same from call to call, so all but the first factorizations are refactorizations,
+     * as between Newton iterations
+     */
+    @Benchmark
+    public double[] sparse() {
+        if (!sparse.factor(entries)) {
+            throw new IllegalStateException("Singular matrix");
+        }
+        System.arraycopy(b, 0, x, 0, b.length);
+        sparse.solve(x);
+        return x;
+    }
+}
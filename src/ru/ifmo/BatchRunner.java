@@ -0,0 +1,114 @@
+package ru.ifmo;
+
+import ru.ifmo.modeling.SolverMetrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless entry point: computes scenarios and writes results to CSV files, without any windows.
+ * <p>
+ * Usage: BatchRunner [-threads N] [-metrics metrics.csv] file...
+ * <p>
+ * Each file contains one {@link Scenario} per line, blank lines and lines starting with '#' are ignored;
+ * "-" means standard input. Scenarios are computed concurrently on N threads (number of processors by default),
+ * points of each scenario are computed in order and written as soon as they are ready.
+ * <p>
+ * With "-metrics", every solve is recorded by {@link SolverMetrics}; records are written to specified CSV file
+ * and summary is printed when all scenarios are finished.
+ */
+public class BatchRunner {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String metrics = null;
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-metrics") && i + 1 < args.length) {
+                metrics = args[++i];
+            } else {
+                scenarios.addAll(readScenarios(args[i]));
+            }
+        }
+        if (scenarios.isEmpty()) {
+            System.err.println("Usage: BatchRunner [-threads N] [-metrics metrics.csv] file...");
+            System.exit(2);
+        }
+
+        if (metrics != null) {
+            SolverMetrics.enable();
+        }
+        boolean success = run(scenarios, threads);
+        if (metrics != null) {
+            SolverMetrics.getInstance().dumpCsv(metrics);
+            System.err.println(SolverMetrics.getInstance());
+        }
+        System.exit(success ? 0 : 1);
+    }
+
+    private static List<Scenario> readScenarios(String file) throws IOException {
+        List<Scenario> scenarios = new ArrayList<>();
+        try (BufferedReader in = file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                ++number;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    scenarios.add(Scenario.parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return scenarios;
+    }
+
+    /**
+     * Computes scenarios concurrently
+     *
+     * @param threads number of scenarios computed at the same time
+     * @return whether all scenarios succeeded
+     */
+    public static boolean run(List<Scenario> scenarios, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, scenarios.size())));
+        List<Future<Integer>> results = new ArrayList<>();
+        for (Scenario scenario : scenarios) {
+            results.add(executor.submit(() -> {
+                try (Writer out = new BufferedWriter(Files.newBufferedWriter(Paths.get(scenario.output), StandardCharsets.UTF_8))) {
+                    return scenario.run(out);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        boolean success = true;
+        for (int i = 0; i < scenarios.size(); ++i) {
+            try {
+                System.err.println(scenarios.get(i) + ": " + results.get(i).get() + " points");
+            } catch (ExecutionException e) {
+                System.err.println(scenarios.get(i) + ": failed: " + e.getCause());
+                success = false;
+            }
+        }
+        return success;
+    }
+}
@@ -2,9 +2,16 @@ package ru.ifmo;
 
 import ru.ifmo.graphics.Graphics;
 import ru.ifmo.lang.CachingWrapper;
+import ru.ifmo.lang.Continuation;
+import ru.ifmo.lang.Fingerprint;
+import ru.ifmo.lang.PersistentCache;
 import ru.ifmo.modeling.Coefficients;
 import ru.ifmo.modeling.EquationSystems;
+import ru.ifmo.modeling.SystemOfEquationsSolve;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.BiFunction;
@@ -13,18 +20,26 @@ import java.util.function.Function;
 import static ru.ifmo.lang.Experiment.ExperimentSeries;
 
 public class Main {
+    /**
+     * Solutions are kept here between runs; they are told apart by {@link Fingerprint} of solver,
+     * which changes whenever system, its solver or their code change
+     */
+    private static final Path CACHE_FILE = Paths.get("cache", "solutions.bin");
+    private static PersistentCache cache;
+
     public static void main(String[] args) {
         analyzeEqSystem3(0.);
     }
 
     public static void analyzeEqSystem1() {
+        Coefficients.Tabulation tabulation = new Coefficients.Tabulation(350 + 273, 650 + 273, 3001);
         double R = 8314.4621;
         double sigma = 0.01;
 
         ExperimentSeries experiments = new ExperimentSeries(350 + 273, 650 + 273, 10).mapX(x -> 1 / x).mapY(y -> Math.log(-y));
-        Function<Double, List<Double>> solver = new CachingWrapper<>(EquationSystems.createEquationSystem1(Arrays.asList(50., 50., 50., 50., 500.), 1e-5, 10000));
+        Function<Double, List<Double>> solver = cached(experiments.continuation(EquationSystems.createEquationSolver1(tabulation, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON), Arrays.asList(50., 50., 50., 50., 500.), Continuation.Mode.SECANT));
 
-        BiFunction<Integer, Double, Double> countG = (index, t) -> -solver.apply(t).get(index) / R / t / sigma * Coefficients.getDCounter("AlCl" + (index == 0 ? "" : (index + 1) + "")).apply(t);
+        BiFunction<Integer, Double, Double> countG = (index, t) -> -solver.apply(t).get(index) / R / t / sigma * Coefficients.getDCounter("AlCl" + (index == 0 ? "" : (index + 1) + "")).applyAsDouble(t);
 
         new Graphics("T^-1", "ln -V_Al")
                 .addGraphic(experiments.create(t -> Arrays.asList(0, 1, 2).stream().map(index -> countG.apply(index, t)).reduce(0., (a, b) -> a + b) * Coefficients.getMolarVolume("Al") * 1e9).get(), "V_Al")
@@ -38,13 +53,14 @@ public class Main {
 
 
     public static void analyzeEqSystem2() {
+        Coefficients.Tabulation tabulation = new Coefficients.Tabulation(650 + 273, 950 + 273, 3001);
         double R = 8314.4621;
         double sigma = 0.01;
 
         ExperimentSeries experiments = new ExperimentSeries(650 + 273, 950 + 273, 10).mapX(x -> 1 / x).mapY(y -> Math.log(-y));
-        Function<Double, List<Double>> solver = new CachingWrapper<>(EquationSystems.createEquationSystem2(Arrays.asList(1.0e4, 15., 100., 15000., 10.), 1e-5, 10000));
+        Function<Double, List<Double>> solver = cached(experiments.continuation(EquationSystems.createEquationSolver2(tabulation, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON), Arrays.asList(1.0e4, 15., 100., 15000., 10.), Continuation.Mode.SECANT));
 
-        BiFunction<Integer, Double, Double> countG = (index, t) -> -solver.apply(t).get(index) / R / t / sigma * Coefficients.getDCounter("GaCl" + (index == 0 ? "" : (index + 1) + "")).apply(t);
+        BiFunction<Integer, Double, Double> countG = (index, t) -> -solver.apply(t).get(index) / R / t / sigma * Coefficients.getDCounter("GaCl" + (index == 0 ? "" : (index + 1) + "")).applyAsDouble(t);
 
         new Graphics("T^-1", "ln -V_Ga")
                 .addGraphic(experiments.create(t -> Arrays.asList(0, 1, 2).stream().map(index -> countG.apply(index, t)).reduce(0., (a, b) -> a + b) * Coefficients.getMolarVolume("Ga") * 1e9).get(), "V_Ga")
@@ -61,11 +77,11 @@ public class Main {
         double T = 1100 + 273;
         double sigma = 0.01;
 
-        Function<Double, List<Double>> solver = new CachingWrapper<>(EquationSystems.createEquationSystem3(h2Portion, Arrays.asList(10., 10., 10., 10., 1000., 0.5), 1e-5, 10000));
         ExperimentSeries experiments = new ExperimentSeries(0, 1, 0.025);
+        Function<Double, List<Double>> solver = cached(experiments.continuation(EquationSystems.createEquationSolver3(h2Portion, 1e-5, 10000), Arrays.asList(10., 10., 10., 10., 1000., 0.5), Continuation.Mode.SECANT));
 
-        Function<Double, Double> countG_AlCl3 = xg -> (30 * xg - solver.apply(xg).get(0)) / R / T / sigma * Coefficients.getDCounter("AlCl3").apply(T);
-        Function<Double, Double> countG_GaCl = xg -> (30 * (1 - xg) - solver.apply(xg).get(1)) / R / T / sigma * Coefficients.getDCounter("GaCl").apply(T);
+        Function<Double, Double> countG_AlCl3 = xg -> (30 * xg - solver.apply(xg).get(0)) / R / T / sigma * Coefficients.getDCounter("AlCl3").applyAsDouble(T);
+        Function<Double, Double> countG_GaCl = xg -> (30 * (1 - xg) - solver.apply(xg).get(1)) / R / T / sigma * Coefficients.getDCounter("GaCl").applyAsDouble(T);
 
         new Graphics("x^g", "x")
                 .addGraphic(experiments.create(xg -> solver.apply(xg).get(5)).get(), "x")
@@ -79,4 +95,28 @@ public class Main {
                 .show();
     }
 
+    /**
+     * Wraps solver with cache in memory, backed by cache in {@link #CACHE_FILE} (if it can be opened).
+     * Cache file is opened once and closed when JVM exits.
+     */
+    private static Function<Double, List<Double>> cached(Continuation solver) {
+        CachingWrapper<Double, List<Double>> res = new CachingWrapper<>(solver).quantize(1e-6);
+        if (cache == null) {
+            try {
+                PersistentCache file = new PersistentCache(CACHE_FILE, 6, 1 << 16);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        System.err.println("Cache of solutions is not written: " + e);
+                    }
+                }));
+                cache = file;
+            } catch (IOException e) {
+                System.err.println("Cache of solutions is not used: " + e);
+                return res;
+            }
+        }
+        return res.backedBy(cache.store(new Fingerprint().add(solver).get(), 1e-6));
+    }
 }
@@ -0,0 +1,211 @@
+package ru.ifmo;
+
+import ru.ifmo.lang.Continuation;
+import ru.ifmo.modeling.Coefficients;
+import ru.ifmo.modeling.EquationSystems;
+import ru.ifmo.modeling.SystemOfEquationsSolve;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * One computation of {@link BatchRunner}: solution of one of equation systems on a grid of parameter
+ * (T for systems 1 and 2, x^g for system 3), written to CSV point by point.
+ * <p>
+ * Scenario is set by a line of "key=value" pairs separated by spaces, for example
+ * <pre>
+ * system=1 from=623 to=923 step=1 output=al.csv
+ * system=3 h2Portion=0.1 step=0.01 initial=10,10,10,10,1000,0.5 method=LEVENBERG_MARQUARDT output=algan-0.1.csv
+ * </pre>
+ * Keys: system (1, 2 or 3, required), output (file name, required), from, to, step, h2Portion (system 3 only),
+ * initial (comma-separated initial approximation), epsilon, maxIteration, method (see {@link SystemOfEquationsSolve.Method}).
+ * Omitted keys take the same values as in {@link Main}.
+ */
+public class Scenario {
+    private static final double R = 8314.4621;
+    private static final double SIGMA = 0.01;
+    private static final double T3 = 1100 + 273;
+
+    public final int system;
+    public final String output;
+    public final double from, to, step;
+    public final double h2Portion;
+    public final List<Double> initial;
+    public final double epsilon;
+    public final int maxIteration;
+    public final SystemOfEquationsSolve.Method method;
+
+    private Scenario(Map<String, String> keys) {
+        system = Integer.parseInt(require(keys, "system"));
+        output = require(keys, "output");
+        if (system < 1 || system > 3) {
+            throw new IllegalArgumentException("Unknown system " + system);
+        }
+
+        double defaultFrom = system == 1 ? 350 + 273 : system == 2 ? 650 + 273 : 0;
+        double defaultTo = system == 1 ? 650 + 273 : system == 2 ? 950 + 273 : 1;
+        double defaultStep = system == 3 ? 0.025 : 10;
+        String defaultInitial = system == 1 ? "50,50,50,50,500" : system == 2 ? "1.0e4,15,100,15000,10" : "10,10,10,10,1000,0.5";
+
+        from = Double.parseDouble(keys.getOrDefault("from", Double.toString(defaultFrom)));
+        to = Double.parseDouble(keys.getOrDefault("to", Double.toString(defaultTo)));
+        step = Double.parseDouble(keys.getOrDefault("step", Double.toString(defaultStep)));
+        h2Portion = Double.parseDouble(keys.getOrDefault("h2Portion", "0"));
+        epsilon = Double.parseDouble(keys.getOrDefault("epsilon", "1e-5"));
+        maxIteration = Integer.parseInt(keys.getOrDefault("maxIteration", "10000"));
+        method = SystemOfEquationsSolve.Method.valueOf(keys.getOrDefault("method", "NEWTON"));
+
+        initial = new ArrayList<>();
+        for (String value : keys.getOrDefault("initial", defaultInitial).split(",")) {
+            initial.add(Double.parseDouble(value.trim()));
+        }
+        if (initial.size() != (system == 3 ? 6 : 5)) {
+            throw new IllegalArgumentException("System " + system + " requires " + (system == 3 ? 6 : 5) + " initial values, got " + initial);
+        }
+        if (!(step > 0)) {
+            throw new IllegalArgumentException("Step must be positive, got " + step);
+        }
+    }
+
+    private static String require(Map<String, String> keys, String key) {
+        String value = keys.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Scenario requires '" + key + "'");
+        }
+        return value;
+    }
+
+    /**
+     * Parses scenario from line of "key=value" pairs
+     *
+     * @throws IllegalArgumentException if line is malformed
+     */
+    public static Scenario parse(String line) {
+        Map<String, String> keys = new HashMap<>();
+        for (String pair : line.trim().split("\\s+")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got '" + pair + "'");
+            }
+            keys.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return new Scenario(keys);
+    }
+
+    /**
+     * Computes all points of scenario in order, writing each row of CSV as soon as it is computed.
+     * Points where solution failed have NaN values.
+     *
+     * @param out where to write CSV
+     * @return number of computed points
+     */
+    public int run(Writer out) throws IOException {
+        Function<Double, List<Double>> solver = new Continuation(createSolver(), initial, Continuation.Mode.SECANT, from, step);
+        List<String> header = header();
+        writeRow(out, header);
+
+        int points = 0;
+        double[] row = new double[header.size()];
+        for (double x = from; x < to * (1 + 1e-9); x += step) {
+            List<Double> solution;
+            try {
+                solution = solver.apply(x);
+            } catch (Exception e) {
+                solution = null;
+            }
+            fillRow(x, solution, row);
+            writeRow(out, row);
+            ++points;
+        }
+        return points;
+    }
+
+    private Continuation.Solver createSolver() {
+        switch (system) {
+            case 1:
+                return EquationSystems.createEquationSolver1(tabulation(), epsilon, maxIteration, method);
+            case 2:
+                return EquationSystems.createEquationSolver2(tabulation(), epsilon, maxIteration, method);
+            default:
+                return EquationSystems.createEquationSolver3(h2Portion, epsilon, maxIteration, method);
+        }
+    }
+
+    /**
+     * @return grid of K and D over temperature range of scenario with step 0.1 K as in {@link Main}, null if range is empty
+     */
+    private Coefficients.Tabulation tabulation() {
+        return from < to ? new Coefficients.Tabulation(from, to, Math.max(4, (int) Math.ceil((to - from) * 10) + 1)) : null;
+    }
+
+    private List<String> header() {
+        if (system == 3) {
+            return Arrays.asList("xg", "P_AlCl3", "P_GaCl", "P_NH3", "P_HCl", "P_H2", "x", "G_AlCl3", "G_GaCl", "V_AlGaN");
+        }
+        String m = system == 1 ? "Al" : "Ga";
+        return Arrays.asList("T", "P_" + m + "Cl", "P_" + m + "Cl2", "P_" + m + "Cl3", "P_H2", "P_HCl",
+                "G_" + m + "Cl", "G_" + m + "Cl2", "G_" + m + "Cl3", "V_" + m);
+    }
+
+    /**
+     * Fills row with parameter, solution and values derived from it, as drawn by {@link Main}
+     */
+    private void fillRow(double x, List<Double> solution, double[] row) {
+        Arrays.fill(row, Double.NaN);
+        row[0] = x;
+        if (solution == null) {
+            return;
+        }
+        for (int i = 0; i < solution.size(); ++i) {
+            row[1 + i] = solution.get(i);
+        }
+
+        if (system == 3) {
+            int g = 1 + solution.size();
+            row[g] = (30 * x - solution.get(0)) / R / T3 / SIGMA * Coefficients.getDCounter("AlCl3").applyAsDouble(T3);
+            row[g + 1] = (30 * (1 - x) - solution.get(1)) / R / T3 / SIGMA * Coefficients.getDCounter("GaCl").applyAsDouble(T3);
+            row[g + 2] = (row[g] * Coefficients.getMolarVolume("AlN") + row[g + 1] * Coefficients.getMolarVolume("GaN")) * 1e9;
+        } else {
+            String m = system == 1 ? "Al" : "Ga";
+            int g = 1 + solution.size();
+            double v = 0;
+            for (int index = 0; index < 3; ++index) {
+                String element = m + "Cl" + (index == 0 ? "" : (index + 1) + "");
+                row[g + index] = -solution.get(index) / R / x / SIGMA * Coefficients.getDCounter(element).applyAsDouble(x);
+                v += row[g + index];
+            }
+            row[g + 3] = v * Coefficients.getMolarVolume(m) * 1e9;
+        }
+    }
+
+    private static void writeRow(Writer out, List<String> values) throws IOException {
+        out.write(String.join(",", values));
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void writeRow(Writer out, double[] values) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        sb.append('\n');
+        out.write(sb.toString());
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "system " + system + " [" + from + "; " + to + "] step " + step
+                + (system == 3 ? " H2 portion " + h2Portion : "") + " -> " + output;
+    }
+}
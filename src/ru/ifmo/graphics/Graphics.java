@@ -1,16 +1,26 @@
 package ru.ifmo.graphics;
 
 import com.xeiam.xchart.*;
+import ru.ifmo.lang.DoubleSeries;
 import ru.ifmo.lang.Typke;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class Graphics {
 
     private Chart chart;
+    /**
+     * Series longer than this are downsampled when added, 0 means no limit
+     */
+    private int maxPoints = 0;
 
     public Graphics(String XAsis, String YAsis) {
         chart = new ChartBuilder().width(800).height(600).build();
@@ -20,15 +30,28 @@ public class Graphics {
     }
 
 
+    /**
+     * Makes series which are added afterwards be downsampled to specified number of points
+     * by {@link DoubleSeries#downsample(int)}, which keeps their visual shape.
+     *
+     * @param maxPoints maximal number of points in series, at least 3; 0 means no limit
+     * @return same object in new state
+     */
+    public Graphics downsample(int maxPoints) {
+        this.maxPoints = maxPoints;
+        return this;
+    }
+
     public Graphics addGraphic(List<Typke> points, String graphicName) {
+        return addGraphic(DoubleSeries.of(points), graphicName);
+    }
 
-        List<Double> xData = new LinkedList<>();
-        List<Double> yData = new LinkedList<>();
-        for (Typke point : points) {
-            xData.add(point.x);
-            yData.add(point.y);
-        }
-        chart.addSeries(graphicName, xData, yData);
+    /**
+     * Adds series to chart; its arrays are passed as they are, missing (NaN) points are skipped.
+     */
+    public Graphics addGraphic(DoubleSeries points, String graphicName) {
+        DoubleSeries present = maxPoints > 0 ? points.downsample(maxPoints) : points.dropMissing();
+        chart.addSeries(graphicName, present.getXs(), present.getYs());
 
         return this;
     }
@@ -52,4 +75,78 @@ public class Graphics {
             System.err.println("Unable to save " + filename + ": " + e.getMessage());
         }
     }
+
+    /**
+     * Saves chart without showing it in vector format. Unlike {@link #save(String)}, errors of writing
+     * are not thrown but printed to standard error, as in {@link #saveBitmap(String)}.
+     *
+     * @param filename name of file without extension, encoder appends extension of format itself
+     * @param format   svg, pdf or eps
+     */
+    public void saveVector(String filename, VectorGraphicsEncoder.VectorGraphicsFormat format) {
+        try {
+            VectorGraphicsEncoder.saveVectorGraphic(chart, filename, format);
+        } catch (IOException e) {
+            System.err.println("Unable to save " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves chart without showing it, in format chosen by extension of file name:
+     * bitmap (png, jpg, bmp, gif) or vector (svg, pdf, eps).
+     *
+     * @throws IOException              if file can not be written
+     * @throws IllegalArgumentException if file name has no extension or nothing before it, or extension is unknown
+     */
+    public void save(String filename) throws IOException {
+        int dot = filename.lastIndexOf('.');
+        if (dot <= 0) {
+            throw new IllegalArgumentException("No name or extension in " + filename);
+        }
+        String extension = filename.substring(dot + 1).toUpperCase();
+        for (VectorGraphicsEncoder.VectorGraphicsFormat format : VectorGraphicsEncoder.VectorGraphicsFormat.values()) {
+            if (format.name().equals(extension)) {
+                // vector encoder appends extension itself
+                VectorGraphicsEncoder.saveVectorGraphic(chart, filename.substring(0, dot), format);
+                return;
+            }
+        }
+        for (BitmapEncoder.BitmapFormat format : BitmapEncoder.BitmapFormat.values()) {
+            if (format.name().equals(extension)) {
+                BitmapEncoder.saveBitmap(chart, filename, format);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format of " + filename);
+    }
+
+    /**
+     * Saves many charts concurrently, see {@link #save(String)}.
+     *
+     * @param charts      file name -> chart
+     * @param parallelism number of worker threads
+     * @return number of charts which failed to save; errors are printed
+     */
+    public static int saveAll(Map<String, Graphics> charts, int parallelism) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, charts.size())));
+        Map<String, Future<?>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Graphics> chart : charts.entrySet()) {
+            results.put(chart.getKey(), executor.submit(() -> {
+                chart.getValue().save(chart.getKey());
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+            try {
+                result.getValue().get();
+            } catch (ExecutionException e) {
+                System.err.println("Unable to save " + result.getKey() + ": " + e.getCause().getMessage());
+                ++failed;
+            }
+        }
+        return failed;
+    }
 }
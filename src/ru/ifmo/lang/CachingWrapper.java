@@ -1,17 +1,83 @@
 package ru.ifmo.lang;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * Wrapper for Function<K, V> which stores result for requested arguments
  * and returns it at repeated calls without calling function again.
+ * <p>
+ * Is thread-safe: concurrent calls with same argument compute function only once,
+ * calls with different arguments compute it in parallel.
+ * Function must not request result which depends on itself: recursive call with the same argument in the thread
+ * which computes it fails with {@link IllegalStateException}, and cycle of requests through several threads
+ * waits forever.
+ * By default cache is unbounded; use {@link #bound(long, Eviction)} to limit it.
+ * Results can be also kept in a slower {@link Store} (for example, {@link PersistentCache}),
+ * which is looked up before computing the function, see {@link #backedBy(Store)}.
  */
 public class CachingWrapper<K, V> implements Function<K, V> {
+    /**
+     * Second tier of cache, which is looked up on miss of memory and receives all computed results.
+     * Implementations should be thread-safe.
+     */
+    public interface Store<K, V> {
+        /**
+         * @return stored result for argument, or null if there is none
+         */
+        V load(K key);
+
+        /**
+         * Stores result for argument; may ignore it (for example, if store is full)
+         */
+        void save(K key, V value);
+    }
+
+    /**
+     * Which entries are removed when cache exceeds its bound
+     */
+    public enum Eviction {
+        /**
+         * Least recently used
+         */
+        LRU,
+        /**
+         * Least frequently used
+         */
+        LFU
+    }
+
+    /**
+     * When bound is exceeded, entries are evicted until total weight is not greater than this part of bound,
+     * so that eviction (which looks through all entries) does not happen on every call.
+     */
+    private static final double EVICTION_FACTOR = 0.9;
+
     private final Function<K, V> f;
 
-    private final Map<K, V> cache = new HashMap<>();
+    private final Map<Object, Entry<V>> cache = new ConcurrentHashMap<>();
+
+    private long maxWeight = Long.MAX_VALUE;
+    private Eviction eviction = Eviction.LRU;
+    private ToLongFunction<? super V> weigher = value -> 1;
+    private double quantum = 0;
+    private Store<? super K, V> store;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder storeHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
     /**
      * Creates a function with the save behavior as parameter function, but
@@ -23,11 +89,217 @@ public class CachingWrapper<K, V> implements Function<K, V> {
         this.f = f;
     }
 
+    /**
+     * Limits total weight of stored results. Must be called before cache is used.
+     *
+     * @param maxWeight maximal total weight (number of entries, unless {@link #weigher(ToLongFunction)} is set)
+     * @param eviction  which entries to remove when bound is exceeded
+     * @return same object in new state
+     */
+    public CachingWrapper<K, V> bound(long maxWeight, Eviction eviction) {
+        this.maxWeight = maxWeight;
+        this.eviction = eviction;
+        return this;
+    }
+
+    /**
+     * Sets weight of stored results, each result weights 1 by default. Must be called before cache is used.
+     *
+     * @param weigher result -> its weight
+     * @return same object in new state
+     */
+    public CachingWrapper<K, V> weigher(ToLongFunction<? super V> weigher) {
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * Makes Double arguments which differ less than by 'quantum' share the same result
+     * (for example, 923.0000000001 and 923.0 got by accumulating step).
+     * Result is computed for the argument which was requested first.
+     * Arguments of other types are not affected. Must be called before cache is used.
+     *
+     * @param quantum width of interval of arguments which share the same result
+     * @return same object in new state
+     */
+    public CachingWrapper<K, V> quantize(double quantum) {
+        this.quantum = quantum;
+        return this;
+    }
+
+    /**
+     * Sets store which is looked up when result is not in memory, before computing function,
+     * and which receives every computed result. Must be called before cache is used.
+     *
+     * @param store second tier of cache
+     * @return same object in new state
+     */
+    public CachingWrapper<K, V> backedBy(Store<? super K, V> store) {
+        this.store = store;
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public V apply(K key) {
-        return cache.computeIfAbsent(key, f);
+        Object cacheKey = toCacheKey(key);
+        Entry<V> entry = cache.get(cacheKey);
+        if (entry == null) {
+            Entry<V> created = new Entry<>();
+            entry = cache.putIfAbsent(cacheKey, created);
+            if (entry == null) {
+                misses.increment();
+                return compute(key, cacheKey, created);
+            }
+        }
+
+        hits.increment();
+        entry.touch(clock.incrementAndGet());
+        if (entry.owner == Thread.currentThread()) {
+            // join would wait for this very call
+            throw new IllegalStateException("Recursive call of cached function for " + key);
+        }
+        try {
+            return entry.value.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private V compute(K key, Object cacheKey, Entry<V> entry) {
+        V value;
+        try {
+            value = store != null ? store.load(key) : null;
+            if (value != null) {
+                storeHits.increment();
+            } else {
+                value = f.apply(key);
+                if (store != null) {
+                    store.save(key, value);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            cache.remove(cacheKey, entry);
+            entry.owner = null;
+            entry.value.completeExceptionally(e);
+            throw e;
+        }
+
+        entry.weight = weigher.applyAsLong(value);
+        entry.touch(clock.incrementAndGet());
+        entry.owner = null;
+        entry.value.complete(value);
+        if (totalWeight.addAndGet(entry.weight) > maxWeight) {
+            evict();
+        }
+        return value;
+    }
+
+    private Object toCacheKey(K key) {
+        if (quantum > 0 && key instanceof Double) {
+            return Math.round((Double) key / quantum);
+        }
+        return key;
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
+    /**
+     * Removes least recently (or frequently) used computed entries until weight goes below the bound.
+     */
+    private synchronized void evict() {
+        long target = (long) (maxWeight * EVICTION_FACTOR);
+        if (totalWeight.get() <= maxWeight) {
+            return;
+        }
+
+        List<Map.Entry<Object, Entry<V>>> candidates = new ArrayList<>();
+        for (Map.Entry<Object, Entry<V>> e : cache.entrySet()) {
+            if (e.getValue().value.isDone()) {
+                candidates.add(e);
+            }
+        }
+        Comparator<Entry<V>> order = eviction == Eviction.LRU
+                ? Comparator.comparingLong(entry -> entry.lastAccess)
+                : Comparator.<Entry<V>>comparingLong(entry -> entry.frequency.sum()).thenComparingLong(entry -> entry.lastAccess);
+        candidates.sort((a, b) -> order.compare(a.getValue(), b.getValue()));
+
+        for (Map.Entry<Object, Entry<V>> e : candidates) {
+            if (totalWeight.get() <= target) {
+                break;
+            }
+            if (cache.remove(e.getKey(), e.getValue())) {
+                totalWeight.addAndGet(-e.getValue().weight);
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * @return number of calls which returned stored result
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of calls which were not found in memory, but were found in store
+     */
+    public long getStoreHitCount() {
+        return storeHits.sum();
+    }
+
+    /**
+     * @return number of calls which did not find result in memory (and computed the function, unless it was in store)
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of results removed due to bound
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of stored results
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Stored result with information required for eviction
+     */
+    private static class Entry<V> {
+        private final CompletableFuture<V> value = new CompletableFuture<>();
+        /**
+         * Thread which computes value, null when it is computed
+         */
+        private volatile Thread owner = Thread.currentThread();
+        private volatile long weight;
+        private volatile long lastAccess;
+        /**
+         * Number of accesses; hits of the same entry from many threads are not lost and don't contend
+         */
+        private final LongAdder frequency = new LongAdder();
+
+        void touch(long time) {
+            lastAccess = time;
+            frequency.increment();
+        }
     }
 }
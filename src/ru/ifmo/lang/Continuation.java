@@ -0,0 +1,292 @@
+package ru.ifmo.lang;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Function x -> solution of some problem, where solution is found by iterative method from a start approximation.
+ * Is meant to be evaluated on consecutive points of a uniform grid: each point starts from the solution found
+ * at the neighbour grid point (or from linear extrapolation of solutions at two neighbour points),
+ * which is usually much closer to the root than a fixed initial approximation.
+ * <p>
+ * If computation from such start fails (throws exception or gives non-finite values), it is repeated
+ * from the initial approximation. Grid points which are not neighbours of the previously computed one
+ * are computed from the initial approximation.
+ * <p>
+ * Points between grid nodes (for example, added by adaptive refinement of {@link Experiment}) start from
+ * interpolation of the nearest solutions found not farther than one step away, on both sides if possible.
+ * For that a small number of recent solutions is remembered; they are looked through only for such points.
+ * <p>
+ * Previous solutions belong to this continuation and are remembered per thread, so when a grid is split
+ * into contiguous chunks which are computed in different threads, each chunk is continued separately.
+ * Solver should be thread-safe then. They are kept only within a sweep over the grid: {@link #startSweep()}
+ * forgets them, and experiments created by {@link Experiment.ExperimentSeries} call it before every computation.
+ */
+public class Continuation implements Function<Double, List<Double>>, Fingerprint.Source {
+    /**
+     * Way to choose start approximation for the next grid point
+     */
+    public enum Mode {
+        /**
+         * Start from solution at previous grid point
+         */
+        PREVIOUS,
+        /**
+         * Start from linear extrapolation of solutions at two previous grid points
+         */
+        SECANT
+    }
+
+    /**
+     * Iterative method which is continued along the grid.
+     */
+    @FunctionalInterface
+    public interface Solver {
+        /**
+         * @param x     argument
+         * @param start start approximation, must not be changed
+         * @return solution for specified argument
+         */
+        double[] solve(double x, double[] start);
+    }
+
+    /**
+     * Number of recent solutions remembered per thread for points between grid nodes
+     */
+    private static final int RECENT_CAPACITY = 256;
+
+    private final Solver solver;
+    private final double[] initial;
+    private final Mode mode;
+    private final double a, step;
+
+    /**
+     * Grid indices and solutions of two last points computed in a thread, and recent solutions by argument
+     */
+    private static class History {
+        /**
+         * Sweep which solutions belong to
+         */
+        private long sweep;
+        private long lastIndex, prevIndex;
+        private boolean lastOnGrid;
+        private double[] last, prev;
+        private final double[] start;
+        /**
+         * Ring buffer of recent solutions: recent[k] is solution at recentX[k];
+         * recentCount slots are used, recentNext is slot to be written next
+         */
+        private final double[] recentX = new double[RECENT_CAPACITY];
+        private final double[][] recent = new double[RECENT_CAPACITY][];
+        private int recentCount, recentNext;
+
+        History(int size) {
+            start = new double[size];
+        }
+
+        /**
+         * Forgets all solutions, so that next point starts from initial approximation
+         */
+        void clear(long sweep) {
+            this.sweep = sweep;
+            last = prev = null;
+            lastOnGrid = false;
+            Arrays.fill(recent, null);
+            recentCount = recentNext = 0;
+        }
+
+        void remember(double x, double[] solution) {
+            recentX[recentNext] = x;
+            recent[recentNext] = solution;
+            recentNext = (recentNext + 1) % RECENT_CAPACITY;
+            recentCount = Math.min(recentCount + 1, RECENT_CAPACITY);
+        }
+    }
+
+    private final ThreadLocal<History> history;
+    private final AtomicLong sweep = new AtomicLong();
+
+    /**
+     * @param solver  iterative method
+     * @param initial initial approximation, used for first point and as a fallback
+     * @param mode    way to choose start approximation
+     * @param a       any point of the grid
+     * @param step    step of the grid
+     */
+    public Continuation(Solver solver, List<Double> initial, Mode mode, double a, double step) {
+        this.solver = solver;
+        this.initial = new double[initial.size()];
+        for (int i = 0; i < this.initial.length; ++i) {
+            this.initial[i] = initial.get(i);
+        }
+        this.mode = mode;
+        this.a = a;
+        this.step = step;
+        this.history = ThreadLocal.withInitial(() -> new History(this.initial.length));
+    }
+
+    /**
+     * Starts new sweep over the grid: solutions found before are not used as start approximations any more,
+     * in all threads. Sweep which is computed concurrently loses its previous solutions too, so its next point
+     * starts from initial approximation.
+     */
+    public void startSweep() {
+        sweep.incrementAndGet();
+    }
+
+    /**
+     * Adds settings of continuation and fingerprint of solver
+     *
+     * @throws IllegalStateException if solver is not a {@link Fingerprint.Source}
+     */
+    @Override
+    public void addTo(Fingerprint fingerprint) {
+        if (!(solver instanceof Fingerprint.Source)) {
+            throw new IllegalStateException("Solver " + solver + " has no fingerprint");
+        }
+        fingerprint.addCode(Continuation.class).add(initial).add(mode).add(a).add(step).add((Fingerprint.Source) solver);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Double> apply(Double x) {
+        long index = Math.round((x - a) / step);
+        boolean onGrid = Math.abs(x - (a + index * step)) <= 1e-6 * step;
+        History h = history.get();
+        long current = sweep.get();
+        if (h.sweep != current) {
+            h.clear(current);
+        }
+        double[] solution = null;
+        if (onGrid && h.lastOnGrid ? chooseStart(h, index) : chooseStartBetween(h, x)) {
+            try {
+                solution = solver.solve(x, h.start);
+            } catch (Exception e) {
+                solution = null;
+            }
+        }
+        if (!isFinite(solution)) {
+            solution = solver.solve(x, initial);
+        }
+
+        if (isFinite(solution)) {
+            h.prevIndex = h.lastIndex;
+            h.prev = h.last;
+            h.lastIndex = index;
+            h.last = solution;
+            h.lastOnGrid = onGrid;
+            h.remember(x, solution);
+        }
+
+        Double[] res = new Double[solution.length];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = solution[i];
+        }
+        return Arrays.asList(res);
+    }
+
+    /**
+     * Fills 'h.start' for point with specified grid index
+     *
+     * @return false if there are no suitable previous solutions, so initial approximation should be used
+     */
+    private boolean chooseStart(History h, long index) {
+        if (h.last == null || Math.abs(index - h.lastIndex) != 1) {
+            return false;
+        }
+
+        if (mode == Mode.SECANT && h.prev != null && h.lastIndex - h.prevIndex == index - h.lastIndex) {
+            for (int i = 0; i < h.start.length; ++i) {
+                h.start[i] = 2 * h.last[i] - h.prev[i];
+            }
+        } else {
+            System.arraycopy(h.last, 0, h.start, 0, h.start.length);
+        }
+        return true;
+    }
+
+    /**
+     * Fills 'h.start' for arbitrary point from recent solutions not farther than step:
+     * interpolates between nearest ones on the left and on the right, or extrapolates from two nearest on one side
+     * (in {@link Mode#SECANT} mode, and not farther than distance between them), or copies the nearest one.
+     *
+     * @return false if there are no suitable solutions
+     */
+    private boolean chooseStartBetween(History h, double x) {
+        // slots of nearest and second nearest solutions on the left (x' <= x) and on the right (x' >= x);
+        // newer solutions are looked first, so they win among equal arguments
+        int left = -1, leftFar = -1, right = -1, rightFar = -1;
+        double[] xs = h.recentX;
+        for (int i = 1; i <= h.recentCount; ++i) {
+            int k = (h.recentNext - i + RECENT_CAPACITY) % RECENT_CAPACITY;
+            double key = xs[k];
+            if (key <= x) {
+                if (left < 0 || key > xs[left]) {
+                    leftFar = left;
+                    left = k;
+                } else if (key < xs[left] && (leftFar < 0 || key > xs[leftFar])) {
+                    leftFar = k;
+                }
+            }
+            if (key >= x) {
+                if (right < 0 || key < xs[right]) {
+                    rightFar = right;
+                    right = k;
+                } else if (key > xs[right] && (rightFar < 0 || key < xs[rightFar])) {
+                    rightFar = k;
+                }
+            }
+        }
+
+        double reach = step * (1 + 1e-9);
+        if (left >= 0 && x - xs[left] > reach) {
+            left = -1;
+        }
+        if (right >= 0 && xs[right] - x > reach) {
+            right = -1;
+        }
+        if (left < 0 && right < 0) {
+            return false;
+        }
+
+        int near, far;
+        if (left >= 0 && right >= 0) {
+            near = x - xs[left] <= xs[right] - x ? left : right;
+            far = near == left ? right : left;
+        } else {
+            near = left >= 0 ? left : right;
+            far = left >= 0 ? leftFar : rightFar;
+            if (far >= 0 && Math.abs(xs[far] - xs[near]) < Math.abs(x - xs[near])) {
+                far = -1;
+            }
+        }
+
+        double[] nearValue = h.recent[near];
+        if (mode == Mode.SECANT && far >= 0 && xs[far] != xs[near]) {
+            double t = (x - xs[near]) / (xs[far] - xs[near]);
+            double[] farValue = h.recent[far];
+            for (int i = 0; i < h.start.length; ++i) {
+                h.start[i] = nearValue[i] + t * (farValue[i] - nearValue[i]);
+            }
+        } else {
+            System.arraycopy(nearValue, 0, h.start, 0, h.start.length);
+        }
+        return true;
+    }
+
+    private static boolean isFinite(double[] values) {
+        if (values == null) {
+            return false;
+        }
+        for (double value : values) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
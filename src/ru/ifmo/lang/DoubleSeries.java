@@ -0,0 +1,210 @@
+package ru.ifmo.lang;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Series of points (x, y), stored by columns in two arrays of primitives.
+ * Points where x or y is NaN (for example, function failed) are missing; they are marked in a mask
+ * and skipped by {@link #dropMissing()}.
+ * <p>
+ * Can be iterated as {@link Typke}s, but that allocates an object per point.
+ */
+public class DoubleSeries implements Iterable<Typke> {
+    private final double[] xs, ys;
+    private final BitSet missing = new BitSet();
+
+    /**
+     * Creates series on given arrays; they are not copied, so they must not be changed afterwards.
+     *
+     * @param xs x coordinates of points
+     * @param ys y coordinates of points, of the same length
+     */
+    public DoubleSeries(double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Lengths of xs and ys differ: " + xs.length + " and " + ys.length);
+        }
+        this.xs = xs;
+        this.ys = ys;
+        for (int i = 0; i < xs.length; ++i) {
+            if (Double.isNaN(xs[i]) || Double.isNaN(ys[i])) {
+                missing.set(i);
+            }
+        }
+    }
+
+    /**
+     * Creates series from list of points
+     */
+    public static DoubleSeries of(List<Typke> points) {
+        double[] xs = new double[points.size()];
+        double[] ys = new double[points.size()];
+        int i = 0;
+        for (Typke point : points) {
+            xs[i] = point.x;
+            ys[i] = point.y;
+            ++i;
+        }
+        return new DoubleSeries(xs, ys);
+    }
+
+    /**
+     * @return number of points, including missing ones
+     */
+    public int size() {
+        return xs.length;
+    }
+
+    public double getX(int i) {
+        return xs[i];
+    }
+
+    public double getY(int i) {
+        return ys[i];
+    }
+
+    /**
+     * @return whether x or y of i-th point is NaN
+     */
+    public boolean isMissing(int i) {
+        return missing.get(i);
+    }
+
+    /**
+     * @return number of missing points
+     */
+    public int getMissingCount() {
+        return missing.cardinality();
+    }
+
+    /**
+     * @return x coordinates; this is backing array, it must not be changed
+     */
+    public double[] getXs() {
+        return xs;
+    }
+
+    /**
+     * @return y coordinates; this is backing array, it must not be changed
+     */
+    public double[] getYs() {
+        return ys;
+    }
+
+    /**
+     * @return series without missing points; this series if there are no such points
+     */
+    public DoubleSeries dropMissing() {
+        if (missing.isEmpty()) {
+            return this;
+        }
+        int n = xs.length - missing.cardinality();
+        double[] newXs = new double[n];
+        double[] newYs = new double[n];
+        int j = 0;
+        for (int i = missing.nextClearBit(0); i < xs.length; i = missing.nextClearBit(i + 1)) {
+            newXs[j] = xs[i];
+            newYs[j] = ys[i];
+            ++j;
+        }
+        return new DoubleSeries(newXs, newYs);
+    }
+
+    /**
+     * Reduces number of points by largest-triangle-three-buckets algorithm, which keeps visual shape of series:
+     * first and last points are kept, others are split into buckets, and from each bucket the point is taken
+     * which forms the largest triangle with point taken from previous bucket and average of the next bucket.
+     * Missing points are dropped.
+     *
+     * @param maxPoints number of points to keep, at least 3
+     * @return downsampled series; this series if it has no missing points and is not longer than maxPoints
+     */
+    public DoubleSeries downsample(int maxPoints) {
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("At least 3 points should be kept, got " + maxPoints);
+        }
+        DoubleSeries present = dropMissing();
+        int n = present.size();
+        if (n <= maxPoints) {
+            return present;
+        }
+        double[] xs = present.xs, ys = present.ys;
+        double[] newXs = new double[maxPoints];
+        double[] newYs = new double[maxPoints];
+
+        double bucketSize = (double) (n - 2) / (maxPoints - 2);
+        int a = 0;
+        newXs[0] = xs[0];
+        newYs[0] = ys[0];
+        for (int bucket = 0; bucket < maxPoints - 2; ++bucket) {
+            int from = (int) (bucket * bucketSize) + 1;
+            int to = (int) ((bucket + 1) * bucketSize) + 1;
+
+            // average of next bucket, which is the last point for the last bucket
+            int nextFrom = to;
+            int nextTo = Math.min((int) ((bucket + 2) * bucketSize) + 1, n);
+            double avgX = 0, avgY = 0;
+            for (int i = nextFrom; i < nextTo; ++i) {
+                avgX += xs[i];
+                avgY += ys[i];
+            }
+            avgX /= nextTo - nextFrom;
+            avgY /= nextTo - nextFrom;
+
+            double maxArea = -1;
+            int chosen = from;
+            for (int i = from; i < to; ++i) {
+                double area = Math.abs((xs[a] - avgX) * (ys[i] - ys[a]) - (xs[a] - xs[i]) * (avgY - ys[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            newXs[bucket + 1] = xs[chosen];
+            newYs[bucket + 1] = ys[chosen];
+            a = chosen;
+        }
+        newXs[maxPoints - 1] = xs[n - 1];
+        newYs[maxPoints - 1] = ys[n - 1];
+        return new DoubleSeries(newXs, newYs);
+    }
+
+    /**
+     * @return points as list of objects
+     */
+    public List<Typke> toList() {
+        List<Typke> res = new ArrayList<>(xs.length);
+        for (int i = 0; i < xs.length; ++i) {
+            res.add(new Typke(xs[i], ys[i]));
+        }
+        return res;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Typke> iterator() {
+        return new Iterator<Typke>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < xs.length;
+            }
+
+            @Override
+            public Typke next() {
+                if (i >= xs.length) {
+                    throw new NoSuchElementException();
+                }
+                Typke res = new Typke(xs[i], ys[i]);
+                ++i;
+                return res;
+            }
+        };
+    }
+}
@@ -1,18 +1,26 @@
 package ru.ifmo.lang;
 
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * Allows to organize an experiment some times.
  * Example of usage:
- * for (Typke typke : new Experiment(x -> x * x, -3, 5, 2).mapX(x -> -x).mapY(y -> 2 * y).get()) {
- * System.out.println(String.format("(%.1f; %.1f)", typke.x, typke.y));
+ * new Experiment(x -> x * x, -3, 5, 2).mapX(x -> -x).mapY(y -> 2 * y)
+ * .forEach((x, y) -> System.out.println(String.format("(%.1f; %.1f)", x, y)));
+ * or, with columns of results,
+ * DoubleSeries measures = new Experiment(x -> x * x, -3, 5, 2).mapX(x -> -x).mapY(y -> 2 * y).get();
+ * for (int i = 0; i < measures.size(); ++i) {
+ * System.out.println(String.format("(%.1f; %.1f)", measures.getX(i), measures.getY(i)));
  * }
- * This will have the following output:
+ * Both will have the following output:
  * (3.0; 18.0)
  * (1.0; 2.0)
  * (-1.0; 2.0)
@@ -20,36 +28,356 @@ import java.util.stream.Collectors;
  * (-5.0; 50.0)
  */
 public class Experiment {
-    private final List<Typke> measures;
+    /**
+     * Receives points of experiment one by one
+     */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(double x, double y);
+    }
+
+    /**
+     * Measured function with its grid, shared by this experiment and all experiments mapped from it
+     */
+    private final Source source;
+    private final DoubleUnaryOperator xMap, yMap;
+    private volatile DoubleSeries measures;
 
     /**
      * Creates an experiment. f is launched on every value in [a; b] with specified step.
      * For example,
      * new Experiment(x -> x * x, -3, 5, 2)
      * will create a list of measures: (-3, 9), (-1, 1), (1, 1), (3, 9), (5, 25)
+     * <p>
+     * Experiment is lazy: f is launched only when results are requested for the first time,
+     * by {@link #get()} or {@link #forEach(PointConsumer)}.
      */
     public Experiment(Function<Double, Double> f, double a, double b, double step) {
-        measures = new ArrayList<>();
-        for (double x = a; x < b * (1 + 1e-9); x += step) {
-            double y;
-            try {
-                y = f.apply(x);
-            } catch (Exception e) {
-                y = Double.NaN;
+        this(f, a, b, step, 1);
+    }
+
+    /**
+     * Same as {@link #Experiment(Function, double, double, double)}, but values are computed
+     * in parallel on a fork-join pool with specified parallelism level.
+     * Grid is split into contiguous chunks, so f should be thread-safe.
+     * Order of measures is the same as in sequential case.
+     *
+     * @param parallelism number of worker threads, 1 means computing in current thread
+     */
+    public Experiment(Function<Double, Double> f, double a, double b, double step, int parallelism) {
+        this(new Source(f, a, b, step, parallelism), DoubleUnaryOperator.identity(), DoubleUnaryOperator.identity());
+    }
+
+    /**
+     * Creates an experiment with adaptive grid. f is launched on grid of [a; b] with specified step first,
+     * then intervals are bisected recursively while linear interpolation of f on them is not precise enough:
+     * f is launched at the middle of interval, and if it differs from the line through ends of interval by more
+     * than tolerance, both halves are examined in the same way. Intervals with largest deviations are bisected first,
+     * and refinement stops when all deviations are small, or halves would be shorter than minStep,
+     * or maxPoints values of f are computed. Intervals where f failed at one of ends are not refined.
+     * <p>
+     * Values are computed sequentially, in current thread, since every bisection depends on previous values.
+     *
+     * @param step      step of initial grid
+     * @param tolerance allowed deviation from linear interpolation, relative to range of values on initial grid
+     * @param minStep   minimal distance between points
+     * @param maxPoints maximal number of points, including points of initial grid (which are computed anyway)
+     * @return experiment; its points are ordered by x
+     */
+    public static Experiment adaptive(Function<Double, Double> f, double a, double b, double step,
+                                      double tolerance, double minStep, int maxPoints) {
+        Source source = new Source(f, a, b, step, 1);
+        source.refinement = new Refinement(tolerance, minStep, maxPoints,
+                DoubleUnaryOperator.identity(), DoubleUnaryOperator.identity());
+        return new Experiment(source, DoubleUnaryOperator.identity(), DoubleUnaryOperator.identity());
+    }
+
+    private Experiment(Source source, DoubleUnaryOperator xMap, DoubleUnaryOperator yMap) {
+        this.source = source;
+        this.xMap = xMap;
+        this.yMap = yMap;
+    }
+
+    /**
+     * Grid and values of measured function; values are computed once, at first request.
+     */
+    private static class Source {
+        private final Function<Double, Double> f;
+        private final double a, b, step;
+        private final int parallelism;
+        private Refinement refinement;
+        /**
+         * Is run before every computation of values, see {@link Continuation#startSweep()}
+         */
+        private Runnable sweepStart = () -> {
+        };
+        private double[] xs, ys;
+
+        Source(Function<Double, Double> f, double a, double b, double step, int parallelism) {
+            this.f = f;
+            this.a = a;
+            this.b = b;
+            this.step = step;
+            this.parallelism = parallelism;
+        }
+
+        double[] grid() {
+            int n = 0;
+            for (double x = a; x < b * (1 + 1e-9); x += step) {
+                ++n;
+            }
+            double[] grid = new double[n];
+            int i = 0;
+            for (double x = a; i < n; x += step) {
+                grid[i++] = x;
+            }
+            return grid;
+        }
+
+        /**
+         * @return whether values are already computed
+         */
+        synchronized boolean isComputed() {
+            return ys != null;
+        }
+
+        /**
+         * @return whether values can be passed to consumer as soon as they are measured
+         */
+        boolean isStreaming() {
+            return parallelism <= 1 && refinement == null;
+        }
+
+        synchronized void compute() {
+            if (ys != null) {
+                return;
+            }
+            sweepStart.run();
+            if (refinement != null) {
+                refinement.refine(f, grid(), this);
+                return;
+            }
+            double[] xs = grid();
+            double[] ys = new double[xs.length];
+            if (parallelism <= 1) {
+                for (int i = 0; i < xs.length; ++i) {
+                    ys[i] = measure(f, xs[i]);
+                }
+            } else {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    int grain = Math.max(1, xs.length / (parallelism * 4));
+                    pool.invoke(new Measuring(f, xs, ys, 0, xs.length, grain));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            this.xs = xs;
+            this.ys = ys;
+        }
+    }
+
+    /**
+     * Parameters of adaptive grid, see {@link #adaptive(Function, double, double, double, double, double, int)}.
+     * Deviations are measured on values mapped by xMap and yMap, so that refinement follows the plotted curve.
+     */
+    private static class Refinement {
+        private final double tolerance, minStep;
+        private final int maxPoints;
+        private final DoubleUnaryOperator xMap, yMap;
+
+        Refinement(double tolerance, double minStep, int maxPoints, DoubleUnaryOperator xMap, DoubleUnaryOperator yMap) {
+            this.tolerance = tolerance;
+            this.minStep = minStep;
+            this.maxPoints = maxPoints;
+            this.xMap = xMap;
+            this.yMap = yMap;
+        }
+
+        /**
+         * Interval between points with indices left and right, with estimated deviation of its middle
+         */
+        private static class Interval {
+            final int left, right;
+            final double deviation;
+
+            Interval(int left, int right, double deviation) {
+                this.left = left;
+                this.right = right;
+                this.deviation = deviation;
+            }
+        }
+
+        /**
+         * Computes f on grid and refines it, storing points ordered by x to source
+         */
+        void refine(Function<Double, Double> f, double[] grid, Source source) {
+            int n = grid.length;
+            double[] xs = Arrays.copyOf(grid, Math.max(n, maxPoints));
+            double[] ys = new double[xs.length];
+            // mapped coordinates, in which deviations are measured
+            double[] us = new double[xs.length];
+            double[] vs = new double[xs.length];
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; ++i) {
+                ys[i] = measure(f, xs[i]);
+                us[i] = xMap.applyAsDouble(xs[i]);
+                vs[i] = yMap.applyAsDouble(ys[i]);
+                if (isFinite(us[i]) && isFinite(vs[i])) {
+                    min = Math.min(min, vs[i]);
+                    max = Math.max(max, vs[i]);
+                }
+            }
+            double range = max - min;
+            if (!(range > 0)) {
+                range = Math.max(Math.abs(min), Math.abs(max));
+            }
+            double threshold = tolerance * (range > 0 && isFinite(range) ? range : 1);
+
+            // intervals of initial grid are examined in order of deviation of a parabola through neighbour points
+            PriorityQueue<Interval> queue = new PriorityQueue<>((p, q) -> Double.compare(q.deviation, p.deviation));
+            for (int i = 0; i + 1 < n; ++i) {
+                if (isRefinable(xs, us, vs, i, i + 1)) {
+                    double curvature = Math.max(i > 0 ? secondDifference(vs, i - 1) : 0,
+                            i + 2 < n ? secondDifference(vs, i) : 0);
+                    queue.add(new Interval(i, i + 1, isFinite(curvature) ? curvature / 8 : 0));
+                }
+            }
+
+            int count = n;
+            while (!queue.isEmpty() && count < maxPoints) {
+                Interval interval = queue.poll();
+                int l = interval.left, r = interval.right;
+                int m = count++;
+                xs[m] = (xs[l] + xs[r]) / 2;
+                ys[m] = measure(f, xs[m]);
+                us[m] = xMap.applyAsDouble(xs[m]);
+                vs[m] = yMap.applyAsDouble(ys[m]);
+
+                double t = (us[m] - us[l]) / (us[r] - us[l]);
+                double deviation = Math.abs(vs[m] - (vs[l] + t * (vs[r] - vs[l])));
+                if (deviation > threshold) {
+                    // interpolation error is proportional to squared length, so halves are expected to deviate by quarter
+                    if (isRefinable(xs, us, vs, l, m)) {
+                        queue.add(new Interval(l, m, deviation / 4));
+                    }
+                    if (isRefinable(xs, us, vs, m, r)) {
+                        queue.add(new Interval(m, r, deviation / 4));
+                    }
+                }
+            }
+
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i, j) -> Double.compare(xs[i], xs[j]));
+            source.xs = new double[count];
+            source.ys = new double[count];
+            for (int i = 0; i < count; ++i) {
+                source.xs[i] = xs[order[i]];
+                source.ys[i] = ys[order[i]];
             }
-            measures.add(new Typke(x, y));
+        }
+
+        private boolean isRefinable(double[] xs, double[] us, double[] vs, int l, int r) {
+            return isFinite(us[l]) && isFinite(vs[l]) && isFinite(us[r]) && isFinite(vs[r])
+                    && us[l] != us[r] && (xs[r] - xs[l]) / 2 >= minStep;
+        }
+
+        private static double secondDifference(double[] vs, int i) {
+            return Math.abs(vs[i] - 2 * vs[i + 1] + vs[i + 2]);
+        }
+
+        private static boolean isFinite(double value) {
+            return !Double.isNaN(value) && !Double.isInfinite(value);
         }
     }
 
-    private Experiment(List<Typke> measures) {
-        this.measures = measures;
+    /**
+     * @return f(x), or NaN if f failed
+     */
+    private static double measure(Function<Double, Double> f, double x) {
+        try {
+            return f.apply(x);
+        } catch (Exception e) {
+            return Double.NaN;
+        }
     }
 
     /**
-     * @return results of experiment
+     * Computes values on range [from; to) of grid, splitting it in halves until it is not bigger than grain.
      */
-    public List<Typke> get() {
-        return measures;
+    private static class Measuring extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Function<Double, Double> f;
+        private final double[] xs, ys;
+        private final int from, to, grain;
+
+        Measuring(Function<Double, Double> f, double[] xs, double[] ys, int from, int to, int grain) {
+            this.f = f;
+            this.xs = xs;
+            this.ys = ys;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; ++i) {
+                    ys[i] = measure(f, xs[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Measuring(f, xs, ys, from, mid, grain), new Measuring(f, xs, ys, mid, to, grain));
+            }
+        }
+    }
+
+    /**
+     * Computes measured function (if it was not computed yet) and applies all mappings.
+     *
+     * @return results of experiment; points where function failed have NaN y
+     */
+    public DoubleSeries get() {
+        DoubleSeries res = measures;
+        if (res == null) {
+            source.compute();
+            double[] xs = new double[source.xs.length];
+            double[] ys = new double[source.ys.length];
+            for (int i = 0; i < xs.length; ++i) {
+                xs[i] = xMap.applyAsDouble(source.xs[i]);
+                ys[i] = yMap.applyAsDouble(source.ys[i]);
+            }
+            res = new DoubleSeries(xs, ys);
+            measures = res;
+        }
+        return res;
+    }
+
+    /**
+     * Passes mapped points to consumer in order, without storing them.
+     * If measured function was not computed yet and experiment is sequential and not adaptive, each point is passed
+     * as soon as it is measured (and measured values are not kept, so they would be computed again by next request).
+     *
+     * @param consumer receiver of points
+     */
+    public void forEach(PointConsumer consumer) {
+        if (source.isStreaming() && !source.isComputed()) {
+            source.sweepStart.run();
+            for (double x : source.grid()) {
+                consumer.accept(xMap.applyAsDouble(x), yMap.applyAsDouble(measure(source.f, x)));
+            }
+            return;
+        }
+        source.compute();
+        double[] xs = source.xs, ys = source.ys;
+        for (int i = 0; i < xs.length; ++i) {
+            consumer.accept(xMap.applyAsDouble(xs[i]), yMap.applyAsDouble(ys[i]));
+        }
     }
 
     /**
@@ -57,12 +385,15 @@ public class Experiment {
      * For example,
      * new Experiment(x -> x * x, -3, 5, 2).mapX(x -> -x)
      * will create an experiment with following list of measures: (3, 9), (1, 1), (-1, 1), (-3, 9), (-5, 25)
+     * <p>
+     * Mapping is composed with previous ones and applied at request of results,
+     * measured function is computed at most once for this experiment and all mapped from it.
      *
      * @param f mapping function
      * @return new Experiment instance with changes applied
      */
-    public Experiment mapX(Function<Double, Double> f) {
-        return new Experiment(measures.stream().map(typke -> new Typke(f.apply(typke.x), typke.y)).collect(Collectors.toList()));
+    public Experiment mapX(DoubleUnaryOperator f) {
+        return new Experiment(source, xMap.andThen(f), yMap);
     }
 
     /**
@@ -70,12 +401,15 @@ public class Experiment {
      * For example,
      * new Experiment(x -> x * x, -3, 5, 2).mapY(y -> 2 * y)
      * will create an experiment with following list of measures: (-3, 18), (-1, 2), (1, 2), (3, 18), (5, 50)
+     * <p>
+     * Mapping is composed with previous ones and applied at request of results,
+     * measured function is computed at most once for this experiment and all mapped from it.
      *
      * @param f mapping function
      * @return new Experiment instance with changes applied
      */
-    public Experiment mapY(Function<Double, Double> f) {
-        return new Experiment(measures.stream().map(typke -> new Typke(typke.x, f.apply(typke.y))).collect(Collectors.toList()));
+    public Experiment mapY(DoubleUnaryOperator f) {
+        return new Experiment(source, xMap, yMap.andThen(f));
     }
 
 
@@ -84,8 +418,15 @@ public class Experiment {
      */
     public static class ExperimentSeries {
         private final double a, b, step;
-        private final ArrayList<Function<Double, Double>> xMaps = new ArrayList<>();
-        private final ArrayList<Function<Double, Double>> yMaps = new ArrayList<>();
+        private DoubleUnaryOperator xMap = DoubleUnaryOperator.identity();
+        private DoubleUnaryOperator yMap = DoubleUnaryOperator.identity();
+        private int parallelism = 1;
+        private double tolerance, minStep;
+        private int maxPoints;
+        /**
+         * Continuations created by this series, their sweeps are restarted by every experiment of series
+         */
+        private final List<Continuation> continuations = new CopyOnWriteArrayList<>();
 
         /**
          * Creates experiment series with specified interval and step
@@ -104,14 +445,61 @@ public class Experiment {
          * Creates experiment with specified function
          */
         public Experiment create(Function<Double, Double> f) {
-            Experiment experiment = new Experiment(f, a, b, step);
-            for (Function<Double, Double> xMap : xMaps) {
-                experiment = experiment.mapX(xMap);
+            Source source = new Source(f, a, b, step, maxPoints > 0 ? 1 : parallelism);
+            if (maxPoints > 0) {
+                source.refinement = new Refinement(tolerance, minStep, maxPoints, xMap, yMap);
             }
-            for (Function<Double, Double> yMap : yMaps) {
-                experiment = experiment.mapY(yMap);
+            source.sweepStart = () -> continuations.forEach(Continuation::startSweep);
+            return new Experiment(source, xMap, yMap);
+        }
+
+        /**
+         * Creates function which solves a problem by iterative method on points of this series,
+         * starting each point from solutions found at previous points of the grid.
+         * Functions passed to {@link #create(Function)} should use it in place of direct solving.
+         * Every experiment of this series starts new sweep of it before computing its values.
+         *
+         * @param solver  iterative method
+         * @param initial initial approximation for first point, and fallback when continuation fails
+         * @param mode    way to choose start approximation
+         * @return function x -> solution
+         */
+        public Continuation continuation(Continuation.Solver solver, List<Double> initial, Continuation.Mode mode) {
+            Continuation continuation = new Continuation(solver, initial, mode, a, step);
+            continuations.add(continuation);
+            return continuation;
+        }
+
+        /**
+         * Makes experiments of this series compute their values in parallel.
+         *
+         * @param parallelism number of worker threads, 1 means sequential computation
+         * @return same object in new state
+         */
+        public ExperimentSeries parallel(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Makes experiments of this series adaptive: step of series is step of initial grid, which is refined
+         * where curves (with mappings of this series applied) are not straight enough.
+         * Adaptive experiments are computed sequentially.
+         * See {@link Experiment#adaptive(Function, double, double, double, double, double, int)}.
+         *
+         * @param tolerance allowed deviation from linear interpolation, relative to range of values on initial grid
+         * @param minStep   minimal distance between points
+         * @param maxPoints maximal number of points of each experiment
+         * @return same object in new state
+         */
+        public ExperimentSeries adaptive(double tolerance, double minStep, int maxPoints) {
+            if (maxPoints < 1) {
+                throw new IllegalArgumentException("Point budget should be positive, got " + maxPoints);
             }
-            return experiment;
+            this.tolerance = tolerance;
+            this.minStep = minStep;
+            this.maxPoints = maxPoints;
+            return this;
         }
 
         /**
@@ -120,8 +508,8 @@ public class Experiment {
          * @param f mapping function
          * @return same object in new state
          */
-        public ExperimentSeries mapX(Function<Double, Double> f) {
-            xMaps.add(f);
+        public ExperimentSeries mapX(DoubleUnaryOperator f) {
+            xMap = xMap.andThen(f);
             return this;
         }
 
@@ -131,8 +519,8 @@ public class Experiment {
          * @param f mapping function
          * @return same object in new state
          */
-        public ExperimentSeries mapY(Function<Double, Double> f) {
-            yMaps.add(f);
+        public ExperimentSeries mapY(DoubleUnaryOperator f) {
+            yMap = yMap.andThen(f);
             return this;
         }
     }
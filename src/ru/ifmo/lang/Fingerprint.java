@@ -0,0 +1,132 @@
+package ru.ifmo.lang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * 64-bit hash of everything which affects results of computation: its parameters and code which computes them.
+ * Results kept between runs (see {@link PersistentCache}) are told apart by it, so they are not served
+ * after parameters or code have changed, and nobody has to remember to change description of computation by hand.
+ * <p>
+ * Numbers are added by their bits, code is added by contents of class files.
+ */
+public class Fingerprint {
+    /**
+     * Object which adds to fingerprint everything that affects its results
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @param fingerprint fingerprint to add to
+         */
+        void addTo(Fingerprint fingerprint);
+    }
+
+    private long hash = 0x6a09e667f3bcc908L;
+
+    public Fingerprint add(long value) {
+        hash = mix(hash ^ value) + 0x9e3779b97f4a7c15L;
+        return this;
+    }
+
+    public Fingerprint add(double value) {
+        return add(Double.doubleToLongBits(value));
+    }
+
+    public Fingerprint add(boolean value) {
+        return add(value ? 1 : 0);
+    }
+
+    public Fingerprint add(int[] values) {
+        add(values.length);
+        for (int value : values) {
+            add(value);
+        }
+        return this;
+    }
+
+    public Fingerprint add(double[] values) {
+        add(values.length);
+        for (double value : values) {
+            add(value);
+        }
+        return this;
+    }
+
+    public Fingerprint add(List<Double> values) {
+        add(values.size());
+        for (double value : values) {
+            add(value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds constant by its class and name, so fingerprint does not change when constants are reordered
+     */
+    public Fingerprint add(Enum<?> value) {
+        return addChars(value.getDeclaringClass().getName()).addChars(value.name());
+    }
+
+    public Fingerprint add(Source source) {
+        source.addTo(this);
+        return this;
+    }
+
+    /**
+     * Adds contents of class files of specified classes and of classes declared inside them
+     *
+     * @throws IllegalStateException if class file is not found
+     * @throws UncheckedIOException  if class file can't be read
+     */
+    public Fingerprint addCode(Class<?>... types) {
+        for (Class<?> type : types) {
+            String name = type.getName();
+            try (InputStream in = type.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+                if (in == null) {
+                    throw new IllegalStateException("Class file of " + name + " is not found");
+                }
+                addChars(name);
+                byte[] buffer = new byte[8192];
+                long length = 0;
+                for (int read; (read = in.read(buffer)) > 0; length += read) {
+                    for (int i = 0; i < read; ++i) {
+                        add(buffer[i]);
+                    }
+                }
+                add(length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            addCode(type.getDeclaredClasses());
+        }
+        return this;
+    }
+
+    private Fingerprint addChars(String value) {
+        add(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            add(value.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * @return hash of everything added, never 0
+     */
+    public long get() {
+        long res = mix(hash);
+        return res != 0 ? res : 1;
+    }
+
+    /**
+     * Finalizer of SplitMix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,268 @@
+package ru.ifmo.lang;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Results of functions double -> list of doubles, kept in a file between runs.
+ * Is meant to be used as {@link CachingWrapper.Store}, see {@link #store(long, double)}.
+ * <p>
+ * File is a hash table of fixed-width records with open addressing, mapped to memory. Record is identified
+ * by tag (hash of everything that affects results: system, method, precision, initial approximation, code...,
+ * see {@link Fingerprint}) and argument.
+ * Capacity is fixed at creation of file; when table is 3/4 full, new results are not stored.
+ * <p>
+ * File can be used by several processes at once. Writers are serialized by lock of file. Readers take no locks,
+ * and writes to mapped memory are not ordered for them, so they can see any part of record which is being written.
+ * Record is returned only if its checksum matches its contents, so such partially written records are not seen
+ * (but for chance of collision of 64-bit hash). Locks of file belong to whole JVM, so in one JVM file should be
+ * opened once.
+ * <p>
+ * Cache should be closed, so that its contents are written to disk, see {@link #close()}.
+ */
+public class PersistentCache implements Closeable {
+    private static final long MAGIC = 0x4e53434143484531L;
+
+    // header: magic, width, capacity, count
+    private static final int HEADER = 32;
+    private static final int WIDTH_OFFSET = 8, CAPACITY_OFFSET = 12, COUNT_OFFSET = 16;
+
+    // record: checksum (0 for empty record), tag, argument, length, values
+    private static final int TAG_OFFSET = 8, KEY_OFFSET = 16, LENGTH_OFFSET = 24, VALUES_OFFSET = 32;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int width, capacity, recordSize;
+    private boolean closed;
+
+    /**
+     * Opens file, or creates it if it does not exist. Width and capacity of existing file are kept.
+     *
+     * @param file     file of cache
+     * @param width    maximal number of values in result
+     * @param capacity number of records
+     * @throws IOException if file can't be opened or was created with smaller width
+     */
+    public PersistentCache(Path file, int width, int capacity) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                if (channel.size() == 0) {
+                    header.putLong(0, MAGIC).putInt(WIDTH_OFFSET, width).putInt(CAPACITY_OFFSET, capacity).putInt(COUNT_OFFSET, 0);
+                    channel.write(header, 0);
+                    long size = HEADER + (long) capacity * (VALUES_OFFSET + 8 * width);
+                    channel.write(ByteBuffer.allocate(1), size - 1);
+                } else {
+                    channel.read(header, 0);
+                    if (header.getLong(0) != MAGIC) {
+                        throw new IOException(file + " is not a cache file");
+                    }
+                    if (header.getInt(WIDTH_OFFSET) < width) {
+                        throw new IOException(file + " keeps at most " + header.getInt(WIDTH_OFFSET) + " values per result, " + width + " required");
+                    }
+                }
+                this.width = header.getInt(WIDTH_OFFSET);
+                this.capacity = header.getInt(CAPACITY_OFFSET);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        // layout of existing file is defined by its header, not by arguments
+        recordSize = VALUES_OFFSET + 8 * this.width;
+        long size = HEADER + (long) this.capacity * recordSize;
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Cache of " + this.capacity + " records of width " + this.width + " is too large to be mapped");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * @param tag     fingerprint of function, see {@link Fingerprint#get()}; results of different functions are kept apart
+     * @param quantum arguments which differ less than by it share the same result, as in
+     *                {@link CachingWrapper#quantize(double)}; 0 means exact match
+     * @return view of this cache for one function
+     */
+    public CachingWrapper.Store<Double, List<Double>> store(long tag, double quantum) {
+        return new CachingWrapper.Store<Double, List<Double>>() {
+            @Override
+            public List<Double> load(Double key) {
+                double[] values = PersistentCache.this.load(tag, toBits(key, quantum));
+                if (values == null) {
+                    return null;
+                }
+                Double[] res = new Double[values.length];
+                for (int i = 0; i < res.length; ++i) {
+                    res[i] = values[i];
+                }
+                return Arrays.asList(res);
+            }
+
+            @Override
+            public void save(Double key, List<Double> value) {
+                double[] values = new double[value.size()];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = value.get(i);
+                }
+                PersistentCache.this.save(tag, toBits(key, quantum), values);
+            }
+        };
+    }
+
+    private static long toBits(double key, double quantum) {
+        return quantum > 0 ? Math.round(key / quantum) : Double.doubleToLongBits(key);
+    }
+
+    /**
+     * @return stored values, or null if there are none
+     */
+    public double[] load(long tag, long key) {
+        int slot = slot(tag, key);
+        for (int probe = 0; probe < capacity; ++probe) {
+            int offset = HEADER + slot * recordSize;
+            long check = buffer.getLong(offset);
+            if (check == 0) {
+                return null;
+            }
+            if (buffer.getLong(offset + TAG_OFFSET) == tag && buffer.getLong(offset + KEY_OFFSET) == key) {
+                int length = buffer.getInt(offset + LENGTH_OFFSET);
+                if (length < 0 || length > width) {
+                    return null;
+                }
+                double[] values = new double[length];
+                for (int i = 0; i < length; ++i) {
+                    values[i] = buffer.getDouble(offset + VALUES_OFFSET + 8 * i);
+                }
+                // record which is being written by other process is not complete yet
+                return checksum(tag, key, values) == check ? values : null;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Stores values, unless there are already values for this tag and key, or there are too many values,
+     * or cache is full or closed
+     *
+     * @throws UncheckedIOException if file can't be locked
+     */
+    public synchronized void save(long tag, long key, double[] values) {
+        if (closed || values.length > width) {
+            return;
+        }
+        try {
+            FileLock lock = channel.lock();
+            try {
+                append(tag, key, values);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Body of {@link #save(long, long, double[])}, is called under lock of file
+     */
+    private void append(long tag, long key, double[] values) {
+        int count = buffer.getInt(COUNT_OFFSET);
+        if (count >= capacity / 4 * 3) {
+            return;
+        }
+        int slot = slot(tag, key);
+        while (true) {
+            int offset = HEADER + slot * recordSize;
+            if (buffer.getLong(offset) == 0) {
+                buffer.putLong(offset + TAG_OFFSET, tag);
+                buffer.putLong(offset + KEY_OFFSET, key);
+                buffer.putInt(offset + LENGTH_OFFSET, values.length);
+                for (int i = 0; i < values.length; ++i) {
+                    buffer.putDouble(offset + VALUES_OFFSET + 8 * i, values[i]);
+                }
+                buffer.putLong(offset, checksum(tag, key, values));
+                buffer.putInt(COUNT_OFFSET, count + 1);
+                return;
+            }
+            if (buffer.getLong(offset + TAG_OFFSET) == tag && buffer.getLong(offset + KEY_OFFSET) == key) {
+                return;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+    }
+
+    /**
+     * @return first slot probed for record, is visible for tests of collisions
+     */
+    int slot(long tag, long key) {
+        return (int) Long.remainderUnsigned(mix(tag * 31 + key), capacity);
+    }
+
+    /**
+     * @return hash of record, never 0
+     */
+    private static long checksum(long tag, long key, double[] values) {
+        long h = mix(tag) ^ key;
+        for (double value : values) {
+            h = mix(h ^ Double.doubleToLongBits(value));
+        }
+        h = mix(h + values.length);
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * Finalizer of SplitMix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return number of stored results
+     */
+    public int size() {
+        return buffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * @return number of records in file
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes changes to disk and closes file. Waits for save which is in progress, later ones are ignored,
+     * and loads still see contents of cache.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        channel.close();
+    }
+}
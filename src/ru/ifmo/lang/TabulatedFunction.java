@@ -0,0 +1,134 @@
+package ru.ifmo.lang;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Approximation of smooth function on [a; b] by piecewise cubic interpolation on uniform grid.
+ * Each grid interval keeps coefficients of cubic polynomial passing through 4 nearest nodes,
+ * so evaluation takes 3 multiplications and 3 additions.
+ * Outside [a; b] the original function is called.
+ * <p>
+ * Interpolation error is O(h^4 * f''''), its estimate is measured at construction
+ * by comparing with the original function between grid nodes (see {@link #getMaxRelativeError()}).
+ */
+public class TabulatedFunction implements DoubleUnaryOperator {
+    private final DoubleUnaryOperator f;
+    private final double a, b, invH;
+    private final int intervals;
+
+    /**
+     * Coefficients of cubic on i-th interval are at [4 * i; 4 * i + 3], lowest power first.
+     * Polynomial argument is position inside interval, from 0 to 1.
+     */
+    private final double[] coefs;
+
+    private final double maxRelativeError;
+
+    /**
+     * @param f     function to tabulate
+     * @param a     left end of tabulated interval
+     * @param b     right end of tabulated interval
+     * @param nodes number of grid nodes, at least 4
+     */
+    public TabulatedFunction(DoubleUnaryOperator f, double a, double b, int nodes) {
+        if (nodes < 4) {
+            throw new IllegalArgumentException("At least 4 nodes required, got " + nodes);
+        }
+        this.f = f;
+        this.a = a;
+        this.b = b;
+        this.intervals = nodes - 1;
+        double h = (b - a) / intervals;
+        this.invH = 1 / h;
+
+        double[] values = new double[nodes];
+        for (int i = 0; i < nodes; ++i) {
+            values[i] = f.applyAsDouble(i == intervals ? b : a + i * h);
+        }
+
+        coefs = new double[4 * intervals];
+        for (int i = 0; i < intervals; ++i) {
+            int first = Math.max(0, Math.min(i - 1, nodes - 4));
+            fitCubic(values, first, first - i, coefs, 4 * i);
+        }
+
+        double error = 0;
+        for (int i = 0; i < intervals; ++i) {
+            for (double u : new double[]{0.25, 0.5, 0.75}) {
+                double exact = f.applyAsDouble(a + (i + u) * h);
+                double delta = Math.abs(evaluate(i, u) - exact);
+                if (exact != 0 && !Double.isNaN(delta)) {
+                    error = Math.max(error, delta / Math.abs(exact));
+                }
+            }
+        }
+        this.maxRelativeError = error;
+    }
+
+    /**
+     * Creates tabulation with grid which is doubled until estimated relative error becomes not greater than 'tolerance'.
+     *
+     * @param maxNodes limit of grid size; if it is reached, tolerance may be not satisfied
+     */
+    public static TabulatedFunction withTolerance(DoubleUnaryOperator f, double a, double b, double tolerance, int maxNodes) {
+        int nodes = 4;
+        TabulatedFunction res = new TabulatedFunction(f, a, b, nodes);
+        while (res.maxRelativeError > tolerance && nodes < maxNodes) {
+            nodes = Math.min(2 * nodes - 1, maxNodes);
+            res = new TabulatedFunction(f, a, b, nodes);
+        }
+        return res;
+    }
+
+    /**
+     * Fits cubic through 4 nodes starting from 'first', in coordinate with origin at node first - offset.
+     */
+    private static void fitCubic(double[] values, int first, int offset, double[] out, int pos) {
+        // Newton divided differences on nodes u_k = offset + k
+        double d0 = values[first];
+        double d1 = values[first + 1] - values[first];
+        double d2 = (values[first + 2] - 2 * values[first + 1] + values[first]) / 2;
+        double d3 = (values[first + 3] - 3 * values[first + 2] + 3 * values[first + 1] - values[first]) / 6;
+
+        // p(u) = d0 + (u - u0) * (d1 + (u - u1) * (d2 + (u - u2) * d3)), expanded to powers of u
+        double[] p = {d3, 0, 0, 0};
+        int degree = 0;
+        for (int k = 2; k >= 0; --k) {
+            double root = offset + k;
+            double[] next = new double[4];
+            for (int j = 0; j <= degree; ++j) {
+                next[j + 1] += p[j];
+                next[j] -= root * p[j];
+            }
+            next[0] += k == 2 ? d2 : k == 1 ? d1 : d0;
+            p = next;
+            ++degree;
+        }
+        System.arraycopy(p, 0, out, pos, 4);
+    }
+
+    private double evaluate(int interval, double u) {
+        int c = 4 * interval;
+        return ((coefs[c + 3] * u + coefs[c + 2]) * u + coefs[c + 1]) * u + coefs[c];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double applyAsDouble(double x) {
+        if (!(x >= a && x <= b)) {
+            return f.applyAsDouble(x);
+        }
+        double position = (x - a) * invH;
+        int interval = Math.min((int) position, intervals - 1);
+        return evaluate(interval, position - interval);
+    }
+
+    /**
+     * @return estimate of maximal relative error of interpolation on [a; b]
+     */
+    public double getMaxRelativeError() {
+        return maxRelativeError;
+    }
+}
@@ -0,0 +1,235 @@
+package ru.ifmo.modeling;
+
+import java.util.Arrays;
+
+/**
+ * Forward-mode automatic differentiation of functions of n variables.
+ * <p>
+ * Numbers are represented by handles (ints) of slots in workspace, each slot keeps value and gradient
+ * over all n variables. Every arithmetic operation takes a fresh slot, and all slots are released by
+ * {@link #reset()}, so after workspace has grown to required size, evaluation allocates nothing.
+ * <p>
+ * Handles and plain constants are both passed as numbers, so operations with constants have distinct names:
+ * {@link #scale(double, int)}, {@link #shift(int, double)}, {@link #minus(double, int)}.
+ */
+public class AutoDiff {
+    /**
+     * Set of equations f_1 = 0, ..., f_n = 0, defined through operations of {@link AutoDiff}.
+     */
+    @FunctionalInterface
+    public interface Residuals {
+        /**
+         * @param ad   workspace to count in
+         * @param vars handles of variables
+         * @param out  array of size n, out[i] is set to handle of f_{i+1}
+         */
+        void apply(AutoDiff ad, int[] vars, int[] out);
+    }
+
+    private final int n;
+    private double[] values;
+    /**
+     * Gradient of slot s is at [s * n; s * n + n - 1]
+     */
+    private double[] grads;
+    private int top;
+
+    /**
+     * @param variables number of variables
+     */
+    public AutoDiff(int variables) {
+        n = variables;
+        values = new double[4 * n];
+        grads = new double[4 * n * n];
+    }
+
+    /**
+     * Creates linearization of system, which counts residuals and Jacobian in one pass.
+     * Linearization keeps its workspace and must not be called concurrently.
+     *
+     * @param size      number of equations and variables
+     * @param residuals definition of system
+     */
+    public static SystemOfEquationsSolve.Linearization linearize(int size, Residuals residuals) {
+        AutoDiff ad = new AutoDiff(size);
+        int[] vars = new int[size];
+        int[] res = new int[size];
+        return (x, values, jacobian) -> {
+            ad.reset();
+            for (int i = 0; i < size; ++i) {
+                vars[i] = ad.variable(i, x[i]);
+            }
+            residuals.apply(ad, vars, res);
+            for (int i = 0; i < size; ++i) {
+                values[i] = ad.value(res[i]);
+                System.arraycopy(ad.grads, res[i] * size, jacobian[i], 0, size);
+            }
+        };
+    }
+
+    /**
+     * Releases all slots
+     */
+    public void reset() {
+        top = 0;
+    }
+
+    private int allocate() {
+        if (top == values.length) {
+            values = Arrays.copyOf(values, 2 * top);
+            grads = Arrays.copyOf(grads, 2 * top * n);
+        }
+        return top++;
+    }
+
+    /**
+     * @return handle of i-th variable with specified value
+     */
+    public int variable(int i, double value) {
+        int r = constant(value);
+        grads[r * n + i] = 1;
+        return r;
+    }
+
+    /**
+     * @return handle of constant
+     */
+    public int constant(double value) {
+        int r = allocate();
+        values[r] = value;
+        Arrays.fill(grads, r * n, r * n + n, 0);
+        return r;
+    }
+
+    /**
+     * @return value of number
+     */
+    public double value(int a) {
+        return values[a];
+    }
+
+    /**
+     * @return d(a)/d(i-th variable)
+     */
+    public double derivative(int a, int i) {
+        return grads[a * n + i];
+    }
+
+    /**
+     * @return a + b
+     */
+    public int add(int a, int b) {
+        int r = allocate();
+        values[r] = values[a] + values[b];
+        int ra = a * n, rb = b * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = grads[ra + i] + grads[rb + i];
+        }
+        return r;
+    }
+
+    /**
+     * @return a - b
+     */
+    public int sub(int a, int b) {
+        int r = allocate();
+        values[r] = values[a] - values[b];
+        int ra = a * n, rb = b * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = grads[ra + i] - grads[rb + i];
+        }
+        return r;
+    }
+
+    /**
+     * @return a * b
+     */
+    public int mul(int a, int b) {
+        int r = allocate();
+        double va = values[a], vb = values[b];
+        values[r] = va * vb;
+        int ra = a * n, rb = b * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = grads[ra + i] * vb + va * grads[rb + i];
+        }
+        return r;
+    }
+
+    /**
+     * @return a / b
+     */
+    public int div(int a, int b) {
+        int r = allocate();
+        double va = values[a], vb = values[b];
+        double q = va / vb;
+        values[r] = q;
+        int ra = a * n, rb = b * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = (grads[ra + i] - q * grads[rb + i]) / vb;
+        }
+        return r;
+    }
+
+    /**
+     * @return c * a
+     */
+    public int scale(double c, int a) {
+        int r = allocate();
+        values[r] = c * values[a];
+        int ra = a * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = c * grads[ra + i];
+        }
+        return r;
+    }
+
+    /**
+     * @return a + c
+     */
+    public int shift(int a, double c) {
+        int r = allocate();
+        values[r] = values[a] + c;
+        System.arraycopy(grads, a * n, grads, r * n, n);
+        return r;
+    }
+
+    /**
+     * @return c - a
+     */
+    public int minus(double c, int a) {
+        int r = allocate();
+        values[r] = c - values[a];
+        int ra = a * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = -grads[ra + i];
+        }
+        return r;
+    }
+
+    /**
+     * @return -a
+     */
+    public int neg(int a) {
+        return minus(0, a);
+    }
+
+    /**
+     * @return a ^ k, k is non-negative integer
+     */
+    public int pow(int a, int k) {
+        int r = allocate();
+        double va = values[a];
+        double p = 1;
+        for (int i = 1; i < k; ++i) {
+            p *= va;
+        }
+        // p = a ^ (k - 1)
+        values[r] = k == 0 ? 1 : p * va;
+        double d = k * p;
+        int ra = a * n, rr = r * n;
+        for (int i = 0; i < n; ++i) {
+            grads[rr + i] = d * grads[ra + i];
+        }
+        return r;
+    }
+}
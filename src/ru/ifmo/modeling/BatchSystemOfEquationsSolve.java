@@ -0,0 +1,230 @@
+package ru.ifmo.modeling;
+
+import java.util.Arrays;
+
+/**
+ * Newton method for the same system of equations at many points of parameter, in lockstep:
+ * every iteration evaluates residuals and Jacobian of all unconverged points by one call of kernel,
+ * then makes one Newton step for each of them.
+ * <p>
+ * States are kept in structure-of-arrays layout: vars[j][p] is j-th variable at p-th point, so kernels
+ * run plain loops over points. Points which finished (converged or failed) are swapped to the end,
+ * so active points always occupy slots [0; count) and kernels need no masks.
+ * Singular Jacobians are equilibrated and factored again as in {@link SystemOfEquationsSolve#scaling(boolean)},
+ * steps which would cross bounds of variables are shortened as in {@link SystemOfEquationsSolve#boundedSteps(boolean)}.
+ */
+public class BatchSystemOfEquationsSolve {
+    /**
+     * Residuals and Jacobian of system at points in slots [0; count).
+     */
+    @FunctionalInterface
+    public interface Linearization {
+        /**
+         * @param params   params[c][p] is c-th constant of system at point p, must not be changed
+         * @param vars     vars[j][p] is j-th variable at point p, must not be changed
+         * @param count    number of points to evaluate
+         * @param values   values[i][p] is set to f_{i+1} at point p
+         * @param jacobian jacobian[i][j][p] is set to d(f_{i+1})/d(j+1) at point p
+         */
+        void apply(double[][] params, double[][] vars, int count, double[][] values, double[][][] jacobian);
+    }
+
+    private final int size;
+    private final Linearization system;
+    private double[] lower, upper;
+    private boolean boundedSteps;
+
+    /**
+     * @param size   number of equations (and variables) in the system
+     * @param system residuals of system together with their partial derivatives
+     */
+    public BatchSystemOfEquationsSolve(int size, Linearization system) {
+        this.size = size;
+        this.system = system;
+    }
+
+    /**
+     * Sets bounds lower[i] <= x_i <= upper[i] of variables, see {@link SystemOfEquationsSolve#bounds(double[], double[])}
+     *
+     * @param lower lower bounds, null means no lower bounds
+     * @param upper upper bounds, null means no upper bounds
+     * @return same object in new state
+     */
+    public BatchSystemOfEquationsSolve bounds(double[] lower, double[] upper) {
+        this.lower = lower;
+        this.upper = upper;
+        return this;
+    }
+
+    /**
+     * Keeps iterates inside bounds of variables, see {@link SystemOfEquationsSolve#boundedSteps(boolean)}
+     *
+     * @return same object in new state
+     */
+    public BatchSystemOfEquationsSolve boundedSteps(boolean boundedSteps) {
+        this.boundedSteps = boundedSteps;
+        return this;
+    }
+
+    /**
+     * Solves system at all points. Is thread-safe: workspace is allocated per call.
+     *
+     * @param params       params[c][p] is c-th constant of system at point p (for example temperature, or
+     *                     values of K and D counted for it once), is not changed
+     * @param initial      initial[j][p] is initial approximation of j-th variable at point p, is not changed
+     * @param e            precision: iterations of point stop when its step becomes less than it
+     * @param maxIteration maximal number of iterations
+     * @param solution     solution[j][p] is set to found j-th variable at point p (or last approximation on failure)
+     * @return status of every point
+     */
+    public SystemOfEquationsSolve.Status[] solve(double[][] params, double[][] initial, double e, int maxIteration,
+                                                 double[][] solution) {
+        int points = initial[0].length;
+        double[][] p = new double[params.length][];
+        for (int c = 0; c < params.length; ++c) {
+            p[c] = params[c].clone();
+        }
+        double[][] vars = new double[size][];
+        for (int j = 0; j < size; ++j) {
+            vars[j] = initial[j].clone();
+        }
+        double[][] values = new double[size][points];
+        double[][][] jacobian = new double[size][size][points];
+
+        // slot -> original index of point
+        int[] index = new int[points];
+        for (int i = 0; i < points; ++i) {
+            index[i] = i;
+        }
+        SystemOfEquationsSolve.Status[] status = new SystemOfEquationsSolve.Status[points];
+
+        double[][] a = new double[size][size];
+        double[] step = new double[size], point = new double[size];
+        double[] rowFactor = new double[size], columnFactor = new double[size];
+        LUDecomposition lu = LUDecomposition.forSize(size);
+
+        int count = points;
+        for (int iteration = 0; iteration < maxIteration && count > 0; ++iteration) {
+            system.apply(p, vars, count, values, jacobian);
+
+            for (int s = 0; s < count; ++s) {
+                for (int i = 0; i < size; ++i) {
+                    double[][] row = jacobian[i];
+                    for (int j = 0; j < size; ++j) {
+                        a[i][j] = row[j][s];
+                    }
+                    step[i] = values[i][s];
+                }
+                boolean equilibrated = false;
+                if (!lu.factor(a)) {
+                    // factor badly scaled Jacobian again after equilibration, as SystemOfEquationsSolve does
+                    for (int i = 0; i < size; ++i) {
+                        double[][] row = jacobian[i];
+                        for (int j = 0; j < size; ++j) {
+                            a[i][j] = row[j][s];
+                        }
+                    }
+                    LUDecomposition.equilibrate(a, rowFactor, columnFactor);
+                    if (!lu.factor(a)) {
+                        status[index[s]] = SystemOfEquationsSolve.Status.SINGULAR;
+                        continue;
+                    }
+                    equilibrated = true;
+                    for (int i = 0; i < size; ++i) {
+                        step[i] *= rowFactor[i];
+                    }
+                }
+                lu.solve(a, step);
+                if (equilibrated) {
+                    for (int j = 0; j < size; ++j) {
+                        step[j] *= columnFactor[j];
+                    }
+                }
+
+                boolean limited = false;
+                if (boundedSteps) {
+                    for (int j = 0; j < size; ++j) {
+                        point[j] = vars[j][s];
+                    }
+                    limited = SystemOfEquationsSolve.limitToBounds(lower, upper, point, step);
+                }
+                double sum = 0;
+                for (int j = 0; j < size; ++j) {
+                    vars[j][s] = boundedSteps ? project(j, vars[j][s] - step[j]) : vars[j][s] - step[j];
+                    sum += step[j] * step[j];
+                }
+                // shortened step is small because of bound, not because solution is reached
+                if (!limited && sum < e * e) {
+                    status[index[s]] = SystemOfEquationsSolve.Status.CONVERGED;
+                } else if (Double.isNaN(sum)) {
+                    status[index[s]] = SystemOfEquationsSolve.Status.DIVERGED;
+                }
+            }
+
+            // move finished points out of [0; count)
+            for (int s = 0; s < count; ) {
+                if (status[index[s]] == null) {
+                    ++s;
+                    continue;
+                }
+                --count;
+                store(vars, s, index[s], solution);
+                swap(p, vars, index, s, count);
+            }
+        }
+
+        for (int s = 0; s < count; ++s) {
+            status[index[s]] = SystemOfEquationsSolve.Status.MAX_ITERATIONS;
+            store(vars, s, index[s], solution);
+        }
+        return status;
+    }
+
+    /**
+     * @return value of j-th variable moved inside its bounds
+     */
+    private double project(int j, double v) {
+        if (lower != null && v < lower[j]) {
+            return lower[j];
+        }
+        if (upper != null && v > upper[j]) {
+            return upper[j];
+        }
+        return v;
+    }
+
+    private void store(double[][] vars, int slot, int point, double[][] solution) {
+        for (int j = 0; j < size; ++j) {
+            solution[j][point] = vars[j][slot];
+        }
+    }
+
+    private static void swap(double[][] params, double[][] vars, int[] index, int s, int t) {
+        for (double[] row : params) {
+            swap(row, s, t);
+        }
+        for (double[] row : vars) {
+            swap(row, s, t);
+        }
+        int i = index[s];
+        index[s] = index[t];
+        index[t] = i;
+    }
+
+    private static void swap(double[] row, int s, int t) {
+        double v = row[s];
+        row[s] = row[t];
+        row[t] = v;
+    }
+
+    /**
+     * @return array of rows, j-th of them is filled with point[j] for all points
+     */
+    static double[][] broadcast(double[] point, int points) {
+        double[][] res = new double[point.length][points];
+        for (int j = 0; j < point.length; ++j) {
+            Arrays.fill(res[j], point[j]);
+        }
+        return res;
+    }
+}
@@ -1,8 +1,17 @@
 package ru.ifmo.modeling;
 
+import ru.ifmo.lang.TabulatedFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.function.DoubleUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Counts K and D coefficients (use getKCounter() ans getDCounter() for this purpose).
@@ -11,9 +20,24 @@ public class Coefficients {
     // ----------------------------------------------- coefficients initialization -----------------------------------------------
 
     /**
-     * Element name -> coefficients
+     * Element name -> element id, ids are assigned in order of registration
+     */
+    private static Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * Element id -> name as it was registered, which is formula of element
+     */
+    private static List<String> names = new ArrayList<>();
+
+    /**
+     * Name of atom and its number in formula
      */
-    private static Map<String, ElementCoefs> coefs = new HashMap<>();
+    private static final Pattern ATOM = Pattern.compile("([A-Z][a-z]?)([0-9]*)");
+
+    /**
+     * Element id -> coefficients
+     */
+    private static List<ElementCoefs> coefs = new ArrayList<>();
 
     static {
         registerElementCoefs("AlCl", new double[]{-51032., 318.9948, 36.94626, -0.001226431, 1.1881743, 5.638541, -5.066135, 5.219347, 62.4345, 3.58, 932.});
@@ -32,6 +56,17 @@ public class Coefficients {
         registerElementCoefs("GaN", new double[]{-114000., 160.2647, 52.86351, -0.00799055, 2.113389, 1.313428, -2.441129, 1.945731, 83.730});
     }
 
+    /**
+     * Element id -> T -> D(T). Is compiled once all elements (including N2) are registered
+     */
+    private static DoubleUnaryOperator[] DCounters = new DoubleUnaryOperator[coefs.size()];
+
+    static {
+        for (int id = 0; id < DCounters.length; ++id) {
+            DCounters[id] = coefs.get(id).getDCounter();
+        }
+    }
+
     /**
      * Element name -> density
      */
@@ -44,39 +79,129 @@ public class Coefficients {
         registerElementDensity("GaN", 6150);
     }
 
+    /**
+     * i -> formula of K_i, i.e. stoichiometry of i-th reaction
+     */
+    private static Map<Integer, KBuilder> reactions = new HashMap<>();
+
+    static {
+        reactions.put(1, new KBuilder(-1).plus(2, "Al").plus(2, "HCl").minus(2, "AlCl").minus(1, "H2"));
+        reactions.put(2, new KBuilder(0).plus(1, "Al").plus(2, "HCl").minus(1, "AlCl2").minus(1, "H2"));
+        reactions.put(3, new KBuilder(1).plus(2, "Al").plus(6, "HCl").minus(2, "AlCl3").minus(3, "H2"));
+        reactions.put(4, new KBuilder(-1).plus(2, "Ga").plus(2, "HCl").minus(2, "GaCl").minus(1, "H2"));
+        reactions.put(5, new KBuilder(0).plus(1, "Ga").plus(2, "HCl").minus(1, "GaCl2").minus(1, "H2"));
+        reactions.put(6, new KBuilder(1).plus(2, "Ga").plus(6, "HCl").minus(2, "GaCl3").minus(3, "H2"));
+        reactions.put(9, new KBuilder(-1).plus(1, "AlCl3").plus(1, "NH3").minus(1, "AlN").minus(3, "HCl"));
+        reactions.put(10, new KBuilder(0).plus(1, "GaCl").plus(1, "NH3").minus(1, "GaN").minus(1, "HCl").minus(1, "H2"));
+    }
+
     /**
      * i -> T -> K_i(T)
      */
-    private static Map<Integer, Function<Double, Double>> KCounters = new HashMap<>();
+    private static Map<Integer, DoubleUnaryOperator> KCounters = new HashMap<>();
 
     static {
-        KCounters.put(1, new KBuilder(-1).plus(2, "Al").plus(2, "HCl").minus(2, "AlCl").minus(1, "H2").build());
-        KCounters.put(2, new KBuilder(0).plus(1, "Al").plus(2, "HCl").minus(1, "AlCl2").minus(1, "H2").build());
-        KCounters.put(3, new KBuilder(1).plus(2, "Al").plus(6, "HCl").minus(2, "AlCl3").minus(3, "H2").build());
-        KCounters.put(4, new KBuilder(-1).plus(2, "Ga").plus(2, "HCl").minus(2, "GaCl").minus(1, "H2").build());
-        KCounters.put(5, new KBuilder(0).plus(1, "Ga").plus(2, "HCl").minus(1, "GaCl2").minus(1, "H2").build());
-        KCounters.put(6, new KBuilder(1).plus(2, "Ga").plus(6, "HCl").minus(2, "GaCl3").minus(3, "H2").build());
-        KCounters.put(9, new KBuilder(-1).plus(1, "AlCl3").plus(1, "NH3").minus(1, "AlN").minus(3, "HCl").build());
-        KCounters.put(10, new KBuilder(0).plus(1, "GaCl").plus(1, "NH3").minus(1, "GaN").minus(1, "HCl").minus(1, "H2").build());
+        for (Map.Entry<Integer, KBuilder> reaction : reactions.entrySet()) {
+            KCounters.put(reaction.getKey(), reaction.getValue().build());
+        }
     }
 
     // ----------------------------------------------- methods -----------------------------------------------
 
     private static void registerElementCoefs(String element, double[] params) {
-        coefs.put(element.toUpperCase(), new ElementCoefs(params));
+        ids.put(element.toUpperCase(), coefs.size());
+        names.add(element);
+        coefs.add(new ElementCoefs(params));
     }
 
     private static void registerElementDensity(String element, double density) {
         densities.put(element.toUpperCase(), density);
     }
 
+    /**
+     * Adds element (species) to tables, for example to build systems with In or B chlorides.
+     * Should be called before systems with this element are built, and not concurrently with them.
+     *
+     * @param element formula of element, like "InCl3": names of atoms with their numbers, see {@link #getComposition(String)}
+     * @param params  coefficients in order: h, f1, f2, ... f7, mu, [sigma, eps]; gases must have sigma and eps
+     * @throws IllegalArgumentException if element is already registered, or its name is not a formula
+     */
+    public static void registerElement(String element, double[] params) {
+        if (ids.containsKey(element.toUpperCase())) {
+            throw new IllegalArgumentException("Element " + element + " is already registered");
+        }
+        parseFormula(element);
+        registerElementCoefs(element, params);
+        DCounters = Arrays.copyOf(DCounters, coefs.size());
+        DCounters[coefs.size() - 1] = coefs.get(coefs.size() - 1).getDCounter();
+    }
+
+    /**
+     * Sets density of condensed element
+     *
+     * @param element name of element. Not case-sensitive.
+     */
+    public static void registerDensity(String element, double density) {
+        getElementId(element);
+        registerElementDensity(element, density);
+    }
+
+    /**
+     * Adds formula of K_i
+     *
+     * @param number  i
+     * @param formula formula of K_i, all its elements should be registered
+     * @throws IllegalArgumentException if K_i is already specified
+     */
+    public static void registerReaction(int number, KBuilder formula) {
+        if (reactions.containsKey(number)) {
+            throw new IllegalArgumentException("K" + number + " is already specified");
+        }
+        DoubleUnaryOperator counter = formula.build();
+        reactions.put(number, formula);
+        KCounters.put(number, counter);
+    }
+
+    /**
+     * @param element name of element. Not case-sensitive.
+     * @return id of element, which is index of element in all tables
+     * @throws NullPointerException if no such element found
+     */
+    public static int getElementId(String element) {
+        return ids.get(element.toUpperCase());
+    }
+
+    /**
+     * @param element name of element. Not case-sensitive.
+     * @return atoms of element and their numbers, in order of formula: for example, "AlCl3" gives {Al=1, Cl=3}
+     * @throws NullPointerException if no such element found
+     */
+    public static Map<String, Integer> getComposition(String element) {
+        return parseFormula(names.get(getElementId(element)));
+    }
+
+    private static Map<String, Integer> parseFormula(String formula) {
+        Map<String, Integer> composition = new LinkedHashMap<>();
+        Matcher m = ATOM.matcher(formula);
+        int end = 0;
+        while (m.lookingAt()) {
+            composition.merge(m.group(1), m.group(2).isEmpty() ? 1 : Integer.parseInt(m.group(2)), Integer::sum);
+            end = m.end();
+            m.region(end, formula.length());
+        }
+        if (end != formula.length() || composition.isEmpty()) {
+            throw new IllegalArgumentException(formula + " is not a formula of atoms with their numbers");
+        }
+        return composition;
+    }
+
     /**
      * @param element name of element. Not case-sensitive.
      * @return coefficients for specified element
      * @throws NullPointerException if no such element found
      */
     public static ElementCoefs getElementCoefs(String element) {
-        return coefs.get(element.toUpperCase());
+        return coefs.get(getElementId(element));
     }
 
     /**
@@ -89,20 +214,32 @@ public class Coefficients {
     }
 
     /**
-     * @param element name of element x
-     * @return function T -> G_x
-     * @throws NullPointerException if no such element found
+     * @param number i
+     * @return function T -> K_i, or null if K_i doesn't specified
      */
-    private static Function<Double, Double> getGCounter(String element) {
-        return coefs.get(element.toUpperCase()).getGCounter();
+    public static DoubleUnaryOperator getKCounter(int number) {
+        return KCounters.get(number);
     }
 
     /**
      * @param number i
-     * @return function T -> K_i, or null if K_i doesn't specified
+     * @return stoichiometry of i-th reaction: element name (upper-case) -> coefficient with which G is encountered
+     * in formula of K_i, or null if K_i doesn't specified
      */
-    public static Function<Double, Double> getKCounter(int number) {
-        return KCounters.get(number);
+    public static Map<String, Integer> getReaction(int number) {
+        KBuilder reaction = reactions.get(number);
+        return reaction != null ? reaction.getStoichiometry() : null;
+    }
+
+    /**
+     * Elements which have no collision parameters (sigma, eps) are condensed: they do not diffuse and have no D
+     *
+     * @param element name of element. Not case-sensitive.
+     * @return whether element is gas
+     * @throws NullPointerException if no such element found
+     */
+    public static boolean isGas(String element) {
+        return !Double.isNaN(getElementCoefs(element).sigma);
     }
 
     /**
@@ -110,8 +247,16 @@ public class Coefficients {
      * @return function T -> D_x
      * @throws NullPointerException if no such element found
      */
-    public static Function<Double, Double> getDCounter(String element) {
-        return coefs.get(element.toUpperCase()).getDCounter();
+    public static DoubleUnaryOperator getDCounter(String element) {
+        return getDCounter(getElementId(element));
+    }
+
+    /**
+     * @param id id of element x, see {@link #getElementId(String)}
+     * @return function T -> D_x
+     */
+    public static DoubleUnaryOperator getDCounter(int id) {
+        return DCounters[id];
     }
 
     public static double getMolarVolume(String element) {
@@ -120,6 +265,51 @@ public class Coefficients {
 
     // ----------------------------------------------- useful classes -----------------------------------------------
 
+    /**
+     * Grid of temperatures on which counters of K and D are replaced with piecewise cubic interpolation
+     * (outside it they are counted directly), see {@link ReactionSystem#compile(Tabulation)}.
+     * Is immutable, so each system is compiled with its own tabulation and nothing is shared between them.
+     */
+    public static class Tabulation {
+        private final double tMin, tMax;
+        private final int nodes;
+
+        /**
+         * @param tMin  left end of temperature range
+         * @param tMax  right end of temperature range
+         * @param nodes number of grid nodes, at least 4; error decreases as (tMax - tMin)^4 / nodes^4,
+         *              for example it is about 5e-5 for 1 K step and 5e-9 for 0.1 K step on 623..1223 K
+         */
+        public Tabulation(double tMin, double tMax, int nodes) {
+            if (nodes < 4 || !(tMin < tMax)) {
+                throw new IllegalArgumentException("Can't tabulate on " + nodes + " nodes of [" + tMin + "; " + tMax + "]");
+            }
+            this.tMin = tMin;
+            this.tMax = tMax;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @param counter function T -> K or T -> D
+         * @return its interpolation on this grid; estimate of its error is {@link TabulatedFunction#getMaxRelativeError()}
+         */
+        public TabulatedFunction tabulate(DoubleUnaryOperator counter) {
+            return new TabulatedFunction(counter, tMin, tMax, nodes);
+        }
+
+        public double getTMin() {
+            return tMin;
+        }
+
+        public double getTMax() {
+            return tMax;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+    }
+
     /**
      * Contains information about coefficients of some element (h, f1..7, mu, sigma, eps)
      */
@@ -144,33 +334,41 @@ public class Coefficients {
         }
 
         /**
-         * @return function T -> K for specified coefficients.
+         * @param t temperature
+         * @return G(T) for specified coefficients.
          */
-        public Function<Double, Double> getGCounter() {
-            return t -> {
-                double x = t / 1e4;
-                return h - t * (f[0] + f[1] * Math.log(x) + (f[2] / x + f[3]) / x + (f[4] + (f[5] + f[6] * x) * x) * x);
-            };
+        public double countG(double t) {
+            double x = t / 1e4;
+            return h - t * (f[0] + f[1] * Math.log(x) + (f[2] / x + f[3]) / x + (f[4] + (f[5] + f[6] * x) * x) * x);
         }
 
         /**
+         * @return function T -> G for specified coefficients.
+         */
+        public DoubleUnaryOperator getGCounter() {
+            return this::countG;
+        }
+
+        /**
+         * Constants of mixture with N2 are counted once, at call of this method.
+         *
          * @return function T -> D for specified coefficients.
          */
-        public Function<Double, Double> getDCounter() {
-            return t -> {
-                ElementCoefs n2 = getElementCoefs("N2");
-                double sigma_ = (sigma + n2.sigma) / 2;
-                double eps_ = Math.sqrt(eps * n2.eps);
-                double mu_ = 2 * mu * n2.mu / (mu + n2.mu);
-                return 2.628e-2 * Math.pow(t, 1.5) / (1e5 * sigma_ * 1.074 * Math.pow(t / eps_, -0.1604) * Math.sqrt(mu_));
-            };
+        public DoubleUnaryOperator getDCounter() {
+            ElementCoefs n2 = getElementCoefs("N2");
+            double sigma_ = (sigma + n2.sigma) / 2;
+            double eps_ = Math.sqrt(eps * n2.eps);
+            double mu_ = 2 * mu * n2.mu / (mu + n2.mu);
+            // D = 2.628e-2 * T^1.5 / (1e5 * sigma_ * 1.074 * (T / eps_)^-0.1604 * sqrt(mu_)) = factor * T^(1.5 + 0.1604)
+            double factor = 2.628e-2 / (1e5 * sigma_ * 1.074 * Math.pow(eps_, 0.1604) * Math.sqrt(mu_));
+            return t -> factor * Math.pow(t, 1.5 + 0.1604);
         }
     }
 
     /**
      * Builds formula of K according to general formula type: K = sum(k * G_x) * P_A ^ n
      */
-    private static class KBuilder {
+    public static class KBuilder {
         /**
          * Power of P_A in formula of K.
          */
@@ -217,12 +415,34 @@ public class Coefficients {
         }
 
         /**
+         * @return element name (upper-case) -> k, unmodifiable
+         */
+        public Map<String, Integer> getStoichiometry() {
+            return Collections.unmodifiableMap(G_coefs);
+        }
+
+        /**
+         * Stoichiometry is flattened into arrays, so evaluation of K makes no lookups.
+         *
          * @return T -> K, according to internal formula.
          */
-        public Function<Double, Double> build() {
+        public DoubleUnaryOperator build() {
+            int n = G_coefs.size();
+            ElementCoefs[] elements = new ElementCoefs[n];
+            double[] k = new double[n];
+            int i = 0;
+            for (Map.Entry<String, Integer> coef : G_coefs.entrySet()) {
+                elements[i] = getElementCoefs(coef.getKey());
+                k[i] = coef.getValue();
+                ++i;
+            }
+            double P_factor = Math.pow(1e5, P_power);
             return t -> {
-                Double deltaG = G_coefs.entrySet().stream().reduce(0.0, (res, coef) -> res + coef.getValue() * getGCounter(coef.getKey()).apply(t), (a, b) -> a + b);
-                return Math.exp(-deltaG / 8.3144621 / t) * Math.pow(1e5, P_power);
+                double deltaG = 0;
+                for (int j = 0; j < elements.length; ++j) {
+                    deltaG += k[j] * elements[j].countG(t);
+                }
+                return Math.exp(-deltaG / 8.3144621 / t) * P_factor;
             };
         }
     }
@@ -0,0 +1,213 @@
+package ru.ifmo.modeling;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compiled system of equations ready to be solved repeatedly: solver with all its workspace is created once,
+ * and constants which depend only on parameter (K_i, D_x, P^g) are counted only when parameter changes.
+ * Large systems count only structural nonzeros of Jacobian (see {@link ReactionSystem.Kernel#getPattern()})
+ * and factor it as sparse matrix.
+ * So repeated solves allocate nothing but returned solutions.
+ * <p>
+ * Keeps state between calls, so must not be used concurrently; use one instance per thread.
+ */
+public class EquationSystem {
+    private final ReactionSystem.Kernel kernel;
+    private final double[] coefs;
+    private final SystemOfEquationsSolve solve;
+    private double parameter = Double.NaN;
+    private String label;
+
+    /**
+     * Pool which counts ranges of equations in parallel, null if Jacobian is counted in calling thread
+     */
+    private ForkJoinPool pool;
+    private Range[] ranges;
+    private final RecursiveAction linearization = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            invokeAll(ranges);
+        }
+    };
+    private double[] x, values, entries;
+
+    /**
+     * @param kernel compiled description of system
+     */
+    public EquationSystem(ReactionSystem.Kernel kernel) {
+        this.kernel = kernel;
+        this.coefs = new double[kernel.getMonomialCount()];
+        // small Jacobians are factored as dense ones anyway, so kernel fills them directly
+        SystemOfEquationsSolve solve = kernel.size() >= SystemOfEquationsSolve.SPARSE_THRESHOLD
+                ? new SystemOfEquationsSolve(kernel.getPattern(), this::linearize)
+                : new SystemOfEquationsSolve(kernel.size(), (x, values, jacobian) -> kernel.apply(coefs, x, values, jacobian));
+        this.solve = solve.bounds(kernel.getLowerBounds(), kernel.getUpperBounds());
+    }
+
+    /**
+     * Sets name of system in {@link SolverMetrics}
+     *
+     * @return same object in new state
+     */
+    public EquationSystem label(String label) {
+        this.label = label;
+        return this;
+    }
+
+    /**
+     * Turns on automatic scaling of equations and variables, see {@link SystemOfEquationsSolve#scaling(boolean)}
+     *
+     * @return same object in new state
+     */
+    public EquationSystem scaling(boolean scaling) {
+        solve.scaling(scaling);
+        return this;
+    }
+
+    /**
+     * Keeps Newton and Broyden iterates inside bounds of variables, see {@link SystemOfEquationsSolve#boundedSteps(boolean)}
+     *
+     * @return same object in new state
+     */
+    public EquationSystem boundedSteps(boolean boundedSteps) {
+        solve.boundedSteps(boundedSteps);
+        return this;
+    }
+
+    /**
+     * Sets criterion of convergence, see {@link SystemOfEquationsSolve#convergence(SystemOfEquationsSolve.Convergence)}
+     *
+     * @return same object in new state
+     */
+    public EquationSystem convergence(SystemOfEquationsSolve.Convergence convergence) {
+        solve.convergence(convergence);
+        return this;
+    }
+
+    /**
+     * Counts residuals and Jacobian of large system in parallel: equations are split into ranges with about
+     * equal numbers of monomials, which are counted by tasks of pool. Takes effect for systems of at least
+     * {@link SystemOfEquationsSolve#SPARSE_THRESHOLD} equations. Every evaluation forks and joins tasks, which costs
+     * tens of microseconds, so this pays off only for kernels of many thousands of monomials
+     * (a system of 180 gases with 545 monomials is counted faster in one thread).
+     *
+     * @param pool   pool of tasks, null to count in calling thread (default)
+     * @param ranges number of ranges, for example parallelism of pool
+     * @return same object in new state
+     */
+    public EquationSystem parallel(ForkJoinPool pool, int ranges) {
+        this.pool = pool;
+        if (pool == null) {
+            this.ranges = null;
+            return this;
+        }
+        int n = kernel.size();
+        int count = Math.max(1, Math.min(ranges, n));
+        this.ranges = new Range[count];
+        int from = 0;
+        for (int r = 0; r < count; ++r) {
+            // r-th range ends where (r + 1) / count of all monomials are counted, and leaves equations for next ones
+            long end = (long) kernel.getMonomialCount() * (r + 1) / count;
+            int to = from + 1;
+            while (to < n - (count - 1 - r) && kernel.getMonomialStart(to) < end) {
+                ++to;
+            }
+            this.ranges[r] = new Range(from, r == count - 1 ? n : to);
+            from = to;
+        }
+        return this;
+    }
+
+    private void linearize(double[] x, double[] values, double[] entries) {
+        if (pool == null) {
+            kernel.apply(coefs, x, values, entries);
+            return;
+        }
+        this.x = x;
+        this.values = values;
+        this.entries = entries;
+        linearization.reinitialize();
+        for (Range range : ranges) {
+            range.reinitialize();
+        }
+        pool.invoke(linearization);
+    }
+
+    /**
+     * Task which counts equations from..to-1
+     */
+    private class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Range(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            kernel.apply(coefs, x, values, entries, from, to);
+        }
+    }
+
+    /**
+     * @return number of equations and variables
+     */
+    public int size() {
+        return kernel.size();
+    }
+
+    /**
+     * Counts constants for specified value of parameter, unless they are counted for it already
+     */
+    public void setParameter(double parameter) {
+        if (Double.doubleToLongBits(parameter) != Double.doubleToLongBits(this.parameter)) {
+            kernel.prepare(parameter, coefs);
+            this.parameter = parameter;
+        }
+    }
+
+    /**
+     * Solves system at specified value of parameter, see
+     * {@link SystemOfEquationsSolve#solve(double[], double, int, SystemOfEquationsSolve.Method, double[])}
+     *
+     * @param solution array of size n, is set to found solution (or last approximation on failure)
+     * @return how iterations ended
+     */
+    public SystemOfEquationsSolve.Status solve(double parameter, double[] start, double epsilon, int maxIteration,
+                                               SystemOfEquationsSolve.Method method, double[] solution) {
+        setParameter(parameter);
+        return solve.label(label, parameter).solve(start, epsilon, maxIteration, method, solution);
+    }
+
+    /**
+     * Solves system at specified value of parameter. Levenberg-Marquardt method reports failure by NaN solution,
+     * other methods behave as {@link SystemOfEquationsSolve#getSolution(double[], double, int, SystemOfEquationsSolve.Method)}.
+     *
+     * @return found solution
+     * @throws ArithmeticException if Jacobian becomes singular (Newton and Broyden methods)
+     */
+    public double[] solve(double parameter, double[] start, double epsilon, int maxIteration, SystemOfEquationsSolve.Method method) {
+        double[] solution = new double[kernel.size()];
+        SystemOfEquationsSolve.Status status = solve(parameter, start, epsilon, maxIteration, method, solution);
+        if (method == SystemOfEquationsSolve.Method.LEVENBERG_MARQUARDT) {
+            if (status != SystemOfEquationsSolve.Status.CONVERGED) {
+                Arrays.fill(solution, Double.NaN);
+            }
+        } else if (status == SystemOfEquationsSolve.Status.SINGULAR) {
+            throw new ArithmeticException("Jacobian is singular");
+        }
+        return solution;
+    }
+
+    /**
+     * @return number of iterations made by last solve
+     */
+    public int getIterationCount() {
+        return solve.getIterationCount();
+    }
+}
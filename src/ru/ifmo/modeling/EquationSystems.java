@@ -1,135 +1,120 @@
 package ru.ifmo.modeling;
 
-import java.util.ArrayList;
+import ru.ifmo.lang.Continuation;
+import ru.ifmo.lang.Fingerprint;
+import ru.ifmo.lang.TabulatedFunction;
+
 import java.util.Arrays;
 import java.util.List;
-import java.util.function.BiFunction;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class EquationSystems {
 
-
     public static Function<Double, List<Double>> createEquationSystem1(List<Double> initial, double epsilon, int maxIteration) {
-        return t -> {
-            double K1 = Coefficients.getKCounter(1).apply(t);
-            double K2 = Coefficients.getKCounter(2).apply(t);
-            double K3 = Coefficients.getKCounter(3).apply(t);
-            ArrayList<String> elementNames = new ArrayList<>(Arrays.asList("AlCl", "AlCl2", "AlCl3", "H2", "HCl"));
-            ArrayList<Double> pg = new ArrayList<>(Arrays.asList(0., 0., 0., 0., 10000.));
-            BiFunction<List<Double>, Integer, Double> mf = (vars, k) -> Coefficients.getDCounter(elementNames.get(k)).apply(t) * (pg.get(k) - vars.get(k));
-            List<Function<List<Double>, Double>> functions = Arrays.asList(
-                    // 1
-                    vars -> Math.pow(vars.get(4), 2) - K1 * Math.pow(vars.get(0), 2) * vars.get(3),
-                    vars -> Math.pow(vars.get(4), 2) - K2 * vars.get(1) * vars.get(3),
-                    vars -> Math.pow(vars.get(4), 6) - K3 * Math.pow(vars.get(2), 2) * Math.pow(vars.get(3), 3),
-                    vars -> mf.apply(vars, 4) + 2 * mf.apply(vars, 3),
-                    vars -> mf.apply(vars, 0) + 2 * mf.apply(vars, 1) + 3 * mf.apply(vars, 2) + mf.apply(vars, 4)
-            );
-            List<List<Function<List<Double>, Double>>> derivatives = Arrays.asList(
-                    Arrays.asList(  // derivatives of function(0)
-                            vars -> -2 * K1 * vars.get(0) * vars.get(3),
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -K1 * Math.pow(vars.get(0), 2),
-                            vars -> 2 * vars.get(4)
-                    ),
-                    Arrays.asList(  // derivatives of function(1)
-                            vars -> 0.,
-                            vars -> -K2 * vars.get(3),
-                            vars -> 0.,
-                            vars -> -K2 * vars.get(1),
-                            vars -> 2 * vars.get(4)
-                    ),
-                    Arrays.asList(  // derivatives of function(2)
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -2 * K3 * vars.get(2) * Math.pow(vars.get(3), 3),
-                            vars -> -3 * K3 * Math.pow(vars.get(2), 2) * Math.pow(vars.get(3), 2),
-                            vars -> 6 * Math.pow(vars.get(4), 5)
-                    ),
-                    Arrays.asList( // derivatives of function(3)
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -2 * Coefficients.getDCounter("H2").apply(t),
-                            vars -> -Coefficients.getDCounter("HCl").apply(t)
-                    ),
-                    Arrays.asList( // derivatives of function(4)
-                            vars -> -Coefficients.getDCounter("AlCl").apply(t),
-                            vars -> -2 * Coefficients.getDCounter("AlCl2").apply(t),
-                            vars -> -3 * Coefficients.getDCounter("AlCl3").apply(t),
-                            vars -> 0.,
-                            vars -> -Coefficients.getDCounter("HCl").apply(t)
-                    )
-            );
-
-            return new SystemOfEquationsSolve(functions, derivatives).getSolution(initial, epsilon, maxIteration);
-        };
+        double[] start = toArray(initial);
+        Continuation.Solver solver = createEquationSolver1(epsilon, maxIteration);
+        return t -> box(solver.solve(t, start));
+    }
+
+    /**
+     * Same as {@link #createEquationSystem1(List, double, int)}, but start approximation is set on every call.
+     *
+     * @return (T, start) -> list of P_i^e (5)
+     */
+    public static Continuation.Solver createEquationSolver1(double epsilon, int maxIteration) {
+        return createEquationSolver1(epsilon, maxIteration, SystemOfEquationsSolve.Method.NEWTON);
+    }
+
+    /**
+     * Same as {@link #createEquationSolver1(double, int)}, solved by specified iterative method.
+     */
+    public static Continuation.Solver createEquationSolver1(double epsilon, int maxIteration, SystemOfEquationsSolve.Method method) {
+        return createEquationSolver1(null, epsilon, maxIteration, method);
+    }
 
+    /**
+     * Same as {@link #createEquationSolver1(double, int, SystemOfEquationsSolve.Method)}, with K and D interpolated
+     * on grid of temperatures, see {@link ReactionSystem#compile(Coefficients.Tabulation)}.
+     *
+     * @param tabulation grid of temperatures, null to count K and D directly
+     */
+    public static Continuation.Solver createEquationSolver1(Coefficients.Tabulation tabulation, double epsilon, int maxIteration,
+                                                            SystemOfEquationsSolve.Method method) {
+        return createSolver("system1", chlorideSystem("Al", 1).compile(tabulation), false, epsilon, maxIteration, method);
     }
 
 
     public static Function<Double, List<Double>> createEquationSystem2(List<Double> initial, double epsilon, int maxIteration) {
-        return t -> {
-            double K4 = Coefficients.getKCounter(4).apply(t);
-            double K5 = Coefficients.getKCounter(5).apply(t);
-            double K6 = Coefficients.getKCounter(6).apply(t);
-            ArrayList<String> elementNames = new ArrayList<>(Arrays.asList("GaCl", "GaCl2", "GaCl3", "H2", "HCl"));
-            ArrayList<Double> pg = new ArrayList<>(Arrays.asList(0., 0., 0., 0., 10000.));
-            BiFunction<List<Double>, Integer, Double> mf = (vars, k) -> Coefficients.getDCounter(elementNames.get(k)).apply(t) * (pg.get(k) - vars.get(k));
-            List<Function<List<Double>, Double>> functions = Arrays.asList(
-                    vars -> Math.pow(vars.get(4), 2) - K4 * Math.pow(vars.get(0), 2) * vars.get(3),
-                    vars -> Math.pow(vars.get(4), 2) - K5 * vars.get(1) * vars.get(3),
-                    vars -> Math.pow(vars.get(4), 6) - K6 * Math.pow(vars.get(2), 2) * Math.pow(vars.get(3), 3),
-                    vars -> mf.apply(vars, 4) + 2 * mf.apply(vars, 3),
-                    vars -> mf.apply(vars, 0) + 2 * mf.apply(vars, 1) + 3 * mf.apply(vars, 2) + mf.apply(vars, 4)
-            );
-            List<List<Function<List<Double>, Double>>> derivatives = Arrays.asList(
-                    Arrays.asList(  // derivatives of function(0)
-                            vars -> -2 * K4 * vars.get(0) * vars.get(3),
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -K4 * Math.pow(vars.get(0), 2),
-                            vars -> 2 * vars.get(4)
-                    ),
-                    Arrays.asList(  // derivatives of function(1)
-                            vars -> 0.,
-                            vars -> -K5 * vars.get(3),
-                            vars -> 0.,
-                            vars -> -K5 * vars.get(1),
-                            vars -> 2 * vars.get(4)
-                    ),
-                    Arrays.asList(  // derivatives of function(2)
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -2 * K6 * vars.get(2) * Math.pow(vars.get(3), 3),
-                            vars -> -3 * K6 * Math.pow(vars.get(2), 2) * Math.pow(vars.get(3), 2),
-                            vars -> 6 * Math.pow(vars.get(4), 5)
-                    ),
-                    Arrays.asList( // derivatives of function(3)
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -2 * Coefficients.getDCounter("H2").apply(t),
-                            vars -> -Coefficients.getDCounter("HCl").apply(t)
-                    ),
-                    Arrays.asList( // derivatives of function(4)
-                            vars -> -Coefficients.getDCounter("GaCl").apply(t),
-                            vars -> -2 * Coefficients.getDCounter("GaCl2").apply(t),
-                            vars -> -3 * Coefficients.getDCounter("GaCl3").apply(t),
-                            vars -> 0.,
-                            vars -> -Coefficients.getDCounter("HCl").apply(t)
-                    )
-            );
-
-            List<Double> vars = Arrays.asList(143454.41462371068, 150.62237912096737, 0.050557360480266655, 15612.759947482575, 5.945035356649541);
-            List<Double> result = functions.stream().map(f -> f.apply(vars)).collect(Collectors.toList());
-            return new SystemOfEquationsSolve(functions, derivatives).getSolution(initial, epsilon, maxIteration);
-        };
+        double[] start = toArray(initial);
+        Continuation.Solver solver = createEquationSolver2(epsilon, maxIteration);
+        return t -> box(solver.solve(t, start));
+    }
 
+    /**
+     * Same as {@link #createEquationSystem2(List, double, int)}, but start approximation is set on every call.
+     *
+     * @return (T, start) -> list of P_i^e (5)
+     */
+    public static Continuation.Solver createEquationSolver2(double epsilon, int maxIteration) {
+        return createEquationSolver2(epsilon, maxIteration, SystemOfEquationsSolve.Method.NEWTON);
     }
 
+    /**
+     * Same as {@link #createEquationSolver2(double, int)}, solved by specified iterative method.
+     */
+    public static Continuation.Solver createEquationSolver2(double epsilon, int maxIteration, SystemOfEquationsSolve.Method method) {
+        return createEquationSolver2(null, epsilon, maxIteration, method);
+    }
+
+    /**
+     * Same as {@link #createEquationSolver2(double, int, SystemOfEquationsSolve.Method)}, with K and D interpolated
+     * on grid of temperatures, see {@link ReactionSystem#compile(Coefficients.Tabulation)}.
+     *
+     * @param tabulation grid of temperatures, null to count K and D directly
+     */
+    public static Continuation.Solver createEquationSolver2(Coefficients.Tabulation tabulation, double epsilon, int maxIteration,
+                                                            SystemOfEquationsSolve.Method method) {
+        return createSolver("system2", chlorideSystem("Ga", 4).compile(tabulation), false, epsilon, maxIteration, method);
+    }
+
+    /**
+     * Systems 1 and 2: chlorides MCl, MCl2, MCl3 of metal M (Al or Ga) over its surface in flow of HCl;
+     * parameter is temperature. Order of variables: MCl(0), MCl2(1), MCl3(2), H2(3), HCl(4)
+     *
+     * @param metal    "Al" or "Ga"
+     * @param firstK   number of K of reaction which gives MCl, next two give MCl2 and MCl3
+     */
+    public static ReactionSystem chlorideSystem(String metal, int firstK) {
+        return new ReactionSystem(t -> t)
+                .gas(metal + "Cl").gas(metal + "Cl2").gas(metal + "Cl3").gas("H2").gas("HCl", 10000.)
+                .equilibrium(firstK).equilibrium(firstK + 1).equilibrium(firstK + 2)
+                // hydrogen
+                .balance(new ReactionSystem.Flux().plus(1, "HCl").plus(2, "H2"))
+                // chlorine
+                .balance(new ReactionSystem.Flux().plus(1, metal + "Cl").plus(2, metal + "Cl2").plus(3, metal + "Cl3").plus(1, "HCl"));
+    }
+
+
+    /**
+     * Same as {@link #createEquationSystem1(List, double, int)}, but solves at many temperatures at once
+     * by {@link BatchSystemOfEquationsSolve}.
+     *
+     * @return array of T -> array of P_i^e (5) for each T, NaN if solve failed
+     */
+    public static Function<double[], double[][]> createBatchEquationSystem1(List<Double> initial, double epsilon, int maxIteration) {
+        return createBatchSolver(chlorideSystem("Al", 1).compile(), false, initial, epsilon, maxIteration);
+    }
+
+    /**
+     * Same as {@link #createEquationSystem2(List, double, int)}, but solves at many temperatures at once
+     * by {@link BatchSystemOfEquationsSolve}.
+     *
+     * @return array of T -> array of P_i^e (5) for each T, NaN if solve failed
+     */
+    public static Function<double[], double[][]> createBatchEquationSystem2(List<Double> initial, double epsilon, int maxIteration) {
+        return createBatchSolver(chlorideSystem("Ga", 4).compile(), false, initial, epsilon, maxIteration);
+    }
 
     /**
      * Order of variables: AlCl3(0), GaCl(1), NH3(2), HCl(3), H2(4), x(5)
@@ -140,76 +125,190 @@ public class EquationSystems {
      * @return function x^g -> list of P_i^g (5), x, G_i (5)
      */
     public static Function<Double, List<Double>> createEquationSystem3(double H2Portion, List<Double> initial, double epsilon, int maxIterationNumber) {
-        double t = 1100 + 273;
-        double K9 = Coefficients.getKCounter(9).apply(t);
-        double K10 = Coefficients.getKCounter(10).apply(t);
-        ArrayList<String> elementNames = new ArrayList<>(Arrays.asList("AlCl3", "GaCl", "NH3", "HCl", "H2"));
-        return xg -> {
-            ArrayList<Double> pg = new ArrayList<>(Arrays.asList(xg * 30, (1 - xg) * 30, 1500., 0., H2Portion * 98470));
-            BiFunction<List<Double>, Integer, Double> mf = (vars, k) -> Coefficients.getDCounter(elementNames.get(k)).apply(t) * (pg.get(k) - vars.get(k));
-
-            List<Function<List<Double>, Double>> functions = Arrays.asList(
-                    vars -> vars.get(0) * vars.get(2) - K9 * vars.get(5) * Math.pow(vars.get(3), 3),
-                    vars -> vars.get(1) * vars.get(2) - K10 * (1 - vars.get(5)) * vars.get(3) * vars.get(4),
-                    vars -> mf.apply(vars, 3) + 2 * mf.apply(vars, 4) + 3 * mf.apply(vars, 2),
-                    vars -> 3 * mf.apply(vars, 0) + mf.apply(vars, 1) + mf.apply(vars, 3),
-                    vars -> mf.apply(vars, 0) + mf.apply(vars, 1) - mf.apply(vars, 2),
-                    vars -> mf.apply(vars, 0) * (1 - vars.get(5)) - mf.apply(vars, 1) * vars.get(5)
-            );
-            List<List<Function<List<Double>, Double>>> derivatives = Arrays.asList(
-                    Arrays.asList(  // derivatives of function(0)
-                            vars -> vars.get(2),
-                            vars -> 0.,
-                            vars -> vars.get(0),
-                            vars -> -3 * K9 * vars.get(5) * Math.pow(vars.get(3), 2),
-                            vars -> 0.,
-                            vars -> -K9 * Math.pow(vars.get(3), 3)
-                    ),
-                    Arrays.asList(  // derivatives of function(1)
-                            vars -> 0.,
-                            vars -> vars.get(2),
-                            vars -> vars.get(1),
-                            vars -> -K10 * (1 - vars.get(5)) * vars.get(4),
-                            vars -> -K10 * (1 - vars.get(5)) * vars.get(3),
-                            vars -> K10 * vars.get(3) * vars.get(4)
-                    ),
-                    Arrays.asList(  // derivatives of function(2)
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -3 * Coefficients.getDCounter("NH3").apply(t),
-                            vars -> -Coefficients.getDCounter("HCl").apply(t),
-                            vars -> -2 * Coefficients.getDCounter("H2").apply(t),
-                            vars -> 0.
-                    ),
-                    Arrays.asList( // derivatives of function(3)
-                            vars -> -3 * Coefficients.getDCounter("AlCl3").apply(t),
-                            vars -> -Coefficients.getDCounter("GaCl").apply(t),
-                            vars -> 0.,
-                            vars -> -2 * Coefficients.getDCounter("HCl").apply(t),
-                            vars -> 0.,
-                            vars -> 0.
-                    ),
-                    Arrays.asList( // derivatives of function(4)
-                            vars -> -Coefficients.getDCounter("AlCl3").apply(t),
-                            vars -> -Coefficients.getDCounter("GaCl").apply(t),
-                            vars -> Coefficients.getDCounter("NH3").apply(t),
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> 0.
-                    ),
-                    Arrays.asList( // derivatives of function(5)
-                            vars -> -Coefficients.getDCounter("AlCl3").apply(t) * (1 - vars.get(5)),
-                            vars -> Coefficients.getDCounter("GaCl").apply(t) * vars.get(5),
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> 0.,
-                            vars -> -mf.apply(vars, 0) - mf.apply(vars, 1)
-                    )
-            );
-
-            List<Double> vars = new SystemOfEquationsSolve(functions, derivatives).getSolution(initial, epsilon, maxIterationNumber);
-
-            return vars;
+        double[] start = toArray(initial);
+        Continuation.Solver solver = createEquationSolver3(H2Portion, epsilon, maxIterationNumber);
+        return xg -> box(solver.solve(xg, start));
+    }
+
+    /**
+     * Same as {@link #createEquationSystem3(double, List, double, int)}, but start approximation is set on every call.
+     *
+     * @return (x^g, start) -> list of P_i^g (5), x
+     */
+    public static Continuation.Solver createEquationSolver3(double H2Portion, double epsilon, int maxIterationNumber) {
+        return createEquationSolver3(H2Portion, epsilon, maxIterationNumber, SystemOfEquationsSolve.Method.NEWTON);
+    }
+
+    /**
+     * Same as {@link #createEquationSolver3(double, double, int)}, solved by specified iterative method.
+     */
+    public static Continuation.Solver createEquationSolver3(double H2Portion, double epsilon, int maxIterationNumber, SystemOfEquationsSolve.Method method) {
+        return createSolver("system3 H2 " + H2Portion, nitrideSystem(H2Portion).compile(), true, epsilon, maxIterationNumber, method);
+    }
+
+    /**
+     * System 3: growth of solid solution AlGaN (x is portion of AlN) from AlCl3, GaCl and NH3 at 1373 K;
+     * parameter is x^g. Order of variables: AlCl3(0), GaCl(1), NH3(2), HCl(3), H2(4), x(5)
+     *
+     * @param H2Portion portion of H2 in H2 + N2
+     */
+    public static ReactionSystem nitrideSystem(double H2Portion) {
+        return nitrideSystem(xg -> 1100 + 273, xg -> xg, H2Portion);
+    }
+
+    /**
+     * Same as {@link #nitrideSystem(double)}, but with fixed x^g; parameter is temperature
+     */
+    public static ReactionSystem nitrideSystem(double xg, double H2Portion) {
+        return nitrideSystem(t -> t, t -> xg, H2Portion);
+    }
+
+    /**
+     * @param temperature parameter -> T
+     * @param xg          parameter -> x^g
+     */
+    private static ReactionSystem nitrideSystem(DoubleUnaryOperator temperature, DoubleUnaryOperator xg, double H2Portion) {
+        return new ReactionSystem(temperature)
+                .gas("AlCl3", p -> xg.applyAsDouble(p) * 30).gas("GaCl", p -> (1 - xg.applyAsDouble(p)) * 30)
+                .gas("NH3", 1500.).gas("HCl").gas("H2", H2Portion * 98470)
+                .equilibrium(9).equilibrium(10)
+                // hydrogen
+                .balance(new ReactionSystem.Flux().plus(1, "HCl").plus(2, "H2").plus(3, "NH3"))
+                // chlorine
+                .balance(new ReactionSystem.Flux().plus(3, "AlCl3").plus(1, "GaCl").plus(1, "HCl"))
+                // metals and nitrogen are deposited together
+                .balance(new ReactionSystem.Flux().plus(1, "AlCl3").plus(1, "GaCl").minus(1, "NH3"))
+                .solidSolution("AlN", "GaN", new ReactionSystem.Flux().plus(1, "AlCl3"), new ReactionSystem.Flux().plus(1, "GaCl"));
+    }
+
+    /**
+     * System 3 on plane of temperature (columns) and portion of H2 in H2 + N2 (rows) at fixed x^g,
+     * for {@link PlaneSweep}. Solutions are P_i^g (5), x, failures are reported by exception or NaN.
+     */
+    public static PlaneSweep.RowSolver createPlaneSolver3(double xg, double epsilon, int maxIterationNumber,
+                                                          SystemOfEquationsSolve.Method method) {
+        return H2Portion -> createSolver("system3 x^g " + xg + " H2 " + H2Portion, nitrideSystem(xg, H2Portion).compile(), true,
+                epsilon, maxIterationNumber, method);
+    }
+
+    /**
+     * Broyden iterates are always kept inside bounds: from default initial approximations free Broyden method
+     * reaches roots with negative pressures in all three systems.
+     *
+     * @param label        name of system in {@link SolverMetrics}
+     * @param boundedSteps whether Newton iterates are kept inside bounds, see {@link SystemOfEquationsSolve#boundedSteps(boolean)}
+     * @return (parameter, start) -> solution of compiled system, which is a {@link Fingerprint.Source}
+     */
+    private static Continuation.Solver createSolver(String label, ReactionSystem.Kernel kernel, boolean boundedSteps,
+                                                    double epsilon, int maxIteration, SystemOfEquationsSolve.Method method) {
+        return new KernelSolver(label, kernel, boundedSteps || method == SystemOfEquationsSolve.Method.BROYDEN,
+                epsilon, maxIteration, method);
+    }
+
+    /**
+     * Solver of compiled system: every thread gets its own {@link EquationSystem}, so solver and buffers are created
+     * once per thread and coefficients are counted once per parameter. Its fingerprint consists of kernel, settings
+     * of method and code of classes which solve system.
+     */
+    private static class KernelSolver implements Continuation.Solver, Fingerprint.Source {
+        private final ReactionSystem.Kernel kernel;
+        private final boolean boundedSteps;
+        private final double epsilon;
+        private final int maxIteration;
+        private final SystemOfEquationsSolve.Method method;
+        private final ThreadLocal<EquationSystem> systems;
+
+        KernelSolver(String label, ReactionSystem.Kernel kernel, boolean boundedSteps, double epsilon, int maxIteration,
+                     SystemOfEquationsSolve.Method method) {
+            this.kernel = kernel;
+            this.boundedSteps = boundedSteps;
+            this.epsilon = epsilon;
+            this.maxIteration = maxIteration;
+            this.method = method;
+            this.systems = ThreadLocal.withInitial(() -> new EquationSystem(kernel).label(label).boundedSteps(boundedSteps));
+        }
+
+        @Override
+        public double[] solve(double parameter, double[] start) {
+            return systems.get().solve(parameter, start, epsilon, maxIteration, method);
+        }
+
+        @Override
+        public void addTo(Fingerprint fingerprint) {
+            fingerprint.add(kernel).add(boundedSteps).add(epsilon).add(maxIteration).add(method)
+                    .addCode(EquationSystems.class, EquationSystem.class, ReactionSystem.class, Coefficients.class,
+                            TabulatedFunction.class, SystemOfEquationsSolve.class, LUDecomposition.class,
+                            SparseLUDecomposition.class, JacobianPattern.class);
+        }
+    }
+
+    /**
+     * Same as {@link #createEquationSystem3(double, List, double, int)}, but solves at many values of x^g at once
+     * by {@link BatchSystemOfEquationsSolve}.
+     *
+     * @return array of x^g -> array of P_i^g (5), x for each x^g, NaN if solve failed
+     */
+    public static Function<double[], double[][]> createBatchEquationSystem3(double H2Portion, List<Double> initial, double epsilon, int maxIterationNumber) {
+        return createBatchSolver(nitrideSystem(H2Portion).compile(), true, initial, epsilon, maxIterationNumber);
+    }
+
+    /**
+     * Batch solver of compiled system: constants of point are coefficients of monomials of kernel,
+     * counted once per value of parameter. Buffer of products of monomials is allocated together with them,
+     * once per batch, and is shared by all iterations.
+     *
+     * @param boundedSteps whether Newton iterates are kept inside bounds, see {@link SystemOfEquationsSolve#boundedSteps(boolean)}
+     * @return array of parameter -> array of solutions for each value, NaN if solve failed
+     */
+    private static Function<double[], double[][]> createBatchSolver(ReactionSystem.Kernel kernel, boolean boundedSteps,
+                                                                    List<Double> initial, double epsilon, int maxIteration) {
+        double[] start = toArray(initial);
+        double[] lower = kernel.getLowerBounds(), upper = kernel.getUpperBounds();
+        return parameters -> {
+            double[][] params = new double[kernel.getMonomialCount()][parameters.length];
+            kernel.prepare(parameters, params);
+            double[] product = new double[parameters.length];
+            BatchSystemOfEquationsSolve solve = new BatchSystemOfEquationsSolve(kernel.size(),
+                    (coefs, x, count, values, jacobian) -> kernel.apply(coefs, x, count, values, jacobian, product))
+                    .bounds(lower, upper).boundedSteps(boundedSteps);
+            return solveBatch(solve, params, start, epsilon, maxIteration);
         };
     }
+
+    /**
+     * Solves batch from the same start at every point, and converts solutions to array of points.
+     * Points where Jacobian became singular or values diverged are filled with NaN.
+     */
+    private static double[][] solveBatch(BatchSystemOfEquationsSolve solve, double[][] params, double[] start,
+                                         double epsilon, int maxIteration) {
+        int points = params[0].length;
+        double[][] solution = new double[start.length][points];
+        SystemOfEquationsSolve.Status[] status = solve.solve(params, BatchSystemOfEquationsSolve.broadcast(start, points),
+                epsilon, maxIteration, solution);
+
+        double[][] res = new double[points][start.length];
+        for (int p = 0; p < points; ++p) {
+            boolean failed = status[p] == SystemOfEquationsSolve.Status.SINGULAR || status[p] == SystemOfEquationsSolve.Status.DIVERGED;
+            for (int j = 0; j < start.length; ++j) {
+                res[p][j] = failed ? Double.NaN : solution[j][p];
+            }
+        }
+        return res;
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] res = new double[values.size()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = values.get(i);
+        }
+        return res;
+    }
+
+    private static List<Double> box(double[] values) {
+        Double[] res = new Double[values.length];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = values[i];
+        }
+        return Arrays.asList(res);
+    }
 }
@@ -0,0 +1,135 @@
+package ru.ifmo.modeling;
+
+import java.util.Arrays;
+
+/**
+ * Positions of structural nonzeros of n x n Jacobian, by rows: entries of row i are numbered from
+ * {@link #getRowStart(int) getRowStart(i)} to getRowStart(i + 1) - 1, in order of increasing column.
+ * Sparse Jacobian is then an array of values of these entries, see {@link SystemOfEquationsSolve.SparseLinearization}.
+ */
+public class JacobianPattern {
+    private final int size;
+    /**
+     * Entries of row i are rowStart[i]..rowStart[i + 1] - 1, columns[k] is column of k-th entry
+     */
+    final int[] rowStart, columns;
+
+    /**
+     * @param nonZero nonZero[i][j] tells whether d(f_{i+1})/d(x_{j+1}) may be nonzero; n x n matrix
+     */
+    public JacobianPattern(boolean[][] nonZero) {
+        size = nonZero.length;
+        rowStart = new int[size + 1];
+        for (int i = 0; i < size; ++i) {
+            if (nonZero[i].length != size) {
+                throw new IllegalArgumentException("Pattern must be square, row " + i + " has " + nonZero[i].length + " columns");
+            }
+            int count = 0;
+            for (boolean b : nonZero[i]) {
+                if (b) {
+                    ++count;
+                }
+            }
+            rowStart[i + 1] = rowStart[i] + count;
+        }
+        columns = new int[rowStart[size]];
+        for (int i = 0, k = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                if (nonZero[i][j]) {
+                    columns[k++] = j;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return pattern where all entries are nonzero
+     */
+    public static JacobianPattern dense(int size) {
+        boolean[][] nonZero = new boolean[size][size];
+        for (boolean[] row : nonZero) {
+            Arrays.fill(row, true);
+        }
+        return new JacobianPattern(nonZero);
+    }
+
+    /**
+     * @return number of equations and variables
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of structural nonzeros, i.e. length of array of entries
+     */
+    public int getNonZeroCount() {
+        return columns.length;
+    }
+
+    /**
+     * @return number of first entry of row i; getRowStart(n) is number of all entries
+     */
+    public int getRowStart(int i) {
+        return rowStart[i];
+    }
+
+    /**
+     * @return column of k-th entry
+     */
+    public int getColumn(int k) {
+        return columns[k];
+    }
+
+    /**
+     * @return number of entry at row i and column j, or -1 if it is structural zero
+     */
+    public int indexOf(int i, int j) {
+        int lo = rowStart[i], hi = rowStart[i + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (columns[mid] < j) {
+                lo = mid + 1;
+            } else if (columns[mid] > j) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes entries to dense matrix, structural zeros are set to 0
+     *
+     * @param entries values of entries
+     * @param out     n x n matrix
+     */
+    public void scatter(double[] entries, double[][] out) {
+        for (int i = 0; i < size; ++i) {
+            double[] row = out[i];
+            Arrays.fill(row, 0);
+            for (int k = rowStart[i]; k < rowStart[i + 1]; ++k) {
+                row[columns[k]] = entries[k];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; ++i) {
+            int k = rowStart[i];
+            for (int j = 0; j < size; ++j) {
+                if (k < rowStart[i + 1] && columns[k] == j) {
+                    sb.append('x');
+                    ++k;
+                } else {
+                    sb.append('.');
+                }
+            }
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,536 @@
+package ru.ifmo.modeling;
+
+/**
+ * In-place LU factorization with partial pivoting: P * A = L * U, where L has unit diagonal.
+ * Factorization is stored in the factored matrix itself (L below diagonal, U on and above it),
+ * rows are permuted by swapping row references.
+ * <p>
+ * Instance keeps pivoting workspace, so it is reused for all matrices of same size,
+ * but must not be shared between threads.
+ */
+abstract class LUDecomposition {
+    /**
+     * Pivots with absolute value less than this are considered to be zero
+     */
+    static final double SINGULARITY_THRESHOLD = 1.0E-10;
+
+    /**
+     * pivots[k] is a row which was swapped with row k at k-th step of elimination
+     */
+    protected final int[] pivots;
+
+    private LUDecomposition(int size) {
+        pivots = new int[size];
+    }
+
+    /**
+     * @param size size of matrices to be factored
+     * @return decomposition specialized for specified size if there is one, general otherwise
+     */
+    static LUDecomposition forSize(int size) {
+        switch (size) {
+            case 5:
+                return new Order5();
+            case 6:
+                return new Order6();
+            default:
+                return general(size);
+        }
+    }
+
+    /**
+     * @param size size of matrices to be factored
+     * @return decomposition with loops, which specialized ones must reproduce exactly
+     */
+    static LUDecomposition general(int size) {
+        return new General(size);
+    }
+
+    /**
+     * Replaces 'a' with its LU factorization.
+     *
+     * @param a square matrix, is changed
+     * @return false if matrix is singular; 'a' is left partially factored then
+     */
+    abstract boolean factor(double[][] a);
+
+    /**
+     * Solves A * x = b with A previously factored by {@link #factor(double[][])}.
+     *
+     * @param a factored matrix
+     * @param b right side, is replaced with x
+     */
+    abstract void solve(double[][] a, double[] b);
+
+    /**
+     * Maximal number of passes of {@link #equilibrate(double[][], double[], double[])}
+     */
+    private static final int EQUILIBRATION_PASSES = 16;
+
+    /**
+     * Equilibrates matrix by Ruiz method: rows and then columns are repeatedly divided by about square roots
+     * of their maximal absolute values, rounded to powers of 2, until maximal absolute value in each of them
+     * is in [1; 4). Powers of 2 change no digits, and pivots of A' = R * A * C are then compared with
+     * {@link #SINGULARITY_THRESHOLD} relatively to magnitudes of rows and columns. Unlike single division
+     * by maxima, square roots do not let one huge entry of row (for example derivative by a partial pressure
+     * of 1e4 raised to a power) hide the rest of it.
+     * Solution of A * x = b is x = C * y, where A' * y = R * b.
+     *
+     * @param a            square matrix, is replaced with A'
+     * @param rowFactor    is set to diagonal of R
+     * @param columnFactor is set to diagonal of C
+     */
+    static void equilibrate(double[][] a, double[] rowFactor, double[] columnFactor) {
+        int n = a.length;
+        for (int i = 0; i < n; ++i) {
+            rowFactor[i] = 1;
+            columnFactor[i] = 1;
+        }
+        for (int pass = 0; pass < EQUILIBRATION_PASSES; ++pass) {
+            boolean changed = false;
+            for (int i = 0; i < n; ++i) {
+                double[] row = a[i];
+                double max = 0;
+                for (int j = 0; j < n; ++j) {
+                    max = Math.max(max, Math.abs(row[j]));
+                }
+                double factor = rootScale(max);
+                if (factor != 1) {
+                    changed = true;
+                    rowFactor[i] *= factor;
+                    for (int j = 0; j < n; ++j) {
+                        row[j] *= factor;
+                    }
+                }
+            }
+            for (int j = 0; j < n; ++j) {
+                double max = 0;
+                for (int i = 0; i < n; ++i) {
+                    max = Math.max(max, Math.abs(a[i][j]));
+                }
+                double factor = rootScale(max);
+                if (factor != 1) {
+                    changed = true;
+                    columnFactor[j] *= factor;
+                    for (int i = 0; i < n; ++i) {
+                        a[i][j] *= factor;
+                    }
+                }
+            }
+            if (!changed) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return power of 2 about 1 / sqrt(max) which is 1 for max in [1; 4), or 1 if max is 0 or not finite
+     */
+    private static double rootScale(double max) {
+        return max > 0 && max < Double.POSITIVE_INFINITY ? Math.scalb(1.0, -(Math.getExponent(max) >> 1)) : 1;
+    }
+
+    /**
+     * @return power of 2 which moves max to [1; 2), or 1 if max is 0 or not finite
+     */
+    static double scale(double max) {
+        return max > 0 && max < Double.POSITIVE_INFINITY ? Math.scalb(1.0, -Math.getExponent(max)) : 1;
+    }
+
+    /**
+     * Finds pivot in column k among rows k..n-1 and moves it to row k.
+     *
+     * @return false if pivot is too small
+     */
+    protected boolean pivot(double[][] a, int k) {
+        int p = k;
+        double max = Math.abs(a[k][k]);
+        for (int i = k + 1; i < a.length; ++i) {
+            double abs = Math.abs(a[i][k]);
+            if (abs > max) {
+                max = abs;
+                p = i;
+            }
+        }
+        if (max < SINGULARITY_THRESHOLD) {
+            return false;
+        }
+
+        pivots[k] = p;
+        if (p != k) {
+            double[] row = a[p];
+            a[p] = a[k];
+            a[k] = row;
+        }
+        return true;
+    }
+
+    /**
+     * Applies row permutation of last factorization to 'b'.
+     */
+    protected void permute(double[] b) {
+        for (int k = 0; k < pivots.length; ++k) {
+            int p = pivots[k];
+            if (p != k) {
+                double temp = b[p];
+                b[p] = b[k];
+                b[k] = temp;
+            }
+        }
+    }
+
+    /**
+     * Factorization of matrix of any size.
+     */
+    private static class General extends LUDecomposition {
+        private General(int size) {
+            super(size);
+        }
+
+        @Override
+        boolean factor(double[][] a) {
+            int n = a.length;
+            for (int k = 0; k < n; ++k) {
+                if (!pivot(a, k)) {
+                    return false;
+                }
+
+                double[] rk = a[k];
+                double inv = 1.0 / rk[k];
+                for (int i = k + 1; i < n; ++i) {
+                    double[] ri = a[i];
+                    double l = ri[k] * inv;
+                    ri[k] = l;
+                    if (l != 0) {
+                        for (int j = k + 1; j < n; ++j) {
+                            ri[j] -= l * rk[j];
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void solve(double[][] a, double[] b) {
+            int n = a.length;
+            permute(b);
+            for (int i = 1; i < n; ++i) {
+                double[] ri = a[i];
+                double sum = b[i];
+                for (int j = 0; j < i; ++j) {
+                    sum -= ri[j] * b[j];
+                }
+                b[i] = sum;
+            }
+            for (int i = n - 1; i >= 0; --i) {
+                double[] ri = a[i];
+                double sum = b[i];
+                for (int j = i + 1; j < n; ++j) {
+                    sum -= ri[j] * b[j];
+                }
+                b[i] = sum / ri[i];
+            }
+        }
+    }
+
+    /**
+     * Fully unrolled factorization of 5 x 5 matrix.
+     */
+    private static class Order5 extends LUDecomposition {
+        private Order5() {
+            super(5);
+        }
+
+        @Override
+        boolean factor(double[][] a) {
+            double[] r0, r1, r2, r3, r4;
+            double inv, l;
+
+            if (!pivot(a, 0)) {
+                return false;
+            }
+            r0 = a[0];
+            r1 = a[1];
+            r2 = a[2];
+            r3 = a[3];
+            r4 = a[4];
+            inv = 1.0 / r0[0];
+            l = r1[0] * inv;
+            r1[0] = l;
+            r1[1] -= l * r0[1];
+            r1[2] -= l * r0[2];
+            r1[3] -= l * r0[3];
+            r1[4] -= l * r0[4];
+            l = r2[0] * inv;
+            r2[0] = l;
+            r2[1] -= l * r0[1];
+            r2[2] -= l * r0[2];
+            r2[3] -= l * r0[3];
+            r2[4] -= l * r0[4];
+            l = r3[0] * inv;
+            r3[0] = l;
+            r3[1] -= l * r0[1];
+            r3[2] -= l * r0[2];
+            r3[3] -= l * r0[3];
+            r3[4] -= l * r0[4];
+            l = r4[0] * inv;
+            r4[0] = l;
+            r4[1] -= l * r0[1];
+            r4[2] -= l * r0[2];
+            r4[3] -= l * r0[3];
+            r4[4] -= l * r0[4];
+
+            if (!pivot(a, 1)) {
+                return false;
+            }
+            r1 = a[1];
+            r2 = a[2];
+            r3 = a[3];
+            r4 = a[4];
+            inv = 1.0 / r1[1];
+            l = r2[1] * inv;
+            r2[1] = l;
+            r2[2] -= l * r1[2];
+            r2[3] -= l * r1[3];
+            r2[4] -= l * r1[4];
+            l = r3[1] * inv;
+            r3[1] = l;
+            r3[2] -= l * r1[2];
+            r3[3] -= l * r1[3];
+            r3[4] -= l * r1[4];
+            l = r4[1] * inv;
+            r4[1] = l;
+            r4[2] -= l * r1[2];
+            r4[3] -= l * r1[3];
+            r4[4] -= l * r1[4];
+
+            if (!pivot(a, 2)) {
+                return false;
+            }
+            r2 = a[2];
+            r3 = a[3];
+            r4 = a[4];
+            inv = 1.0 / r2[2];
+            l = r3[2] * inv;
+            r3[2] = l;
+            r3[3] -= l * r2[3];
+            r3[4] -= l * r2[4];
+            l = r4[2] * inv;
+            r4[2] = l;
+            r4[3] -= l * r2[3];
+            r4[4] -= l * r2[4];
+
+            if (!pivot(a, 3)) {
+                return false;
+            }
+            r3 = a[3];
+            r4 = a[4];
+            inv = 1.0 / r3[3];
+            l = r4[3] * inv;
+            r4[3] = l;
+            r4[4] -= l * r3[4];
+            return pivot(a, 4);
+        }
+
+        @Override
+        void solve(double[][] a, double[] b) {
+            permute(b);
+            double[] r0 = a[0];
+            double[] r1 = a[1];
+            double[] r2 = a[2];
+            double[] r3 = a[3];
+            double[] r4 = a[4];
+            double y0 = b[0];
+            double y1 = b[1] - r1[0] * y0;
+            double y2 = b[2] - r2[0] * y0 - r2[1] * y1;
+            double y3 = b[3] - r3[0] * y0 - r3[1] * y1 - r3[2] * y2;
+            double y4 = b[4] - r4[0] * y0 - r4[1] * y1 - r4[2] * y2 - r4[3] * y3;
+            double x4 = y4 / r4[4];
+            double x3 = (y3 - r3[4] * x4) / r3[3];
+            double x2 = (y2 - r2[3] * x3 - r2[4] * x4) / r2[2];
+            double x1 = (y1 - r1[2] * x2 - r1[3] * x3 - r1[4] * x4) / r1[1];
+            double x0 = (y0 - r0[1] * x1 - r0[2] * x2 - r0[3] * x3 - r0[4] * x4) / r0[0];
+            b[0] = x0;
+            b[1] = x1;
+            b[2] = x2;
+            b[3] = x3;
+            b[4] = x4;
+        }
+    }
+
+    /**
+     * Fully unrolled factorization of 6 x 6 matrix.
+     */
+    private static class Order6 extends LUDecomposition {
+        private Order6() {
+            super(6);
+        }
+
+        @Override
+        boolean factor(double[][] a) {
+            double[] r0, r1, r2, r3, r4, r5;
+            double inv, l;
+
+            if (!pivot(a, 0)) {
+                return false;
+            }
+            r0 = a[0];
+            r1 = a[1];
+            r2 = a[2];
+            r3 = a[3];
+            r4 = a[4];
+            r5 = a[5];
+            inv = 1.0 / r0[0];
+            l = r1[0] * inv;
+            r1[0] = l;
+            r1[1] -= l * r0[1];
+            r1[2] -= l * r0[2];
+            r1[3] -= l * r0[3];
+            r1[4] -= l * r0[4];
+            r1[5] -= l * r0[5];
+            l = r2[0] * inv;
+            r2[0] = l;
+            r2[1] -= l * r0[1];
+            r2[2] -= l * r0[2];
+            r2[3] -= l * r0[3];
+            r2[4] -= l * r0[4];
+            r2[5] -= l * r0[5];
+            l = r3[0] * inv;
+            r3[0] = l;
+            r3[1] -= l * r0[1];
+            r3[2] -= l * r0[2];
+            r3[3] -= l * r0[3];
+            r3[4] -= l * r0[4];
+            r3[5] -= l * r0[5];
+            l = r4[0] * inv;
+            r4[0] = l;
+            r4[1] -= l * r0[1];
+            r4[2] -= l * r0[2];
+            r4[3] -= l * r0[3];
+            r4[4] -= l * r0[4];
+            r4[5] -= l * r0[5];
+            l = r5[0] * inv;
+            r5[0] = l;
+            r5[1] -= l * r0[1];
+            r5[2] -= l * r0[2];
+            r5[3] -= l * r0[3];
+            r5[4] -= l * r0[4];
+            r5[5] -= l * r0[5];
+
+            if (!pivot(a, 1)) {
+                return false;
+            }
+            r1 = a[1];
+            r2 = a[2];
+            r3 = a[3];
+            r4 = a[4];
+            r5 = a[5];
+            inv = 1.0 / r1[1];
+            l = r2[1] * inv;
+            r2[1] = l;
+            r2[2] -= l * r1[2];
+            r2[3] -= l * r1[3];
+            r2[4] -= l * r1[4];
+            r2[5] -= l * r1[5];
+            l = r3[1] * inv;
+            r3[1] = l;
+            r3[2] -= l * r1[2];
+            r3[3] -= l * r1[3];
+            r3[4] -= l * r1[4];
+            r3[5] -= l * r1[5];
+            l = r4[1] * inv;
+            r4[1] = l;
+            r4[2] -= l * r1[2];
+            r4[3] -= l * r1[3];
+            r4[4] -= l * r1[4];
+            r4[5] -= l * r1[5];
+            l = r5[1] * inv;
+            r5[1] = l;
+            r5[2] -= l * r1[2];
+            r5[3] -= l * r1[3];
+            r5[4] -= l * r1[4];
+            r5[5] -= l * r1[5];
+
+            if (!pivot(a, 2)) {
+                return false;
+            }
+            r2 = a[2];
+            r3 = a[3];
+            r4 = a[4];
+            r5 = a[5];
+            inv = 1.0 / r2[2];
+            l = r3[2] * inv;
+            r3[2] = l;
+            r3[3] -= l * r2[3];
+            r3[4] -= l * r2[4];
+            r3[5] -= l * r2[5];
+            l = r4[2] * inv;
+            r4[2] = l;
+            r4[3] -= l * r2[3];
+            r4[4] -= l * r2[4];
+            r4[5] -= l * r2[5];
+            l = r5[2] * inv;
+            r5[2] = l;
+            r5[3] -= l * r2[3];
+            r5[4] -= l * r2[4];
+            r5[5] -= l * r2[5];
+
+            if (!pivot(a, 3)) {
+                return false;
+            }
+            r3 = a[3];
+            r4 = a[4];
+            r5 = a[5];
+            inv = 1.0 / r3[3];
+            l = r4[3] * inv;
+            r4[3] = l;
+            r4[4] -= l * r3[4];
+            r4[5] -= l * r3[5];
+            l = r5[3] * inv;
+            r5[3] = l;
+            r5[4] -= l * r3[4];
+            r5[5] -= l * r3[5];
+
+            if (!pivot(a, 4)) {
+                return false;
+            }
+            r4 = a[4];
+            r5 = a[5];
+            inv = 1.0 / r4[4];
+            l = r5[4] * inv;
+            r5[4] = l;
+            r5[5] -= l * r4[5];
+            return pivot(a, 5);
+        }
+
+        @Override
+        void solve(double[][] a, double[] b) {
+            permute(b);
+            double[] r0 = a[0];
+            double[] r1 = a[1];
+            double[] r2 = a[2];
+            double[] r3 = a[3];
+            double[] r4 = a[4];
+            double[] r5 = a[5];
+            double y0 = b[0];
+            double y1 = b[1] - r1[0] * y0;
+            double y2 = b[2] - r2[0] * y0 - r2[1] * y1;
+            double y3 = b[3] - r3[0] * y0 - r3[1] * y1 - r3[2] * y2;
+            double y4 = b[4] - r4[0] * y0 - r4[1] * y1 - r4[2] * y2 - r4[3] * y3;
+            double y5 = b[5] - r5[0] * y0 - r5[1] * y1 - r5[2] * y2 - r5[3] * y3 - r5[4] * y4;
+            double x5 = y5 / r5[5];
+            double x4 = (y4 - r4[5] * x5) / r4[4];
+            double x3 = (y3 - r3[4] * x4 - r3[5] * x5) / r3[3];
+            double x2 = (y2 - r2[3] * x3 - r2[4] * x4 - r2[5] * x5) / r2[2];
+            double x1 = (y1 - r1[2] * x2 - r1[3] * x3 - r1[4] * x4 - r1[5] * x5) / r1[1];
+            double x0 = (y0 - r0[1] * x1 - r0[2] * x2 - r0[3] * x3 - r0[4] * x4 - r0[5] * x5) / r0[0];
+            b[0] = x0;
+            b[1] = x1;
+            b[2] = x2;
+            b[3] = x3;
+            b[4] = x4;
+            b[5] = x5;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ru.ifmo.modeling;
+
+import ru.ifmo.lang.Continuation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solution of a system on a plane of two parameters: x (columns, for example temperature)
+ * and y (rows, for example portion of H2).
+ * <p>
+ * Plane is split into rectangular tiles which are computed in parallel. Inside a tile rows are computed one by one,
+ * each from left to right, and every point starts from its neighbours computed before: from solution at the left
+ * corrected by difference of solutions in previous row (x-y secant), or from the left or upper neighbour,
+ * or from initial approximation, whichever converges first. Results are kept in a dense array.
+ */
+public class PlaneSweep {
+    /**
+     * System on a row of plane
+     */
+    @FunctionalInterface
+    public interface RowSolver {
+        /**
+         * @param y parameter of row
+         * @return solver (x, start) -> solution on this row, is used by one thread
+         */
+        Continuation.Solver forRow(double y);
+    }
+
+    private final double[] xs, ys;
+    private final int size;
+    private int tileRows = 16, tileColumns = 16;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param xs   values of parameter of columns, in order of continuation
+     * @param ys   values of parameter of rows, in order of continuation
+     * @param size number of variables of system
+     */
+    public PlaneSweep(double[] xs, double[] ys, int size) {
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+        this.size = size;
+    }
+
+    /**
+     * @return values from a to b (inclusive, with tolerance for rounding) with specified step
+     */
+    public static double[] grid(double a, double b, double step) {
+        int n = (int) Math.floor((b - a) / step * (1 + 1e-9)) + 1;
+        double[] res = new double[n];
+        for (int i = 0; i < n; ++i) {
+            res[i] = a + i * step;
+        }
+        return res;
+    }
+
+    /**
+     * Sets size of tiles, 16 x 16 by default. Longer rows give better continuation, more tiles give better balance.
+     *
+     * @return same object in new state
+     */
+    public PlaneSweep tiles(int rows, int columns) {
+        tileRows = rows;
+        tileColumns = columns;
+        return this;
+    }
+
+    /**
+     * Sets number of worker threads, number of processors by default
+     *
+     * @return same object in new state
+     */
+    public PlaneSweep parallel(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Computes solutions at all points of plane
+     *
+     * @param solver  system on a row
+     * @param initial initial approximation for first point of each tile, and fallback when continuation fails
+     * @return solutions
+     */
+    public Plane run(RowSolver solver, double[] initial) {
+        Plane plane = new Plane(xs, ys, size);
+        List<Tile> tiles = new ArrayList<>();
+        for (int row = 0; row < ys.length; row += tileRows) {
+            for (int column = 0; column < xs.length; column += tileColumns) {
+                tiles.add(new Tile(plane, solver, initial, row, Math.min(row + tileRows, ys.length),
+                        column, Math.min(column + tileColumns, xs.length)));
+            }
+        }
+        if (parallelism <= 1) {
+            for (Tile tile : tiles) {
+                tile.compute();
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(tiles);
+                    }
+                });
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return plane;
+    }
+
+    private static class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Plane plane;
+        private final RowSolver solver;
+        private final double[] initial;
+        private final int rowFrom, rowTo, columnFrom, columnTo;
+
+        Tile(Plane plane, RowSolver solver, double[] initial, int rowFrom, int rowTo, int columnFrom, int columnTo) {
+            this.plane = plane;
+            this.solver = solver;
+            this.initial = initial;
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.columnFrom = columnFrom;
+            this.columnTo = columnTo;
+        }
+
+        @Override
+        protected void compute() {
+            int size = plane.size;
+            double[] start = new double[size];
+            for (int r = rowFrom; r < rowTo; ++r) {
+                Continuation.Solver row = solver.forRow(plane.ys[r]);
+                for (int c = columnFrom; c < columnTo; ++c) {
+                    boolean hasLeft = c > columnFrom && plane.isSolved(r, c - 1);
+                    boolean hasUp = r > rowFrom && plane.isSolved(r - 1, c);
+                    boolean hasCorner = hasLeft && hasUp && plane.isSolved(r - 1, c - 1);
+
+                    double[] solution = null;
+                    if (hasCorner) {
+                        for (int j = 0; j < size; ++j) {
+                            start[j] = plane.get(r, c - 1, j) + plane.get(r - 1, c, j) - plane.get(r - 1, c - 1, j);
+                        }
+                        solution = solve(row, plane.xs[c], start);
+                    }
+                    if (solution == null && hasLeft) {
+                        solution = solve(row, plane.xs[c], plane.copy(r, c - 1, start));
+                    }
+                    if (solution == null && hasUp) {
+                        solution = solve(row, plane.xs[c], plane.copy(r - 1, c, start));
+                    }
+                    if (solution == null) {
+                        solution = solve(row, plane.xs[c], initial);
+                    }
+                    if (solution != null) {
+                        plane.set(r, c, solution);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return solution, or null if solver failed or gave non-finite values
+         */
+        private static double[] solve(Continuation.Solver solver, double x, double[] start) {
+            double[] solution;
+            try {
+                solution = solver.solve(x, start);
+            } catch (Exception e) {
+                return null;
+            }
+            for (double v : solution) {
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    return null;
+                }
+            }
+            return solution;
+        }
+    }
+
+    /**
+     * Solutions on plane, stored in one array: variable j at row r and column c is at (r * columns + c) * size + j.
+     * Points where all attempts failed are NaN.
+     */
+    public static class Plane {
+        private final double[] xs, ys;
+        private final int size;
+        private final double[] values;
+
+        Plane(double[] xs, double[] ys, int size) {
+            this.xs = xs;
+            this.ys = ys;
+            this.size = size;
+            values = new double[xs.length * ys.length * size];
+            Arrays.fill(values, Double.NaN);
+        }
+
+        /**
+         * @return values of parameter of columns; this is backing array, it must not be changed
+         */
+        public double[] getXs() {
+            return xs;
+        }
+
+        /**
+         * @return values of parameter of rows; this is backing array, it must not be changed
+         */
+        public double[] getYs() {
+            return ys;
+        }
+
+        /**
+         * @return number of variables at each point
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return j-th variable at row r and column c
+         */
+        public double get(int r, int c, int j) {
+            return values[(r * xs.length + c) * size + j];
+        }
+
+        /**
+         * @return whether solution at row r and column c was found
+         */
+        public boolean isSolved(int r, int c) {
+            return !Double.isNaN(values[(r * xs.length + c) * size]);
+        }
+
+        /**
+         * @return number of points where solution was not found
+         */
+        public int getFailedCount() {
+            int res = 0;
+            for (int i = 0; i < values.length; i += size) {
+                if (Double.isNaN(values[i])) {
+                    ++res;
+                }
+            }
+            return res;
+        }
+
+        /**
+         * @return all values; this is backing array, it must not be changed
+         */
+        public double[] getValues() {
+            return values;
+        }
+
+        private void set(int r, int c, double[] solution) {
+            System.arraycopy(solution, 0, values, (r * xs.length + c) * size, size);
+        }
+
+        private double[] copy(int r, int c, double[] to) {
+            System.arraycopy(values, (r * xs.length + c) * size, to, 0, size);
+            return to;
+        }
+    }
+}
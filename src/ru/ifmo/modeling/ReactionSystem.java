@@ -0,0 +1,987 @@
+package ru.ifmo.modeling;
+
+import ru.ifmo.lang.Fingerprint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Declarative description of a reactor: gas species with their pressures P^g far from surface,
+ * equilibrium reactions at surface, and balances of diffusion fluxes D_k * (P_k^g - P_k^e).
+ * Unknowns are equilibrium pressures P^e of gases (in order of declaration), then fractions of solid solutions.
+ * <p>
+ * Equilibrium of reaction with constant K is written as product of activities of species with positive
+ * coefficients in formula of K minus K times product of activities of species with negative ones,
+ * each activity raised to power of its coefficient. Activity of gas is its pressure, activity of members of
+ * solid solution are x and 1 - x, activity of other condensed species is 1.
+ * For example, reaction 1 (see {@link Coefficients}) gives P_HCl^2 - K1 * P_AlCl^2 * P_H2.
+ * <p>
+ * All such equations are sums of monomials of unknowns with coefficients which depend only on parameter
+ * of system (temperature, or some pressure P^g). So description is compiled to a {@link Kernel}: flat tables
+ * of monomials, whose coefficients are counted once per value of parameter, while residuals and Jacobian are
+ * counted by one loop over these tables, without lookups by name or derivatives written by hand.
+ * <p>
+ * Example of usage (system of Al chlorides, parameter is temperature):
+ * <pre>
+ * new ReactionSystem(t -&gt; t)
+ *         .gas("AlCl").gas("AlCl2").gas("AlCl3").gas("H2").gas("HCl", 10000)
+ *         .equilibrium(1).equilibrium(2).equilibrium(3)
+ *         .balance(new Flux().plus(1, "HCl").plus(2, "H2"))
+ *         .balance(new Flux().plus(1, "AlCl").plus(2, "AlCl2").plus(3, "AlCl3").plus(1, "HCl"))
+ *         .compile();
+ * </pre>
+ */
+public class ReactionSystem {
+    private final DoubleUnaryOperator temperature;
+
+    /**
+     * Upper-case name -> index of gas
+     */
+    private final Map<String, Integer> gases = new LinkedHashMap<>();
+    private final List<DoubleUnaryOperator> pg = new ArrayList<>();
+
+    /**
+     * Upper-case name of condensed species -> index of solid solution and whether activity is x (else 1 - x)
+     */
+    private final Map<String, int[]> solutions = new LinkedHashMap<>();
+    private int solutionCount;
+
+    private final List<Map<String, Integer>> reactions = new ArrayList<>();
+    private final List<DoubleUnaryOperator> KCounters = new ArrayList<>();
+
+    /**
+     * Equations in order of declaration: index of reaction, flux balance, or pair of fluxes of solid solution
+     */
+    private final List<Object> equations = new ArrayList<>();
+
+    /**
+     * @param temperature function parameter -> T
+     */
+    public ReactionSystem(DoubleUnaryOperator temperature) {
+        this.temperature = temperature;
+    }
+
+    /**
+     * Adds gas with P^g = 0
+     *
+     * @param species name of gas, see {@link Coefficients}. Not case-sensitive.
+     * @return same object in new state
+     */
+    public ReactionSystem gas(String species) {
+        return gas(species, 0);
+    }
+
+    /**
+     * Adds gas with constant P^g
+     *
+     * @return same object in new state
+     */
+    public ReactionSystem gas(String species, double pg) {
+        return gas(species, p -> pg);
+    }
+
+    /**
+     * Adds gas
+     *
+     * @param species name of gas, see {@link Coefficients}. Not case-sensitive.
+     * @param pg      function parameter -> P^g
+     * @return same object in new state
+     */
+    public ReactionSystem gas(String species, DoubleUnaryOperator pg) {
+        String name = species.toUpperCase();
+        if (!Coefficients.isGas(name)) {
+            throw new IllegalArgumentException(species + " is not a gas");
+        }
+        if (gases.containsKey(name)) {
+            throw new IllegalArgumentException("Gas " + species + " is already added");
+        }
+        if (solutionCount > 0) {
+            throw new IllegalStateException("Gases should be added before solid solutions");
+        }
+        gases.put(name, gases.size());
+        this.pg.add(pg);
+        return this;
+    }
+
+    /**
+     * Adds equation of equilibrium of reaction with K_number from {@link Coefficients}
+     *
+     * @return same object in new state
+     */
+    public ReactionSystem equilibrium(int number) {
+        Map<String, Integer> reaction = Coefficients.getReaction(number);
+        if (reaction == null) {
+            throw new IllegalArgumentException("K" + number + " is not specified");
+        }
+        return equilibrium(reaction, Coefficients.getKCounter(number));
+    }
+
+    /**
+     * Adds equation of equilibrium of reaction which is not registered in {@link Coefficients}
+     *
+     * @param reaction formula of K
+     * @return same object in new state
+     */
+    public ReactionSystem equilibrium(Coefficients.KBuilder reaction) {
+        return equilibrium(reaction.getStoichiometry(), reaction.build());
+    }
+
+    private ReactionSystem equilibrium(Map<String, Integer> reaction, DoubleUnaryOperator KCounter) {
+        equations.add(reactions.size());
+        reactions.add(reaction);
+        KCounters.add(KCounter);
+        return this;
+    }
+
+    /**
+     * Adds equation "flux = 0"
+     *
+     * @return same object in new state
+     */
+    public ReactionSystem balance(Flux flux) {
+        equations.add(flux);
+        return this;
+    }
+
+    /**
+     * Adds balances of atoms carried by declared gases. Condensed species of declared reactions are deposited
+     * (or etched) at unknown rates, so flux of atoms must be only a combination of their compositions;
+     * balances are all independent combinations of fluxes of atoms which do not depend on these rates.
+     * For example, deposition of AlN and GaN from AlCl3, GaCl, NH3, HCl and H2 gives balances of Cl, of H and
+     * of Al + Ga - N. Number of balances is number of kinds of atoms minus rank of compositions of condensed species.
+     * <p>
+     * Should be called after all gases and reactions are declared; compositions are taken from formulas,
+     * see {@link Coefficients#getComposition(String)}.
+     *
+     * @return same object in new state
+     */
+    public ReactionSystem balanceAtoms() {
+        List<String> atoms = new ArrayList<>();
+        List<Map<String, Integer>> gasCompositions = new ArrayList<>();
+        for (String gas : gases.keySet()) {
+            Map<String, Integer> composition = Coefficients.getComposition(gas);
+            gasCompositions.add(composition);
+            for (String atom : composition.keySet()) {
+                if (!atoms.contains(atom)) {
+                    atoms.add(atom);
+                }
+            }
+        }
+        List<String> condensed = new ArrayList<>();
+        for (Map<String, Integer> reaction : reactions) {
+            for (String species : reaction.keySet()) {
+                if (!Coefficients.isGas(species) && !condensed.contains(species)) {
+                    condensed.add(species);
+                }
+            }
+        }
+
+        // rows are condensed species, columns are atoms; balances w are solutions of matrix * w = 0
+        long[][] matrix = new long[condensed.size()][atoms.size()];
+        for (int i = 0; i < condensed.size(); ++i) {
+            for (Map.Entry<String, Integer> atom : Coefficients.getComposition(condensed.get(i)).entrySet()) {
+                int j = atoms.indexOf(atom.getKey());
+                if (j >= 0) {
+                    matrix[i][j] = atom.getValue();
+                }
+            }
+        }
+        for (long[] w : nullSpace(matrix, atoms.size())) {
+            Flux flux = new Flux();
+            int g = 0;
+            for (String gas : gases.keySet()) {
+                long coef = 0;
+                for (Map.Entry<String, Integer> atom : gasCompositions.get(g++).entrySet()) {
+                    coef += w[atoms.indexOf(atom.getKey())] * atom.getValue();
+                }
+                if (coef != 0) {
+                    flux.plus(Math.toIntExact(coef), gas);
+                }
+            }
+            balance(flux);
+        }
+        return this;
+    }
+
+    /**
+     * Gauss-Jordan elimination in integers (rows are kept primitive, so numbers stay small)
+     *
+     * @return basis of solutions of matrix * w = 0: primitive integer vectors, first nonzero component of which is positive
+     */
+    private static List<long[]> nullSpace(long[][] matrix, int columns) {
+        long[][] a = new long[matrix.length][];
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = matrix[i].clone();
+        }
+        int[] pivotColumn = new int[a.length];
+        boolean[] isPivot = new boolean[columns];
+        int rank = 0;
+        for (int j = 0; j < columns && rank < a.length; ++j) {
+            int p = rank;
+            while (p < a.length && a[p][j] == 0) {
+                ++p;
+            }
+            if (p == a.length) {
+                continue;
+            }
+            long[] row = a[p];
+            a[p] = a[rank];
+            a[rank] = row;
+            for (int i = 0; i < a.length; ++i) {
+                if (i != rank && a[i][j] != 0) {
+                    long c = a[i][j], d = row[j];
+                    for (int k = 0; k < columns; ++k) {
+                        a[i][k] = a[i][k] * d - row[k] * c;
+                    }
+                    normalize(a[i]);
+                }
+            }
+            pivotColumn[rank++] = j;
+            isPivot[j] = true;
+        }
+
+        // every free column f gives solution with w_f = d, where d is product of pivots, and w_pivot from its row
+        List<long[]> basis = new ArrayList<>();
+        for (int f = 0; f < columns; ++f) {
+            if (isPivot[f]) {
+                continue;
+            }
+            long d = 1;
+            for (int r = 0; r < rank; ++r) {
+                d *= Math.abs(a[r][pivotColumn[r]]);
+            }
+            long[] w = new long[columns];
+            w[f] = d;
+            for (int r = 0; r < rank; ++r) {
+                w[pivotColumn[r]] = -a[r][f] * (d / a[r][pivotColumn[r]]);
+            }
+            normalize(w);
+            for (long v : w) {
+                if (v != 0) {
+                    if (v < 0) {
+                        for (int k = 0; k < columns; ++k) {
+                            w[k] = -w[k];
+                        }
+                    }
+                    break;
+                }
+            }
+            basis.add(w);
+        }
+        return basis;
+    }
+
+    /**
+     * Divides vector by greatest common divisor of its components
+     */
+    private static void normalize(long[] v) {
+        long gcd = 0;
+        for (long x : v) {
+            gcd = gcd(gcd, Math.abs(x));
+        }
+        if (gcd > 1) {
+            for (int k = 0; k < v.length; ++k) {
+                v[k] /= gcd;
+            }
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Adds solid solution of two condensed species: new unknown x, which is activity of first species
+     * (and 1 - x is activity of second one), and equation "firstFlux * (1 - x) - secondFlux * x = 0",
+     * that is, x is portion of first species in deposited solid.
+     *
+     * @param first      name of first condensed species
+     * @param second     name of second condensed species
+     * @param firstFlux  flux which deposits first species
+     * @param secondFlux flux which deposits second species
+     * @return same object in new state
+     */
+    public ReactionSystem solidSolution(String first, String second, Flux firstFlux, Flux secondFlux) {
+        for (String species : new String[]{first, second}) {
+            if (Coefficients.isGas(species)) {
+                throw new IllegalArgumentException(species + " is not condensed");
+            }
+            if (solutions.containsKey(species.toUpperCase())) {
+                throw new IllegalArgumentException(species + " is already in solid solution");
+            }
+        }
+        solutions.put(first.toUpperCase(), new int[]{solutionCount, 1});
+        solutions.put(second.toUpperCase(), new int[]{solutionCount, 0});
+        equations.add(new Flux[]{firstFlux, secondFlux});
+        ++solutionCount;
+        return this;
+    }
+
+    /**
+     * Linear combination of diffusion fluxes D_k * (P_k^g - P_k^e) of gases
+     */
+    public static class Flux {
+        /**
+         * Upper-case name -> coefficient
+         */
+        private final Map<String, Integer> coefs = new LinkedHashMap<>();
+
+        /**
+         * Adds flux of gas with coefficient
+         *
+         * @return same Flux, in new state
+         */
+        public Flux plus(int coef, String species) {
+            coefs.merge(species.toUpperCase(), coef, Integer::sum);
+            return this;
+        }
+
+        /**
+         * Adds flux of gas with coefficient taken with sign "-"
+         *
+         * @return same Flux, in new state
+         */
+        public Flux minus(int coef, String species) {
+            return plus(-coef, species);
+        }
+    }
+
+    // ----------------------------------------------- compilation -----------------------------------------------
+
+    /**
+     * Addend of coefficient of monomial: factor * constant[a] * constant[b], multiplied by product of
+     * unknowns in powers 'exps'
+     */
+    private static class Term {
+        final double factor;
+        final int a, b;
+        final int[] exps;
+
+        Term(double factor, int a, int b, int[] exps) {
+            this.factor = factor;
+            this.a = a;
+            this.b = b;
+            this.exps = exps;
+        }
+
+        Term times(double c, int var) {
+            int[] res = exps.clone();
+            ++res[var];
+            return new Term(factor * c, a, b, res);
+        }
+    }
+
+    /**
+     * Checks declaration and builds tables of monomials, K and D are counted directly.
+     *
+     * @throws IllegalStateException if number of equations differs from number of unknowns,
+     *                               or species of reaction or flux are not declared
+     */
+    public Kernel compile() {
+        return compile(null);
+    }
+
+    /**
+     * Same as {@link #compile()}, but K and D of kernel are interpolated on grid of temperatures.
+     * Tables belong to this kernel only, so kernels with different tabulations can be used at the same time.
+     *
+     * @param tabulation grid of temperatures, null to count K and D directly
+     */
+    public Kernel compile(Coefficients.Tabulation tabulation) {
+        int gasCount = gases.size();
+        int size = gasCount + solutionCount;
+        if (equations.size() != size) {
+            throw new IllegalStateException(equations.size() + " equations for " + size + " unknowns");
+        }
+
+        // constants: K of reactions, D of gases, P^g of gases, 1
+        int KOffset = 0, DOffset = reactions.size(), pgOffset = DOffset + gasCount, one = pgOffset + gasCount;
+        DoubleUnaryOperator[] D = new DoubleUnaryOperator[gasCount];
+        for (Map.Entry<String, Integer> gas : gases.entrySet()) {
+            D[gas.getValue()] = tabulate(tabulation, Coefficients.getDCounter(gas.getKey()));
+        }
+
+        List<List<Term>> polynomials = new ArrayList<>();
+        for (Object equation : equations) {
+            List<Term> terms;
+            if (equation instanceof Integer) {
+                int r = (Integer) equation;
+                terms = new ArrayList<>();
+                terms.addAll(activities(reactions.get(r), 1, new Term(1, one, one, new int[size])));
+                terms.addAll(activities(reactions.get(r), -1, new Term(-1, KOffset + r, one, new int[size])));
+            } else if (equation instanceof Flux) {
+                terms = flux((Flux) equation, size, DOffset, pgOffset, one);
+            } else {
+                Flux[] fluxes = (Flux[]) equation;
+                int x = gasCount + solutionIndex(fluxes);
+                terms = new ArrayList<>();
+                // firstFlux * (1 - x) - secondFlux * x
+                for (Term t : flux(fluxes[0], size, DOffset, pgOffset, one)) {
+                    terms.add(t);
+                    terms.add(t.times(-1, x));
+                }
+                for (Term t : flux(fluxes[1], size, DOffset, pgOffset, one)) {
+                    terms.add(t.times(-1, x));
+                }
+            }
+            polynomials.add(terms);
+        }
+
+        double[] lower = new double[size];
+        double[] upper = new double[size];
+        Arrays.fill(upper, 0, gasCount, Double.POSITIVE_INFINITY);
+        Arrays.fill(upper, gasCount, size, 1.);
+        DoubleUnaryOperator[] pg = this.pg.toArray(new DoubleUnaryOperator[gasCount]);
+        DoubleUnaryOperator[] K = new DoubleUnaryOperator[KCounters.size()];
+        for (int r = 0; r < K.length; ++r) {
+            K[r] = tabulate(tabulation, KCounters.get(r));
+        }
+        return new Kernel(size, temperature, K, D, pg, tabulation, polynomials, lower, upper);
+    }
+
+    private static DoubleUnaryOperator tabulate(Coefficients.Tabulation tabulation, DoubleUnaryOperator counter) {
+        return tabulation != null ? tabulation.tabulate(counter) : counter;
+    }
+
+    private int solutionIndex(Flux[] fluxes) {
+        int index = 0;
+        for (Object equation : equations) {
+            if (equation == fluxes) {
+                return index;
+            }
+            if (equation instanceof Flux[]) {
+                ++index;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Multiplies term by activities of species which have coefficients of specified sign in reaction
+     */
+    private List<Term> activities(Map<String, Integer> reaction, int sign, Term term) {
+        List<Term> terms = new ArrayList<>();
+        terms.add(term);
+        for (Map.Entry<String, Integer> coef : reaction.entrySet()) {
+            int power = coef.getValue() * sign;
+            if (power <= 0) {
+                continue;
+            }
+            String species = coef.getKey();
+            Integer gas = gases.get(species);
+            int[] solution = solutions.get(species);
+            if (gas != null) {
+                for (int i = 0; i < terms.size(); ++i) {
+                    Term t = terms.get(i);
+                    for (int k = 0; k < power; ++k) {
+                        t = t.times(1, gas);
+                    }
+                    terms.set(i, t);
+                }
+            } else if (solution != null) {
+                if (power != 1) {
+                    throw new IllegalStateException("Member of solid solution " + species + " should have coefficient 1 in reaction");
+                }
+                int x = gases.size() + solution[0];
+                List<Term> res = new ArrayList<>();
+                for (Term t : terms) {
+                    if (solution[1] == 1) {
+                        res.add(t.times(1, x));
+                    } else {
+                        res.add(t);
+                        res.add(t.times(-1, x));
+                    }
+                }
+                terms = res;
+            } else if (Coefficients.isGas(species)) {
+                throw new IllegalStateException("Gas " + species + " of reaction is not declared");
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * sum(c_k * D_k * (P_k^g - P_k)) as terms
+     */
+    private List<Term> flux(Flux flux, int size, int DOffset, int pgOffset, int one) {
+        List<Term> terms = new ArrayList<>();
+        for (Map.Entry<String, Integer> coef : flux.coefs.entrySet()) {
+            Integer gas = gases.get(coef.getKey());
+            if (gas == null) {
+                throw new IllegalStateException("Gas " + coef.getKey() + " of flux is not declared");
+            }
+            int c = coef.getValue();
+            terms.add(new Term(c, DOffset + gas, pgOffset + gas, new int[size]));
+            terms.add(new Term(-c, DOffset + gas, one, new int[size]).times(1, gas));
+        }
+        return terms;
+    }
+
+    /**
+     * Compiled system: residuals f_i = sum over monomials m of i-th equation of coef_m * prod(x_j ^ e_mj).
+     * Coefficients are counted by {@link #prepare(double, double[])} once per value of parameter,
+     * then {@link #apply(double[], double[], double[], double[][])} counts residuals and Jacobian,
+     * or {@link #apply(double[], double[], double[], double[])} counts residuals and only structural nonzeros
+     * of Jacobian (see {@link #getPattern()}). Is immutable and thread-safe.
+     */
+    public static class Kernel implements Fingerprint.Source {
+        /**
+         * Values of parameter at which coefficients of monomials are added to fingerprint: typical x^g and T.
+         * So constants which are hidden in counters (like P^g set by portion of H2) change fingerprint too.
+         */
+        private static final double[] PROBES = {0, 0.1, 0.25, 0.5, 0.75, 0.9, 1, 400, 623, 700, 923, 1000, 1223, 1373};
+
+        private final int size;
+        private final DoubleUnaryOperator temperature;
+        private final DoubleUnaryOperator[] K, D, pg;
+        private final Coefficients.Tabulation tabulation;
+        private final double[] lower, upper;
+
+        /**
+         * Monomial m belongs to equation equation[m], its factors are unknowns vars[f] in powers exps[f]
+         * for f in [start[m]; start[m + 1])
+         */
+        private final int[] equation, start, vars, exps;
+
+        /**
+         * Monomials of equation i are [equationStart[i]; equationStart[i + 1])
+         */
+        private final int[] equationStart;
+
+        /**
+         * Coefficient of monomial m is sum of factor[t] * constant[a[t]] * constant[b[t]]
+         * for t in [termStart[m]; termStart[m + 1])
+         */
+        private final int[] termStart, a, b;
+        private final double[] factor;
+
+        /**
+         * Derivative by factor f of monomial is entry slot[f] of sparse Jacobian
+         */
+        private final JacobianPattern pattern;
+        private final int[] slot;
+
+        private Kernel(int size, DoubleUnaryOperator temperature, DoubleUnaryOperator[] K, DoubleUnaryOperator[] D,
+                       DoubleUnaryOperator[] pg, Coefficients.Tabulation tabulation, List<List<Term>> polynomials,
+                       double[] lower, double[] upper) {
+            this.size = size;
+            this.temperature = temperature;
+            this.K = K;
+            this.D = D;
+            this.pg = pg;
+            this.tabulation = tabulation;
+            this.lower = lower;
+            this.upper = upper;
+
+            // group terms of each equation by monomial
+            List<Integer> equation = new ArrayList<>();
+            List<int[]> monomials = new ArrayList<>();
+            List<List<Term>> coefs = new ArrayList<>();
+            for (int i = 0; i < polynomials.size(); ++i) {
+                Map<String, Integer> index = new LinkedHashMap<>();
+                for (Term t : polynomials.get(i)) {
+                    String key = Arrays.toString(t.exps);
+                    Integer m = index.get(key);
+                    if (m == null) {
+                        m = monomials.size();
+                        index.put(key, m);
+                        equation.add(i);
+                        monomials.add(t.exps);
+                        coefs.add(new ArrayList<>());
+                    }
+                    coefs.get(m).add(t);
+                }
+            }
+
+            int count = monomials.size();
+            this.equation = new int[count];
+            this.start = new int[count + 1];
+            this.termStart = new int[count + 1];
+            List<Integer> vars = new ArrayList<>(), exps = new ArrayList<>();
+            List<Term> terms = new ArrayList<>();
+            for (int m = 0; m < count; ++m) {
+                this.equation[m] = equation.get(m);
+                int[] e = monomials.get(m);
+                for (int j = 0; j < size; ++j) {
+                    if (e[j] != 0) {
+                        vars.add(j);
+                        exps.add(e[j]);
+                    }
+                }
+                start[m + 1] = vars.size();
+                terms.addAll(coefs.get(m));
+                termStart[m + 1] = terms.size();
+            }
+            this.vars = vars.stream().mapToInt(Integer::intValue).toArray();
+            this.exps = exps.stream().mapToInt(Integer::intValue).toArray();
+
+            boolean[][] nonZero = new boolean[size][size];
+            for (int m = 0; m < count; ++m) {
+                for (int f = start[m]; f < start[m + 1]; ++f) {
+                    nonZero[this.equation[m]][this.vars[f]] = true;
+                }
+            }
+            this.pattern = new JacobianPattern(nonZero);
+            this.equationStart = new int[size + 1];
+            for (int m = 0; m < count; ++m) {
+                ++equationStart[this.equation[m] + 1];
+            }
+            for (int i = 0; i < size; ++i) {
+                equationStart[i + 1] += equationStart[i];
+            }
+            this.slot = new int[this.vars.length];
+            for (int m = 0; m < count; ++m) {
+                for (int f = start[m]; f < start[m + 1]; ++f) {
+                    slot[f] = pattern.indexOf(this.equation[m], this.vars[f]);
+                }
+            }
+            this.factor = new double[terms.size()];
+            this.a = new int[terms.size()];
+            this.b = new int[terms.size()];
+            for (int t = 0; t < terms.size(); ++t) {
+                factor[t] = terms.get(t).factor;
+                a[t] = terms.get(t).a;
+                b[t] = terms.get(t).b;
+            }
+        }
+
+        /**
+         * @return number of equations and unknowns
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return number of monomials, i.e. length of array of coefficients
+         */
+        public int getMonomialCount() {
+            return equation.length;
+        }
+
+        /**
+         * @return number of first monomial of equation i; monomials of equations are numbered in order of equations,
+         * so getMonomialStart(n) is number of all monomials
+         */
+        public int getMonomialStart(int i) {
+            return equationStart[i];
+        }
+
+        /**
+         * @return lower bounds of unknowns: all are non-negative
+         */
+        public double[] getLowerBounds() {
+            return lower.clone();
+        }
+
+        /**
+         * @return upper bounds of unknowns: pressures are not bounded, fractions are not greater than 1
+         */
+        public double[] getUpperBounds() {
+            return upper.clone();
+        }
+
+        /**
+         * Counts coefficients of monomials for specified value of parameter
+         *
+         * @param coefs array of size {@link #getMonomialCount()}
+         */
+        public void prepare(double parameter, double[] coefs) {
+            double[] constants = new double[K.length + 2 * D.length + 1];
+            countConstants(temperature.applyAsDouble(parameter), constants);
+            countInputs(parameter, constants);
+            for (int m = 0; m < coefs.length; ++m) {
+                coefs[m] = coefficient(m, constants);
+            }
+        }
+
+        /**
+         * Counts coefficients of monomials for many values of parameter, in layout of {@link BatchSystemOfEquationsSolve}.
+         * K and D are counted again only when temperature changes, so systems at fixed temperature count them once.
+         *
+         * @param coefs coefs[m][p] is set to coefficient of monomial m at parameters[p]
+         */
+        public void prepare(double[] parameters, double[][] coefs) {
+            double[] constants = new double[K.length + 2 * D.length + 1];
+            double t = Double.NaN;
+            for (int p = 0; p < parameters.length; ++p) {
+                double pointT = temperature.applyAsDouble(parameters[p]);
+                if (Double.doubleToLongBits(pointT) != Double.doubleToLongBits(t)) {
+                    countConstants(pointT, constants);
+                    t = pointT;
+                }
+                countInputs(parameters[p], constants);
+                for (int m = 0; m < coefs.length; ++m) {
+                    coefs[m][p] = coefficient(m, constants);
+                }
+            }
+        }
+
+        /**
+         * Counts K and D at temperature t, and constant 1
+         */
+        private void countConstants(double t, double[] constants) {
+            for (int r = 0; r < K.length; ++r) {
+                constants[r] = K[r].applyAsDouble(t);
+            }
+            for (int k = 0; k < D.length; ++k) {
+                constants[K.length + k] = D[k].applyAsDouble(t);
+            }
+            constants[constants.length - 1] = 1;
+        }
+
+        /**
+         * Counts P^g at specified value of parameter
+         */
+        private void countInputs(double parameter, double[] constants) {
+            for (int k = 0; k < D.length; ++k) {
+                constants[K.length + D.length + k] = pg[k].applyAsDouble(parameter);
+            }
+        }
+
+        private double coefficient(int m, double[] constants) {
+            double c = 0;
+            for (int i = termStart[m]; i < termStart[m + 1]; ++i) {
+                c += factor[i] * constants[a[i]] * constants[b[i]];
+            }
+            return c;
+        }
+
+        /**
+         * Counts residuals and Jacobian
+         *
+         * @param coefs    coefficients of monomials, see {@link #prepare(double, double[])}
+         * @param x        unknowns
+         * @param values   values[i] is set to f_{i+1}
+         * @param jacobian jacobian[i][j] is set to d(f_{i+1})/d(x_{j+1})
+         */
+        public void apply(double[] coefs, double[] x, double[] values, double[][] jacobian) {
+            Arrays.fill(values, 0);
+            for (double[] row : jacobian) {
+                Arrays.fill(row, 0);
+            }
+            for (int m = 0; m < coefs.length; ++m) {
+                double c = coefs[m];
+                int from = start[m], to = start[m + 1];
+                double value = c;
+                for (int f = from; f < to; ++f) {
+                    value *= power(x[vars[f]], exps[f]);
+                }
+                int i = equation[m];
+                values[i] += value;
+
+                double[] row = jacobian[i];
+                for (int f = from; f < to; ++f) {
+                    double d = c * exps[f] * power(x[vars[f]], exps[f] - 1);
+                    for (int g = from; g < to; ++g) {
+                        if (g != f) {
+                            d *= power(x[vars[g]], exps[g]);
+                        }
+                    }
+                    row[vars[f]] += d;
+                }
+            }
+        }
+
+        /**
+         * @return positions of entries of Jacobian which are not zero identically:
+         * d(f_i)/d(x_j) where x_j is a factor of some monomial of i-th equation
+         */
+        public JacobianPattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Counts residuals and structural nonzeros of Jacobian
+         *
+         * @param coefs   coefficients of monomials, see {@link #prepare(double, double[])}
+         * @param x       unknowns
+         * @param values  values[i] is set to f_{i+1}
+         * @param entries entries of Jacobian in order of {@link #getPattern()}
+         */
+        public void apply(double[] coefs, double[] x, double[] values, double[] entries) {
+            apply(coefs, x, values, entries, 0, size);
+        }
+
+        /**
+         * Counts residuals and structural nonzeros of Jacobian of equations fromEquation..toEquation-1 only, other elements of
+         * 'values' and 'entries' are not touched. So different ranges can be counted in parallel.
+         *
+         * @see #apply(double[], double[], double[], double[])
+         */
+        public void apply(double[] coefs, double[] x, double[] values, double[] entries, int fromEquation, int toEquation) {
+            Arrays.fill(values, fromEquation, toEquation, 0);
+            Arrays.fill(entries, pattern.getRowStart(fromEquation), pattern.getRowStart(toEquation), 0);
+            for (int m = equationStart[fromEquation]; m < equationStart[toEquation]; ++m) {
+                double c = coefs[m];
+                int from = start[m], to = start[m + 1];
+                double value = c;
+                for (int f = from; f < to; ++f) {
+                    value *= power(x[vars[f]], exps[f]);
+                }
+                values[equation[m]] += value;
+
+                for (int f = from; f < to; ++f) {
+                    double d = c * exps[f] * power(x[vars[f]], exps[f] - 1);
+                    for (int g = from; g < to; ++g) {
+                        if (g != f) {
+                            d *= power(x[vars[g]], exps[g]);
+                        }
+                    }
+                    entries[slot[f]] += d;
+                }
+            }
+        }
+
+        /**
+         * Counts residuals and Jacobian at many points at once, in layout of {@link BatchSystemOfEquationsSolve}:
+         * each monomial is counted by plain loop over points
+         *
+         * @param coefs    coefs[m][p] is coefficient of monomial m at point p, see {@link #prepare(double, double[])}
+         * @param x        x[j][p] is j-th unknown at point p
+         * @param count    number of points to evaluate
+         * @param values   values[i][p] is set to f_{i+1} at point p
+         * @param jacobian jacobian[i][j][p] is set to d(f_{i+1})/d(x_{j+1}) at point p
+         */
+        public void apply(double[][] coefs, double[][] x, int count, double[][] values, double[][][] jacobian) {
+            apply(coefs, x, count, values, jacobian, new double[count]);
+        }
+
+        /**
+         * Same as {@link #apply(double[][], double[][], int, double[][], double[][][])}, but products of monomials
+         * are accumulated in buffer of caller, so that iterations over the same points allocate nothing
+         *
+         * @param product buffer of at least count elements, its content is overwritten
+         */
+        public void apply(double[][] coefs, double[][] x, int count, double[][] values, double[][][] jacobian,
+                          double[] product) {
+            for (int i = 0; i < size; ++i) {
+                Arrays.fill(values[i], 0, count, 0);
+                for (double[] row : jacobian[i]) {
+                    Arrays.fill(row, 0, count, 0);
+                }
+            }
+            for (int m = 0; m < coefs.length; ++m) {
+                double[] c = coefs[m];
+                int from = start[m], to = start[m + 1];
+                System.arraycopy(c, 0, product, 0, count);
+                for (int f = from; f < to; ++f) {
+                    multiplyByPower(product, x[vars[f]], exps[f], count);
+                }
+                double[] value = values[equation[m]];
+                for (int p = 0; p < count; ++p) {
+                    value[p] += product[p];
+                }
+
+                double[][] row = jacobian[equation[m]];
+                for (int f = from; f < to; ++f) {
+                    double[] xf = x[vars[f]];
+                    int e = exps[f];
+                    for (int p = 0; p < count; ++p) {
+                        product[p] = c[p] * e;
+                    }
+                    multiplyByPower(product, xf, e - 1, count);
+                    for (int g = from; g < to; ++g) {
+                        if (g != f) {
+                            multiplyByPower(product, x[vars[g]], exps[g], count);
+                        }
+                    }
+                    double[] derivative = row[vars[f]];
+                    for (int p = 0; p < count; ++p) {
+                        derivative[p] += product[p];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds tables of monomials, bounds, grid of tabulation and coefficients of monomials at some values of parameter
+         */
+        @Override
+        public void addTo(Fingerprint fingerprint) {
+            fingerprint.add(size).add(equation).add(start).add(vars).add(exps).add(equationStart)
+                    .add(termStart).add(a).add(b).add(factor).add(lower).add(upper);
+            fingerprint.add(tabulation != null);
+            if (tabulation != null) {
+                fingerprint.add(tabulation.getTMin()).add(tabulation.getTMax()).add(tabulation.getNodes());
+            }
+            double[] coefs = new double[getMonomialCount()];
+            for (double parameter : PROBES) {
+                prepare(parameter, coefs);
+                fingerprint.add(coefs);
+            }
+        }
+
+        /**
+         * Counts coefficients for specified value of parameter once, and binds them to linearization
+         *
+         * @return residuals and Jacobian of system at this value of parameter
+         */
+        public SystemOfEquationsSolve.Linearization linearization(double parameter) {
+            double[] coefs = new double[getMonomialCount()];
+            prepare(parameter, coefs);
+            return (x, values, jacobian) -> apply(coefs, x, values, jacobian);
+        }
+
+        /**
+         * Same residuals as {@link #linearization(double)}, defined through operations of {@link AutoDiff}.
+         * Jacobian of {@link AutoDiff#linearize(int, AutoDiff.Residuals)} of them is got by differentiation,
+         * independently of derivatives of monomials counted by kernel, so one checks another.
+         *
+         * @return residuals of system at this value of parameter
+         */
+        public AutoDiff.Residuals residuals(double parameter) {
+            double[] coefs = new double[getMonomialCount()];
+            prepare(parameter, coefs);
+            return (ad, unknowns, out) -> {
+                for (int i = 0; i < size; ++i) {
+                    out[i] = ad.constant(0);
+                }
+                for (int m = 0; m < coefs.length; ++m) {
+                    int value = ad.constant(coefs[m]);
+                    for (int f = start[m]; f < start[m + 1]; ++f) {
+                        value = ad.mul(value, ad.pow(unknowns[vars[f]], exps[f]));
+                    }
+                    out[equation[m]] = ad.add(out[equation[m]], value);
+                }
+            };
+        }
+
+        /**
+         * res[p] *= x[p]^k for p in [0; count)
+         */
+        private static void multiplyByPower(double[] res, double[] x, int k, int count) {
+            // powers of reactions are small, separate loops for them have no branches inside
+            switch (k) {
+                case 0:
+                    break;
+                case 1:
+                    for (int p = 0; p < count; ++p) {
+                        res[p] *= x[p];
+                    }
+                    break;
+                case 2:
+                    for (int p = 0; p < count; ++p) {
+                        res[p] *= x[p] * x[p];
+                    }
+                    break;
+                default:
+                    for (int p = 0; p < count; ++p) {
+                        res[p] *= power(x[p], k);
+                    }
+            }
+        }
+
+        private static double power(double v, int k) {
+            double res = 1;
+            for (int i = 0; i < k; ++i) {
+                res *= v;
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package ru.ifmo.modeling;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistics of all solves made by {@link SystemOfEquationsSolve}: a record per solve (label of system, parameter,
+ * method, status, iterations, final residual norm, time) and aggregated counters and histograms.
+ * <p>
+ * Collection is disabled by default; then every solve only reads one volatile flag.
+ * When enabled, every solve additionally measures its time and counts residuals at found solution.
+ * Statistics are available through JMX (see {@link SolverMetricsMBean}) and can be written to CSV,
+ * for example at the end of a sweep.
+ */
+public class SolverMetrics implements SolverMetricsMBean {
+    public static final String OBJECT_NAME = "ru.ifmo.modeling:type=SolverMetrics";
+
+    private static final SolverMetrics INSTANCE = new SolverMetrics();
+    private static volatile boolean enabled;
+
+    /**
+     * Maximal number of kept records; solves beyond it are only counted
+     */
+    private static final int RECORD_LIMIT = 1 << 20;
+    private static final int BUCKETS = 32;
+
+    // ----- records, stored by columns -----
+
+    private final List<String> labels = new ArrayList<>();
+    private int count;
+    private int[] label = new int[16];
+    private double[] parameter = new double[16];
+    private byte[] method = new byte[16];
+    private byte[] status = new byte[16];
+    private int[] iterations = new int[16];
+    private double[] residual = new double[16];
+    private long[] nanos = new long[16];
+
+    // ----- aggregates -----
+
+    private long solves, dropped, totalIterations, totalNanos, maxNanos;
+    private final long[] statusCounts = new long[SystemOfEquationsSolve.Status.values().length];
+    private final long[] iterationHistogram = new long[BUCKETS];
+    private final long[] latencyHistogram = new long[BUCKETS];
+
+    private SolverMetrics() {
+    }
+
+    /**
+     * @return the only instance, which collects statistics of all solves
+     */
+    public static SolverMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return whether statistics are collected
+     */
+    public static boolean isCollecting() {
+        return enabled;
+    }
+
+    /**
+     * Starts collection of statistics and registers MBean (if it was not registered yet)
+     */
+    public static void enable() {
+        enabled = true;
+        register();
+    }
+
+    /**
+     * Stops collection of statistics; collected ones are kept
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Registers MBean in platform MBean server, if it was not registered yet
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored) {
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds record of a solve
+     *
+     * @param label     name of solved system, may be null
+     * @param parameter parameter of system, NaN if unknown
+     * @param residual  Euclidean norm of residuals at found solution
+     * @param nanos     duration of solve
+     */
+    synchronized void record(String label, double parameter, SystemOfEquationsSolve.Method method,
+                             SystemOfEquationsSolve.Status status, int iterations, double residual, long nanos) {
+        ++solves;
+        totalIterations += iterations;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        ++statusCounts[status.ordinal()];
+        ++iterationHistogram[bucket(iterations)];
+        ++latencyHistogram[bucket(nanos / 1000)];
+
+        if (count == RECORD_LIMIT) {
+            ++dropped;
+            return;
+        }
+        if (count == this.label.length) {
+            int capacity = Math.min(2 * count, RECORD_LIMIT);
+            this.label = Arrays.copyOf(this.label, capacity);
+            this.parameter = Arrays.copyOf(this.parameter, capacity);
+            this.method = Arrays.copyOf(this.method, capacity);
+            this.status = Arrays.copyOf(this.status, capacity);
+            this.iterations = Arrays.copyOf(this.iterations, capacity);
+            this.residual = Arrays.copyOf(this.residual, capacity);
+            this.nanos = Arrays.copyOf(this.nanos, capacity);
+        }
+        int index = labels.indexOf(label);
+        if (index < 0) {
+            index = labels.size();
+            labels.add(label);
+        }
+        this.label[count] = index;
+        this.parameter[count] = parameter;
+        this.method[count] = (byte) method.ordinal();
+        this.status[count] = (byte) status.ordinal();
+        this.iterations[count] = iterations;
+        this.residual[count] = residual;
+        this.nanos[count] = nanos;
+        ++count;
+    }
+
+    private static int bucket(long value) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * Writes kept records as CSV with header "system,parameter,method,status,iterations,residual,micros"
+     *
+     * @param out where to write
+     */
+    public synchronized void dumpCsv(Writer out) throws IOException {
+        SystemOfEquationsSolve.Method[] methods = SystemOfEquationsSolve.Method.values();
+        SystemOfEquationsSolve.Status[] statuses = SystemOfEquationsSolve.Status.values();
+        out.write("system,parameter,method,status,iterations,residual,micros\n");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            sb.setLength(0);
+            String name = labels.get(label[i]);
+            sb.append(name == null ? "" : name).append(',')
+                    .append(parameter[i]).append(',')
+                    .append(methods[method[i]]).append(',')
+                    .append(statuses[status[i]]).append(',')
+                    .append(iterations[i]).append(',')
+                    .append(residual[i]).append(',')
+                    .append(nanos[i] / 1e3).append('\n');
+            out.write(sb.toString());
+        }
+        out.flush();
+    }
+
+    @Override
+    public void dumpCsv(String file) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            dumpCsv(out);
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        labels.clear();
+        count = 0;
+        solves = dropped = totalIterations = totalNanos = maxNanos = 0;
+        Arrays.fill(statusCounts, 0);
+        Arrays.fill(iterationHistogram, 0);
+        Arrays.fill(latencyHistogram, 0);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        SolverMetrics.enabled = enabled;
+    }
+
+    @Override
+    public synchronized long getSolveCount() {
+        return solves;
+    }
+
+    @Override
+    public synchronized long getConvergedCount() {
+        return statusCounts[SystemOfEquationsSolve.Status.CONVERGED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getNonConvergedCount() {
+        return statusCounts[SystemOfEquationsSolve.Status.MAX_ITERATIONS.ordinal()]
+                + statusCounts[SystemOfEquationsSolve.Status.STALLED.ordinal()];
+    }
+
+    @Override
+    public synchronized long getSingularCount() {
+        return statusCounts[SystemOfEquationsSolve.Status.SINGULAR.ordinal()];
+    }
+
+    @Override
+    public synchronized long getDivergedCount() {
+        return statusCounts[SystemOfEquationsSolve.Status.DIVERGED.ordinal()];
+    }
+
+    @Override
+    public synchronized double getMeanIterations() {
+        return solves == 0 ? 0 : (double) totalIterations / solves;
+    }
+
+    @Override
+    public synchronized double getMeanLatencyMicros() {
+        return solves == 0 ? 0 : totalNanos / 1e3 / solves;
+    }
+
+    @Override
+    public synchronized double getMaxLatencyMicros() {
+        return maxNanos / 1e3;
+    }
+
+    @Override
+    public synchronized long[] getIterationHistogram() {
+        return iterationHistogram.clone();
+    }
+
+    @Override
+    public synchronized long[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    @Override
+    public synchronized long getDroppedRecordCount() {
+        return dropped;
+    }
+
+    /**
+     * @return short summary of counters and histograms
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("%d solves: %d converged, %d not converged, %d singular, %d diverged; "
+                        + "mean %.1f iterations, mean %.1f us, max %.1f us%n"
+                        + "iterations histogram (by powers of 2): %s%nlatency histogram, us (by powers of 2): %s",
+                solves, getConvergedCount(), getNonConvergedCount(), getSingularCount(), getDivergedCount(),
+                getMeanIterations(), getMeanLatencyMicros(), getMaxLatencyMicros(),
+                Arrays.toString(trim(iterationHistogram)), Arrays.toString(trim(latencyHistogram)));
+    }
+
+    private static long[] trim(long[] histogram) {
+        int n = histogram.length;
+        while (n > 0 && histogram[n - 1] == 0) {
+            --n;
+        }
+        return Arrays.copyOf(histogram, n);
+    }
+}
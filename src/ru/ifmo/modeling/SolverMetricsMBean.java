@@ -0,0 +1,62 @@
+package ru.ifmo.modeling;
+
+import java.io.IOException;
+
+/**
+ * Management interface of {@link SolverMetrics}, is registered in platform MBean server
+ * under name {@link SolverMetrics#OBJECT_NAME}.
+ */
+public interface SolverMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return number of recorded solves
+     */
+    long getSolveCount();
+
+    long getConvergedCount();
+
+    /**
+     * @return number of solves which reached maximal number of iterations or stalled
+     */
+    long getNonConvergedCount();
+
+    long getSingularCount();
+
+    long getDivergedCount();
+
+    double getMeanIterations();
+
+    double getMeanLatencyMicros();
+
+    double getMaxLatencyMicros();
+
+    /**
+     * @return histogram[b] is number of solves which took from 2^(b-1) to 2^b - 1 iterations (0 for b = 0)
+     */
+    long[] getIterationHistogram();
+
+    /**
+     * @return histogram[b] is number of solves which took from 2^(b-1) to 2^b - 1 microseconds (less than 1 for b = 0)
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * @return number of solves which were counted, but not kept as records since limit was reached
+     */
+    long getDroppedRecordCount();
+
+    /**
+     * Forgets all records and counters
+     */
+    void reset();
+
+    /**
+     * Writes kept records to CSV file
+     *
+     * @param file name of file
+     */
+    void dumpCsv(String file) throws IOException;
+}
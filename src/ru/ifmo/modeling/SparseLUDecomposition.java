@@ -0,0 +1,404 @@
+package ru.ifmo.modeling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Sparse LU factorization with partial pivoting: P * A * Q = L * U, where L has unit diagonal,
+ * for matrices with fixed {@link JacobianPattern}.
+ * <p>
+ * Work is split as usual for sparse direct solvers:
+ * <ul>
+ * <li>equilibration, at every factorization: rows and then columns are scaled by powers of 2 (so without rounding)
+ * so that maximal absolute entry of each of them is in [1; 2). Solution does not change, but threshold of
+ * singularity and choice of pivots become relative to magnitudes of equations and unknowns, which differ
+ * by many orders in systems of equilibrium;</li>
+ * <li>analysis, once per pattern (in constructor): fill-reducing ordering Q of columns, found by minimum degree
+ * on graph of A + A^T;</li>
+ * <li>factorization (Gilbert-Peierls, left-looking, column by column): pattern of each column of L and U
+ * is found by depth-first search in graph of L, values by sparse triangular solve; pivot is chosen in column
+ * by threshold partial pivoting, with preference of diagonal so that ordering Q is followed;</li>
+ * <li>refactorization: next matrices of Newton iterations are factored with pivots and patterns of L and U
+ * of previous factorization, without searches, while pivots stay acceptable.</li>
+ * </ul>
+ * Instance keeps factors and workspace, so it is reused for all matrices of its pattern,
+ * but must not be shared between threads.
+ */
+class SparseLUDecomposition {
+    /**
+     * Diagonal entry is chosen as pivot if it is not less than this part of maximal entry of column
+     */
+    private static final double DIAGONAL_PREFERENCE = 0.1;
+
+    private final int n;
+    private final int[] rowStart, columns;
+    private final double[] rowScale, columnScale, scaled;
+
+    // ----- pattern of A by columns: entry colEntry[p] of array of entries is at row rowIndex[p] -----
+
+    private final int[] colStart, rowIndex, colEntry;
+
+    /**
+     * Fill-reducing order of columns: k-th column of factors is column q[k] of A
+     */
+    private final int[] q;
+
+    // ----- factors by columns; row indices of L are original during factorization, pivotal afterwards -----
+
+    private int[] lStart, lIndex, uStart, uIndex;
+    private double[] lValue, uValue;
+    /**
+     * pinv[i] is position of original row i in pivotal order
+     */
+    private final int[] pinv;
+    private boolean factored;
+
+    // ----- workspace -----
+
+    private final double[] x;
+    private final int[] reach, stack, stackPosition, mark;
+    private int stamp;
+
+    /**
+     * Analyzes pattern: finds ordering of columns
+     */
+    SparseLUDecomposition(JacobianPattern pattern) {
+        n = pattern.size();
+        int nnz = pattern.getNonZeroCount();
+        rowStart = pattern.rowStart;
+        columns = pattern.columns;
+        rowScale = new double[n];
+        columnScale = new double[n];
+        scaled = new double[nnz];
+
+        colStart = new int[n + 1];
+        for (int k = 0; k < nnz; ++k) {
+            ++colStart[pattern.columns[k] + 1];
+        }
+        for (int j = 0; j < n; ++j) {
+            colStart[j + 1] += colStart[j];
+        }
+        rowIndex = new int[nnz];
+        colEntry = new int[nnz];
+        int[] next = Arrays.copyOf(colStart, n);
+        for (int i = 0; i < n; ++i) {
+            for (int k = pattern.rowStart[i]; k < pattern.rowStart[i + 1]; ++k) {
+                int p = next[pattern.columns[k]]++;
+                rowIndex[p] = i;
+                colEntry[p] = k;
+            }
+        }
+
+        q = minimumDegree(pattern);
+        pinv = new int[n];
+        int capacity = 2 * nnz + n;
+        lStart = new int[n + 1];
+        uStart = new int[n + 1];
+        lIndex = new int[capacity];
+        uIndex = new int[capacity];
+        lValue = new double[capacity];
+        uValue = new double[capacity];
+
+        x = new double[n];
+        reach = new int[n];
+        stack = new int[n];
+        stackPosition = new int[n];
+        mark = new int[n];
+    }
+
+    /**
+     * Minimum degree ordering of symmetric graph of A + A^T: vertices are eliminated one by one, each time
+     * one with least number of neighbours (ties are broken by index), and its neighbours become connected.
+     *
+     * @return order of elimination
+     */
+    private static int[] minimumDegree(JacobianPattern pattern) {
+        int n = pattern.size();
+        List<BitSet> graph = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            graph.add(new BitSet(n));
+        }
+        for (int i = 0; i < n; ++i) {
+            for (int k = pattern.rowStart[i]; k < pattern.rowStart[i + 1]; ++k) {
+                int j = pattern.columns[k];
+                if (i != j) {
+                    graph.get(i).set(j);
+                    graph.get(j).set(i);
+                }
+            }
+        }
+
+        int[] order = new int[n];
+        boolean[] eliminated = new boolean[n];
+        for (int k = 0; k < n; ++k) {
+            int v = -1, degree = Integer.MAX_VALUE;
+            for (int i = 0; i < n; ++i) {
+                if (!eliminated[i] && graph.get(i).cardinality() < degree) {
+                    degree = graph.get(i).cardinality();
+                    v = i;
+                }
+            }
+            order[k] = v;
+            eliminated[v] = true;
+            BitSet neighbours = graph.get(v);
+            for (int u = neighbours.nextSetBit(0); u >= 0; u = neighbours.nextSetBit(u + 1)) {
+                BitSet adjacent = graph.get(u);
+                adjacent.or(neighbours);
+                adjacent.clear(u);
+                adjacent.clear(v);
+            }
+            neighbours.clear();
+        }
+        return order;
+    }
+
+    /**
+     * Replaces factors with factorization of matrix with specified entries
+     *
+     * @param entries values of entries of pattern, are not changed
+     * @return false if matrix is singular
+     */
+    boolean factor(double[] entries) {
+        for (int i = 0; i < n; ++i) {
+            double max = 0;
+            for (int k = rowStart[i]; k < rowStart[i + 1]; ++k) {
+                max = Math.max(max, Math.abs(entries[k]));
+            }
+            rowScale[i] = LUDecomposition.scale(max);
+        }
+        for (int j = 0; j < n; ++j) {
+            double max = 0;
+            for (int p = colStart[j]; p < colStart[j + 1]; ++p) {
+                max = Math.max(max, Math.abs(entries[colEntry[p]] * rowScale[rowIndex[p]]));
+            }
+            columnScale[j] = LUDecomposition.scale(max);
+        }
+        for (int i = 0; i < n; ++i) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; ++k) {
+                scaled[k] = entries[k] * rowScale[i] * columnScale[columns[k]];
+            }
+        }
+        if (factored && refactor(scaled)) {
+            return true;
+        }
+        factored = factorWithPivoting(scaled);
+        return factored;
+    }
+
+    private boolean factorWithPivoting(double[] entries) {
+        Arrays.fill(pinv, -1);
+        int lnz = 0, unz = 0;
+        for (int k = 0; k < n; ++k) {
+            lStart[k] = lnz;
+            uStart[k] = unz;
+            if (lnz + n > lIndex.length) {
+                lIndex = Arrays.copyOf(lIndex, 2 * lIndex.length + n);
+                lValue = Arrays.copyOf(lValue, lIndex.length);
+            }
+            if (unz + n > uIndex.length) {
+                uIndex = Arrays.copyOf(uIndex, 2 * uIndex.length + n);
+                uValue = Arrays.copyOf(uValue, uIndex.length);
+            }
+
+            int col = q[k];
+            int top = solveColumn(entries, col);
+
+            // choose pivot among rows which are not pivotal yet, entries of pivotal rows go to U
+            int pivotRow = -1;
+            double max = -1;
+            for (int p = top; p < n; ++p) {
+                int i = reach[p];
+                if (pinv[i] < 0) {
+                    double abs = Math.abs(x[i]);
+                    if (abs > max) {
+                        max = abs;
+                        pivotRow = i;
+                    }
+                } else {
+                    uIndex[unz] = pinv[i];
+                    uValue[unz++] = x[i];
+                }
+            }
+            if (pivotRow < 0 || max < LUDecomposition.SINGULARITY_THRESHOLD) {
+                return false;
+            }
+            if (pinv[col] < 0 && mark[col] == stamp && Math.abs(x[col]) >= DIAGONAL_PREFERENCE * max
+                    && Math.abs(x[col]) >= LUDecomposition.SINGULARITY_THRESHOLD) {
+                pivotRow = col;
+            }
+
+            double pivot = x[pivotRow];
+            uIndex[unz] = k;
+            uValue[unz++] = pivot;
+            pinv[pivotRow] = k;
+            lIndex[lnz] = pivotRow;
+            lValue[lnz++] = 1;
+            for (int p = top; p < n; ++p) {
+                int i = reach[p];
+                if (pinv[i] < 0) {
+                    lIndex[lnz] = i;
+                    lValue[lnz++] = x[i] / pivot;
+                }
+                x[i] = 0;
+            }
+        }
+        lStart[n] = lnz;
+        uStart[n] = unz;
+        for (int p = 0; p < lnz; ++p) {
+            lIndex[p] = pinv[lIndex[p]];
+        }
+        return true;
+    }
+
+    /**
+     * Solves L * x = A(:, col) with columns of L found so far (row indices of L are original ones yet).
+     * Nonzeros of x are put to reach[top..n-1] in topological order, and marked with current stamp.
+     *
+     * @return top
+     */
+    private int solveColumn(double[] entries, int col) {
+        ++stamp;
+        int top = n;
+        for (int p = colStart[col]; p < colStart[col + 1]; ++p) {
+            int i = rowIndex[p];
+            if (mark[i] != stamp) {
+                top = search(i, top);
+            }
+        }
+        for (int p = top; p < n; ++p) {
+            x[reach[p]] = 0;
+        }
+        for (int p = colStart[col]; p < colStart[col + 1]; ++p) {
+            x[rowIndex[p]] = entries[colEntry[p]];
+        }
+        for (int p = top; p < n; ++p) {
+            int j = reach[p];
+            int column = pinv[j];
+            if (column < 0) {
+                continue;
+            }
+            double xj = x[j];
+            for (int r = lStart[column] + 1; r < lStart[column + 1]; ++r) {
+                x[lIndex[r]] -= lValue[r] * xj;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Depth-first search in graph of L from row i: row j has edges to rows of nonzeros of column pinv[j] of L.
+     * Finished rows are put to reach[..top - 1].
+     *
+     * @return new top
+     */
+    private int search(int i, int top) {
+        int head = 0;
+        stack[0] = i;
+        while (head >= 0) {
+            int j = stack[head];
+            int column = pinv[j];
+            if (mark[j] != stamp) {
+                mark[j] = stamp;
+                stackPosition[head] = column < 0 ? 0 : lStart[column];
+            }
+            boolean done = true;
+            int end = column < 0 ? 0 : lStart[column + 1];
+            for (int p = stackPosition[head]; p < end; ++p) {
+                int r = lIndex[p];
+                if (mark[r] != stamp) {
+                    stackPosition[head] = p + 1;
+                    stack[++head] = r;
+                    done = false;
+                    break;
+                }
+            }
+            if (done) {
+                --head;
+                reach[--top] = j;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Factors matrix with pivots and patterns of factors of previous factorization
+     *
+     * @return false if some pivot became too small relatively to its column, then factors are invalid
+     */
+    private boolean refactor(double[] entries) {
+        for (int k = 0; k < n; ++k) {
+            // x (indexed by pivotal rows) = A(:, q[k]) on pattern of column k of U and L
+            for (int p = uStart[k]; p < uStart[k + 1]; ++p) {
+                x[uIndex[p]] = 0;
+            }
+            for (int p = lStart[k]; p < lStart[k + 1]; ++p) {
+                x[lIndex[p]] = 0;
+            }
+            int col = q[k];
+            for (int p = colStart[col]; p < colStart[col + 1]; ++p) {
+                x[pinv[rowIndex[p]]] = entries[colEntry[p]];
+            }
+
+            // entries of U are stored in topological order
+            for (int p = uStart[k]; p < uStart[k + 1] - 1; ++p) {
+                int j = uIndex[p];
+                double xj = x[j];
+                uValue[p] = xj;
+                for (int r = lStart[j] + 1; r < lStart[j + 1]; ++r) {
+                    x[lIndex[r]] -= lValue[r] * xj;
+                }
+            }
+
+            double pivot = x[k];
+            double max = 0;
+            for (int p = lStart[k] + 1; p < lStart[k + 1]; ++p) {
+                max = Math.max(max, Math.abs(x[lIndex[p]]));
+            }
+            if (!(Math.abs(pivot) >= LUDecomposition.SINGULARITY_THRESHOLD && Math.abs(pivot) >= DIAGONAL_PREFERENCE * max)) {
+                return false;
+            }
+            uValue[uStart[k + 1] - 1] = pivot;
+            for (int p = lStart[k] + 1; p < lStart[k + 1]; ++p) {
+                lValue[p] = x[lIndex[p]] / pivot;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves A * x = b with A previously factored by {@link #factor(double[])}
+     *
+     * @param b right side, is replaced with x
+     */
+    void solve(double[] b) {
+        for (int i = 0; i < n; ++i) {
+            x[pinv[i]] = b[i] * rowScale[i];
+        }
+        for (int j = 0; j < n; ++j) {
+            double xj = x[j];
+            for (int p = lStart[j] + 1; p < lStart[j + 1]; ++p) {
+                x[lIndex[p]] -= lValue[p] * xj;
+            }
+        }
+        for (int j = n - 1; j >= 0; --j) {
+            int diagonal = uStart[j + 1] - 1;
+            double xj = x[j] / uValue[diagonal];
+            x[j] = xj;
+            for (int p = uStart[j]; p < diagonal; ++p) {
+                x[uIndex[p]] -= uValue[p] * xj;
+            }
+        }
+        for (int k = 0; k < n; ++k) {
+            b[q[k]] = x[k] * columnScale[q[k]];
+        }
+    }
+
+    /**
+     * @return number of nonzeros of L and U, including diagonals
+     */
+    int getFactorNonZeroCount() {
+        return lStart[n] + uStart[n];
+    }
+}
@@ -1,190 +1,984 @@
 package ru.ifmo.modeling;
 
-import Jama.Matrix;
-
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
 public class SystemOfEquationsSolve {
     /**
-     * 'functions' are constructing a system of equations as {f_1, ..., f_n}
-     * And we solve the system:
+     * Fills residuals of system {f_1, ..., f_n} for specified values of variables.
+     */
+    @FunctionalInterface
+    public interface Residuals {
+        /**
+         * @param vars values of variables, must not be changed
+         * @param out  array of size n, out[i] is set to f_{i+1}(vars)
+         */
+        void apply(double[] vars, double[] out);
+    }
+
+    /**
+     * Fills matrix of partial derivatives of system {f_1, ..., f_n} for specified values of variables.
+     */
+    @FunctionalInterface
+    public interface Jacobian {
+        /**
+         * @param vars values of variables, must not be changed
+         * @param out  n x n matrix, out[i][j] is set to d(f_{i+1})/d(j+1) (vars)
+         */
+        void apply(double[] vars, double[][] out);
+    }
+
+    /**
+     * Fills both residuals and matrix of partial derivatives of system {f_1, ..., f_n}, in one pass.
+     */
+    @FunctionalInterface
+    public interface Linearization {
+        /**
+         * @param vars     values of variables, must not be changed
+         * @param values   array of size n, values[i] is set to f_{i+1}(vars)
+         * @param jacobian n x n matrix, jacobian[i][j] is set to d(f_{i+1})/d(j+1) (vars)
+         */
+        void apply(double[] vars, double[] values, double[][] jacobian);
+    }
+
+    /**
+     * Fills residuals of system {f_1, ..., f_n} and structural nonzeros of its Jacobian, in one pass.
+     */
+    @FunctionalInterface
+    public interface SparseLinearization {
+        /**
+         * @param vars    values of variables, must not be changed
+         * @param values  array of size n, values[i] is set to f_{i+1}(vars)
+         * @param entries entries of Jacobian in order of its {@link JacobianPattern}
+         */
+        void apply(double[] vars, double[] values, double[] entries);
+    }
+
+    /**
+     * Iterative method used to find solution
+     */
+    public enum Method {
+        /**
+         * Newton method: Jacobian is counted and factored on every iteration
+         */
+        NEWTON,
+        /**
+         * Broyden ("good") quasi-Newton method: Jacobian is counted only at start and when residual
+         * stops decreasing, between that its inverse is corrected by rank-1 (Sherman-Morrison) updates.
+         * Respects bounds only if {@link #boundedSteps(boolean)} is set. Far from solution updated inverse
+         * can send iterates many orders away, so method suits warm starts of continuation best.
+         */
+        BROYDEN,
+        /**
+         * Levenberg-Marquardt method: Newton step damped towards gradient descent until residual decreases,
+         * variables are kept within bounds set by {@link #bounds(double[], double[])}
+         */
+        LEVENBERG_MARQUARDT
+    }
+
+    /**
+     * Outcome of {@link #solve(double[], double, int, Method, double[])}
+     */
+    public enum Status {
+        /**
+         * Step became less than required precision
+         */
+        CONVERGED,
+        /**
+         * Maximal number of iterations was reached
+         */
+        MAX_ITERATIONS,
+        /**
+         * Jacobian became singular (Newton and Broyden methods)
+         */
+        SINGULAR,
+        /**
+         * Residuals or variables became infinite or NaN
+         */
+        DIVERGED,
+        /**
+         * No step within bounds decreases residual, while solution is not reached
+         */
+        STALLED
+    }
+
+    /**
+     * Criterion of convergence with precision e
+     */
+    public enum Convergence {
+        /**
+         * Euclidean norm of step is less than e
+         */
+        ABSOLUTE,
+        /**
+         * Every component of step is small relatively to its variable: |dx_i| <= e * max(|x_i|, typical_i),
+         * where typical magnitudes are set by {@link #typical(double[])} or taken from initial approximation
+         */
+        RELATIVE
+    }
+
+    /**
+     * Part of the way to bound which is made by Newton step that would cross it,
+     * see {@link #limitToBounds(double[], double[], double[], double[])}
+     */
+    private static final double BOUNDARY_FRACTION = 0.9;
+
+    /**
+     * Newton step which would cross bound is shortened as a whole at most by this factor, the rest is limited componentwise
+     */
+    private static final double MIN_DAMPING = 0.5;
+
+    /**
+     * Systems of this size and larger are solved by Newton method with sparse factorization, when pattern is known;
+     * for smaller ones dense factorization (with unrolled loops for sizes 5 and 6) is faster.
+     * On arrowhead Jacobians of chemical systems sparse factorization overtakes dense one at about 24 equations
+     * and is 8 times faster at 256, see LUBenchmark.
+     */
+    public static final int SPARSE_THRESHOLD = 24;
+
+    /**
+     * Number of equations (and variables) in the system
+     */
+    private final int size;
+    /**
+     * 'system' counts residuals of system of equations {f_1, ..., f_n}, which we solve:
      * f_1(...) = 0
      * ...
      * f_n(...) = 0
+     * and matrix of partial derivatives of them, as
+     * d(f_1)/d(1) d(f_1)/d(2) ... d(f_1)/d(n) -- jacobian[0]
+     * d(f_2)/d(1) d(f_2)/d(2) ... d(f_2)/d(n) -- jacobian[1]
+     * ...
+     * d(f_n)/d(1) d(f_n)/d(2) ... d(f_n)/d(n) -- jacobian[size - 1]
      */
-    private List<Function<List<Double>, Double>> functions;
+    private final Linearization system;
     /**
-     * 'derivatives' contains matrix of partial derivatives of 'functions', as
-     * d(f_1)/d(1) d(f_1)/d(2) ... d(f_1)/d(n) -- derivatives.get(0)
-     * d(f_2)/d(1) d(f_2)/d(2) ... d(f_2)/d(n) -- derivatives.get(1)
-     * ...
-     * d(f_n)/d(1) d(f_n)/d(2) ... d(f_n)/d(n) -- derivatives.get(size - 1)
+     * Counts residuals only; is used when Jacobian is not needed
+     */
+    private final Residuals functions;
+
+    // ----- workspace, allocated once and reused by all iterations and all calls of getSolution -----
+
+    private final double[][] jacobian;
+    private final double[] step;
+    private final double[] solutionPrev;
+    private final LUDecomposition lu;
+
+    // ----- sparse Jacobian, null if system did not declare its pattern -----
+
+    private final SparseLinearization sparse;
+    private final double[] entries;
+    /**
+     * Sparse factorization, which replaces dense one in Newton method for large enough systems
+     */
+    private final SparseLUDecomposition sparseLu;
+
+    // ----- workspace of Broyden method -----
+
+    /**
+     * Approximation of inverse Jacobian
+     */
+    private final double[][] inverse;
+    private final double[] values;
+    private final double[] valuesNew;
+    private final double[] temp;
+
+    // ----- workspace of Levenberg-Marquardt method -----
+
+    private final double[][] normal;
+    private final double[] gradient;
+    private final double[] rowScale;
+    private final double[] candidate;
+
+    /**
+     * Bounds of variables, null if not set
+     */
+    private double[] lower, upper;
+    private boolean boundedSteps;
+
+    // ----- scaling and convergence -----
+
+    private boolean scaling = true;
+    private Convergence convergence = Convergence.ABSOLUTE;
+    /**
+     * Typical magnitudes of variables, null if they are taken from initial approximation
+     */
+    private double[] typical;
+    private final double[] magnitude;
+    /**
+     * Factors of rows and columns of last factored matrix if it was equilibrated,
+     * see {@link #factorEquilibrated(double[][])}
      */
-    List<List<Function<List<Double>, Double>>> derivatives;
+    private final double[] rowFactor, columnFactor;
+    private boolean equilibrated;
 
+    /**
+     * Number of iterations made by last solve
+     */
+    private int iterations;
+
+    /**
+     * Name of system and value of its parameter, which are put to records of {@link SolverMetrics}
+     */
+    private String label;
+    private double parameter = Double.NaN;
+
+    /**
+     * @param size        number of equations (and variables) in the system
+     * @param functions   residuals of system
+     * @param derivatives matrix of partial derivatives of residuals
+     */
+    public SystemOfEquationsSolve(int size, Residuals functions, Jacobian derivatives) {
+        this(size, (vars, values, jacobian) -> {
+            functions.apply(vars, values);
+            derivatives.apply(vars, jacobian);
+        }, functions, null, null);
+    }
+
+    /**
+     * @param size   number of equations (and variables) in the system
+     * @param system residuals of system together with their partial derivatives,
+     *               for example got by {@link AutoDiff#linearize(int, AutoDiff.Residuals)}
+     */
+    public SystemOfEquationsSolve(int size, Linearization system) {
+        this(size, system, null, null, null);
+    }
+
+    /**
+     * Only structural nonzeros of Jacobian are counted. Newton method factors it by sparse LU (with ordering of
+     * variables found once, here) when system has at least {@link #SPARSE_THRESHOLD} equations;
+     * smaller systems and other methods work with it as with dense matrix.
+     *
+     * @param pattern positions of structural nonzeros of Jacobian
+     * @param system  residuals of system together with structural nonzeros of Jacobian
+     */
+    public SystemOfEquationsSolve(JacobianPattern pattern, SparseLinearization system) {
+        this(pattern.size(), null, null, pattern, system);
+    }
+
+    private SystemOfEquationsSolve(int size, Linearization system, Residuals functions,
+                                   JacobianPattern pattern, SparseLinearization sparse) {
+        this.size = size;
+        this.sparse = sparse;
+        double[] entries = pattern != null ? new double[pattern.getNonZeroCount()] : null;
+        this.entries = entries;
+        this.sparseLu = pattern != null && size >= SPARSE_THRESHOLD ? new SparseLUDecomposition(pattern) : null;
+        this.system = system != null ? system : (vars, values, jacobian) -> {
+            sparse.apply(vars, values, entries);
+            pattern.scatter(entries, jacobian);
+        };
+        this.jacobian = new double[size][size];
+        double[][] scratch = jacobian;
+        if (functions != null) {
+            this.functions = functions;
+        } else if (sparse != null) {
+            this.functions = (vars, values) -> sparse.apply(vars, values, entries);
+        } else {
+            this.functions = (vars, values) -> system.apply(vars, values, scratch);
+        }
+        this.step = new double[size];
+        this.solutionPrev = new double[size];
+        this.lu = LUDecomposition.forSize(size);
+        this.inverse = new double[size][size];
+        this.values = new double[size];
+        this.valuesNew = new double[size];
+        this.temp = new double[size];
+        this.normal = new double[size][size];
+        this.gradient = new double[size];
+        this.rowScale = new double[size];
+        this.candidate = new double[size];
+        this.magnitude = new double[size];
+        this.rowFactor = new double[size];
+        this.columnFactor = new double[size];
+    }
+
+    /**
+     * Adapter for systems which are set with boxed functions.
+     *
+     * @param functions   f_1, ..., f_n
+     * @param derivatives derivatives.get(i).get(j) = d(f_{i+1})/d(j+1)
+     */
     public SystemOfEquationsSolve(List<Function<List<Double>, Double>> functions,
                                   List<List<Function<List<Double>, Double>>> derivatives) {
-        this.functions = functions;
-        this.derivatives = derivatives;
+        this(functions.size(),
+                (vars, out) -> {
+                    List<Double> values = asList(vars);
+                    for (int i = 0; i < out.length; ++i) {
+                        out[i] = functions.get(i).apply(values);
+                    }
+                },
+                (vars, out) -> {
+                    List<Double> values = asList(vars);
+                    for (int i = 0; i < out.length; ++i) {
+                        List<Function<List<Double>, Double>> funcs = derivatives.get(i);
+                        for (int j = 0; j < funcs.size(); ++j) {
+                            out[i][j] = funcs.get(j).apply(values);
+                        }
+                    }
+                });
     }
 
-    private double[][] substituteInDerivatives(List<Double> values) {
-        double[][] res = new double[derivatives.size()][derivatives.size()];
-        for (int i = 0; i < derivatives.size(); ++i) {
-            List<Function<List<Double>, Double>> funcs = derivatives.get(i);
-            for (int j = 0; j < funcs.size(); ++j) {
-                res[i][j] = funcs.get(j).apply(values);
+    private static List<Double> asList(double[] values) {
+        return new AbstractList<Double>() {
+            @Override
+            public Double get(int index) {
+                return values[index];
             }
-        }
 
-        return res;
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
     }
 
-    private double[] substituteInFunctions(List<Double> values) {
-        double[] res = new double[functions.size()];
-        for (int i = 0; i < functions.size(); ++i) {
-            res[i] = functions.get(i).apply(values);
-        }
+    /**
+     * Sets bounds lower[i] <= x_i <= upper[i] of variables. {@link Method#LEVENBERG_MARQUARDT} projects
+     * iterates to bounds, {@link Method#NEWTON} and {@link Method#BROYDEN} respect them only if
+     * {@link #boundedSteps(boolean)} is set.
+     * Infinite values mean no bound.
+     *
+     * @param lower lower bounds, null means no lower bounds
+     * @param upper upper bounds, null means no upper bounds
+     * @return same object in new state
+     */
+    public SystemOfEquationsSolve bounds(double[] lower, double[] upper) {
+        this.lower = lower;
+        this.upper = upper;
+        return this;
+    }
+
+    /**
+     * Makes {@link Method#NEWTON} and {@link Method#BROYDEN} keep iterates inside bounds set by
+     * {@link #bounds(double[], double[])}, see {@link #limitToBounds(double[], double[], double[], double[])}. Is off by default: shortened steps cost
+     * cold starts of systems 1 and 2 about 45% more iterations, and they converge to physical roots without it.
+     * System 3 needs it, otherwise from some starts Newton method jumps to roots with negative x.
+     *
+     * @return same object in new state
+     */
+    public SystemOfEquationsSolve boundedSteps(boolean boundedSteps) {
+        this.boundedSteps = boundedSteps;
+        return this;
+    }
 
-        return res;
+    /**
+     * Sets name of system and value of its parameter, which identify solves of this system in {@link SolverMetrics}
+     *
+     * @return same object in new state
+     */
+    public SystemOfEquationsSolve label(String label, double parameter) {
+        this.label = label;
+        this.parameter = parameter;
+        return this;
     }
 
-    private double getDistanceBetweenSolutions(List<Double> first, List<Double> second) {
+    /**
+     * Turns automatic scaling on or off, it is on by default: when Jacobian turns out to be singular,
+     * its rows (equations) and columns (variables) are multiplied by powers of 2 which bring their magnitudes
+     * close to 1, and it is factored again. Steps do not change (up to rounding), but choice of pivots
+     * and threshold of singularity become relative to magnitudes of equations and variables, so badly scaled
+     * systems (for example with partial pressures of 1e-3 and 1e4 together) are not reported singular.
+     * Well scaled Jacobians are factored as without scaling. Sparse factorization always scales.
+     *
+     * @return same object in new state
+     */
+    public SystemOfEquationsSolve scaling(boolean scaling) {
+        this.scaling = scaling;
+        return this;
+    }
+
+    /**
+     * Sets criterion of convergence, {@link Convergence#ABSOLUTE} by default
+     *
+     * @return same object in new state
+     */
+    public SystemOfEquationsSolve convergence(Convergence convergence) {
+        this.convergence = convergence;
+        return this;
+    }
+
+    /**
+     * Sets typical magnitudes of variables for {@link Convergence#RELATIVE}: components of step are compared with
+     * them when variables themselves are smaller. By default they are absolute values of initial approximation,
+     * but not less than 1e-8 of the largest of them (so variables which start at zero do not need steps of
+     * round-off size to converge).
+     *
+     * @param typical positive magnitudes, null to take them from initial approximation
+     * @return same object in new state
+     */
+    public SystemOfEquationsSolve typical(double[] typical) {
+        this.typical = typical;
+        return this;
+    }
+
+    private double getDistanceBetweenSolutions(double[] first, double[] second) {
         double sum = 0.0;
-        for (int i = 0; i < first.size(); ++i) {
-            sum += Math.pow(first.get(i) - second.get(i), 2);
+        for (int i = 0; i < first.length; ++i) {
+            double d = first[i] - second[i];
+            sum += d * d;
         }
 
         return Math.sqrt(sum);
     }
 
-    private double[][] inverse(double A[][]) {
-        int n = A.length;
-        int row[] = new int[n];
-        int col[] = new int[n];
-        double temp[] = new double[n];
-        int hold, I_pivot, J_pivot;
-        double pivot, abs_pivot;
-
-        if (A[0].length != n) {
-            // inconsistent array sizes
-            return null;
-        }
-        for (int k = 0; k < n; k++) {
-            row[k] = k;
-            col[k] = k;
-        }
-        for (int k = 0; k < n; k++) {
-            pivot = A[row[k]][col[k]];
-            I_pivot = k;
-            J_pivot = k;
-            for (int i = k; i < n; i++) {
-                for (int j = k; j < n; j++) {
-                    abs_pivot = Math.abs(pivot);
-                    if (Math.abs(A[row[i]][col[j]]) > abs_pivot) {
-                        I_pivot = i;
-                        J_pivot = j;
-                        pivot = A[row[i]][col[j]];
-                    }
+    /**
+     * Newton method for solving a system of non-linear equations set with 'system'.
+     * Each step solves J * dx = f via LU factorization in preallocated workspace,
+     * so this method must not be called concurrently on the same instance.
+     *
+     * @param initial      initial approximation, is not changed
+     * @param e            precision: iterations stop when step becomes less than it, see {@link #convergence(Convergence)}
+     * @param maxIteration maximal number of iterations
+     * @return found solution
+     * @throws ArithmeticException if Jacobian becomes singular
+     */
+    public double[] getSolution(double[] initial, double e, int maxIteration) {
+        return getSolution(initial, e, maxIteration, Method.NEWTON);
+    }
+
+    /**
+     * Solves system of non-linear equations set with 'system' by specified method.
+     * Workspace is preallocated, so this method must not be called concurrently on the same instance.
+     *
+     * @param initial      initial approximation, is not changed
+     * @param e            precision: iterations stop when step becomes less than it, see {@link #convergence(Convergence)}
+     * @param maxIteration maximal number of iterations
+     * @param method       iterative method
+     * @return found solution, or last approximation if iterations did not converge
+     * @throws ArithmeticException if Jacobian becomes singular
+     */
+    public double[] getSolution(double[] initial, double e, int maxIteration, Method method) {
+        double[] solution = new double[size];
+        if (solve(initial, e, maxIteration, method, solution) == Status.SINGULAR) {
+            throw new ArithmeticException("Jacobian is singular");
+        }
+        return solution;
+    }
+
+    /**
+     * Same as {@link #getSolution(double[], double, int, Method)}, but reports failure by returned status
+     * instead of exception. Every call is recorded by {@link SolverMetrics}, if it is enabled.
+     *
+     * @param solution array of size n, is set to found solution (or last approximation on failure)
+     * @return how iterations ended
+     */
+    public Status solve(double[] initial, double e, int maxIteration, Method method, double[] solution) {
+        if (!SolverMetrics.isCollecting()) {
+            return run(initial, e, maxIteration, method, solution);
+        }
+        long start = System.nanoTime();
+        Status status = run(initial, e, maxIteration, method, solution);
+        long nanos = System.nanoTime() - start;
+        functions.apply(solution, values);
+        SolverMetrics.getInstance().record(label, parameter, method, status, iterations, norm(values), nanos);
+        return status;
+    }
+
+    private Status run(double[] initial, double e, int maxIteration, Method method, double[] solution) {
+        System.arraycopy(initial, 0, solution, 0, size);
+        iterations = 0;
+        if (convergence == Convergence.RELATIVE) {
+            setMagnitudes(initial);
+        }
+        switch (method) {
+            case BROYDEN:
+                return solveBroyden(solution, e, maxIteration);
+            case LEVENBERG_MARQUARDT:
+                return solveLevenbergMarquardt(solution, e, maxIteration);
+            default:
+                return solveNewton(solution, e, maxIteration);
+        }
+    }
+
+    /**
+     * @return number of iterations made by last solve
+     */
+    public int getIterationCount() {
+        return iterations;
+    }
+
+    private Status solveNewton(double[] solution, double e, int maxIteration) {
+        System.arraycopy(solution, 0, solutionPrev, 0, size);
+
+        for (int i = 0; i < maxIteration; ++i) {
+            iterations = i + 1;
+            if (sparseLu != null) {
+                sparse.apply(solution, step, entries);
+                if (!sparseLu.factor(entries)) {
+                    return Status.SINGULAR;
                 }
+                sparseLu.solve(step);
+            } else {
+                if (!linearize(solution, step)) {
+                    return Status.SINGULAR;
+                }
+                solveFactored(jacobian, step);
+            }
+            boolean limited = boundedSteps && limitToBounds(lower, upper, solution, step);
+            for (int j = 0; j < size; ++j) {
+                solution[j] -= step[j];
+            }
+            if (boundedSteps) {
+                project(solution);
+            }
+
+            double distance = getDistanceBetweenSolutions(solutionPrev, solution);
+            // shortened step is small because of bound, not because solution is reached
+            if (!limited && isSmall(distance, step, solution, e)) {
+                return Status.CONVERGED;
+            }
+            if (Double.isNaN(distance)) {
+                return Status.DIVERGED;
+            }
+
+            System.arraycopy(solution, 0, solutionPrev, 0, size);
+        }
+
+        return isFinite(solution) ? Status.MAX_ITERATIONS : Status.DIVERGED;
+    }
+
+    private Status solveBroyden(double[] solution, double e, int maxIteration) {
+        double[] f = values;
+        double[] fNew = valuesNew;
+
+        if (!invertJacobian(solution, f)) {
+            return Status.SINGULAR;
+        }
+        double norm = norm(f);
+
+        for (int i = 0; i < maxIteration; ++i) {
+            iterations = i + 1;
+            // step = H * f, solution -= step
+            multiply(inverse, f, step);
+            boolean limited = boundedSteps && limitToBounds(lower, upper, solution, step);
+            System.arraycopy(solution, 0, candidate, 0, size);
+            for (int j = 0; j < size; ++j) {
+                solution[j] -= step[j];
             }
-            if (Math.abs(pivot) < 1.0E-10) {
-                // matrix is singular
-                return null;
-            }
-            hold = row[k];
-            row[k] = row[I_pivot];
-            row[I_pivot] = hold;
-            hold = col[k];
-            col[k] = col[J_pivot];
-            col[J_pivot] = hold;
-
-            A[row[k]][col[k]] = 1.0 / pivot;
-            for (int j = 0; j < n; j++) {
-                if (j != k) {
-                    A[row[k]][col[j]] = A[row[k]][col[j]] * A[row[k]][col[k]];
+            if (boundedSteps) {
+                project(solution);
+                // update of inverse needs the step which was actually made
+                for (int j = 0; j < size; ++j) {
+                    step[j] = candidate[j] - solution[j];
                 }
             }
+            if (!limited && isSmall(norm(step), step, solution, e)) {
+                return Status.CONVERGED;
+            }
 
-            for (int i = 0; i < n; i++) {
-                if (k != i) {
-                    for (int j = 0; j < n; j++) {
-                        if (k != j) {
-                            A[row[i]][col[j]] = A[row[i]][col[j]] - A[row[i]][col[k]] *
-                                    A[row[k]][col[j]];
-                        }
-                    }
-                    A[row[i]][col[k]] = -A[row[i]][col[k]] * A[row[k]][col[k]];
+            functions.apply(solution, fNew);
+            double normNew = norm(fNew);
+            if (!(normNew < norm) || !updateInverse(f, fNew)) {
+                // progress stalled, start again from true Jacobian
+                if (!invertJacobian(solution, fNew)) {
+                    return Status.SINGULAR;
                 }
+                normNew = norm(fNew);
             }
+
+            double[] swap = f;
+            f = fNew;
+            fNew = swap;
+            norm = normNew;
         }
 
-        for (int j = 0; j < n; j++) {
-            for (int i = 0; i < n; i++) {
-                temp[col[i]] = A[row[i]][j];
+        return isFinite(solution) ? Status.MAX_ITERATIONS : Status.DIVERGED;
+    }
+
+    /**
+     * Minimizes |S * f(x)| within bounds, where S is diagonal scaling of equations chosen at every linearization
+     * (so that equations of different magnitude, like P^6 and P, have equal weight).
+     * Step is found from (A + lambda * diag(A)) * dx = g, where A = (SJ)^T * SJ, g = (SJ)^T * S * f,
+     * and projected onto bounds. Step which does not decrease residual is rejected, and lambda is increased;
+     * after accepted step lambda is decreased, so near solution method turns into Newton method.
+     * Every evaluation of residuals is counted as iteration.
+     */
+    private Status solveLevenbergMarquardt(double[] solution, double e, int maxIteration) {
+        project(solution);
+        system.apply(solution, values, jacobian);
+        double norm = buildNormalEquations();
+        if (!(norm < Double.POSITIVE_INFINITY)) {
+            return Status.DIVERGED;
+        }
+
+        double lambda = 1e-3;
+        for (int i = 0; i < maxIteration; ++i) {
+            iterations = i + 1;
+            if (norm == 0) {
+                return Status.CONVERGED;
             }
-            for (int i = 0; i < n; i++) {
-                A[i][j] = temp[i];
+
+            // step = (A + lambda * diag(A))^-1 * g
+            damp(lambda);
+            boolean factored = factor(jacobian);
+            if (!factored && scaling) {
+                // factorization has destroyed matrix
+                damp(lambda);
+                factored = factorEquilibrated(jacobian);
             }
-        }
+            if (!factored) {
+                lambda *= 10;
+                continue;
+            }
+            solveFactored(jacobian, step);
 
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                temp[row[j]] = A[i][col[j]];
+            for (int j = 0; j < size; ++j) {
+                candidate[j] = solution[j] - step[j];
+            }
+            project(candidate);
+            double stepNorm = getDistanceBetweenSolutions(candidate, solution);
+            for (int j = 0; j < size; ++j) {
+                temp[j] = solution[j] - candidate[j];
             }
-            for (int j = 0; j < n; j++) {
-                A[i][j] = temp[j];
+            boolean smallStep = isSmall(stepNorm, temp, candidate, e);
+
+            functions.apply(candidate, valuesNew);
+            double normNew = scaledNorm(valuesNew);
+            if (normNew < norm) {
+                System.arraycopy(candidate, 0, solution, 0, size);
+                lambda = Math.max(lambda / 10, 1e-12);
+                if (smallStep) {
+                    return Status.CONVERGED;
+                }
+                system.apply(solution, values, jacobian);
+                norm = buildNormalEquations();
+            } else {
+                if (smallStep) {
+                    // residual can not be decreased any more: either solution is reached up to round-off,
+                    // or iterations are stuck at the bound
+                    return isSmall(norm(step), step, solution, e) ? Status.CONVERGED : Status.STALLED;
+                }
+                lambda *= 10;
+                if (!(lambda < 1e20)) {
+                    return Status.STALLED;
+                }
             }
         }
 
-        return A;
+        return Status.MAX_ITERATIONS;
     }
 
     /**
-     * Newton method for solving a system of non-linear equations set with 'functions'
-     *
-     * @param initial
-     * @param e
-     * @param maxIteration
-     * @return
+     * Fills 'jacobian' with A + lambda * diag(A) and 'step' with g
      */
-    public List<Double> getSolution(List<Double> initial, double e, int maxIteration) {
-        List<Double> solutionPrev = new ArrayList<>(initial.size());
-        List<Double> solution = new ArrayList<>(initial.size());
-        for (int i = 0; i < initial.size(); ++i) {
-            solutionPrev.add(initial.get(i));
-            solution.add(initial.get(i));
+    private void damp(double lambda) {
+        for (int j = 0; j < size; ++j) {
+            System.arraycopy(normal[j], 0, jacobian[j], 0, size);
+            jacobian[j][j] += lambda * Math.max(normal[j][j], Double.MIN_NORMAL);
+            step[j] = gradient[j];
         }
+    }
 
-        for (int i = 0; i < maxIteration; ++i) {
-            Matrix x = (new Matrix(inverse(substituteInDerivatives(solution))))
-                       .times(new Matrix(substituteInFunctions(solution), solution.size()));
-            for (int j = 0; j < solution.size(); ++j) {
-                solution.set(j, solution.get(j) - x.get(j, 0));
+    /**
+     * Chooses scaling S of equations by current 'jacobian', so that each row has maximal element 1,
+     * then fills 'normal' with A = (SJ)^T * SJ and 'gradient' with g = (SJ)^T * S * f from 'jacobian' and 'values'.
+     *
+     * @return |S * f|
+     */
+    private double buildNormalEquations() {
+        for (int i = 0; i < size; ++i) {
+            double[] row = jacobian[i];
+            double max = 0;
+            for (int j = 0; j < size; ++j) {
+                max = Math.max(max, Math.abs(row[j]));
             }
-
-            if (getDistanceBetweenSolutions(solutionPrev, solution) < e) {
-                break;
+            double scale = max > 0 && max < Double.POSITIVE_INFINITY ? 1 / max : 1;
+            rowScale[i] = scale;
+            for (int j = 0; j < size; ++j) {
+                row[j] *= scale;
             }
+            temp[i] = values[i] * scale;
+        }
+        for (int j = 0; j < size; ++j) {
+            double sum = 0;
+            for (int k = 0; k < size; ++k) {
+                sum += jacobian[k][j] * temp[k];
+            }
+            gradient[j] = sum;
+            for (int l = j; l < size; ++l) {
+                sum = 0;
+                for (int k = 0; k < size; ++k) {
+                    sum += jacobian[k][j] * jacobian[k][l];
+                }
+                normal[j][l] = sum;
+                normal[l][j] = sum;
+            }
+        }
+        return scaledNorm(values);
+    }
 
-            Collections.copy(solutionPrev, solution);
+    private double scaledNorm(double[] f) {
+        double sum = 0;
+        for (int i = 0; i < size; ++i) {
+            double v = f[i] * rowScale[i];
+            sum += v * v;
         }
+        return Double.isNaN(sum) ? Double.POSITIVE_INFINITY : Math.sqrt(sum);
+    }
 
+    /**
+     * Counts residuals and Jacobian at x and factors Jacobian. If it turns out to be singular and scaling is on,
+     * it is counted again and factored after equilibration, so well scaled Jacobians cost nothing more.
+     *
+     * @param values is set to residuals
+     * @return false if Jacobian is singular
+     */
+    private boolean linearize(double[] x, double[] values) {
+        system.apply(x, values, jacobian);
+        if (factor(jacobian)) {
+            return true;
+        }
+        if (!scaling) {
+            return false;
+        }
+        // factorization has destroyed Jacobian
+        system.apply(x, values, jacobian);
+        return factorEquilibrated(jacobian);
+    }
 
-        return solution;
+    /**
+     * Factors matrix by LU decomposition
+     *
+     * @param a square matrix, is replaced with factorization
+     * @return false if matrix is singular
+     */
+    private boolean factor(double[][] a) {
+        equilibrated = false;
+        return lu.factor(a);
     }
-}
 
+    /**
+     * Equilibrates matrix and factors it: A' = R * A * C, where R and C are diagonal matrices of powers of 2
+     * ('rowFactor' and 'columnFactor'), see {@link LUDecomposition#equilibrate(double[][], double[], double[])}
+     *
+     * @param a square matrix, is replaced with factorization of A'
+     * @return false if matrix is singular even after equilibration
+     */
+    private boolean factorEquilibrated(double[][] a) {
+        LUDecomposition.equilibrate(a, rowFactor, columnFactor);
+        equilibrated = true;
+        return lu.factor(a);
+    }
 
+    /**
+     * Solves A * x = b with A factored by {@link #factor(double[][])} or {@link #factorEquilibrated(double[][])}:
+     * in latter case A' * y = R * b, x = C * y
+     *
+     * @param b right side, is replaced with x
+     */
+    private void solveFactored(double[][] a, double[] b) {
+        if (!equilibrated) {
+            lu.solve(a, b);
+            return;
+        }
+        for (int i = 0; i < size; ++i) {
+            b[i] *= rowFactor[i];
+        }
+        lu.solve(a, b);
+        for (int j = 0; j < size; ++j) {
+            b[j] *= columnFactor[j];
+        }
+    }
 
+    private void setMagnitudes(double[] initial) {
+        if (typical != null) {
+            System.arraycopy(typical, 0, magnitude, 0, size);
+            return;
+        }
+        double max = 0;
+        for (double v : initial) {
+            max = Math.max(max, Math.abs(v));
+        }
+        double floor = max > 0 && max < Double.POSITIVE_INFINITY ? max * 1e-8 : 1;
+        for (int i = 0; i < size; ++i) {
+            magnitude[i] = Math.max(Math.abs(initial[i]), floor);
+        }
+    }
 
+    /**
+     * @param norm Euclidean norm of step
+     * @param step step which led to x
+     * @param x    new approximation
+     * @return whether step is less than e by current criterion of convergence
+     */
+    private boolean isSmall(double norm, double[] step, double[] x, double e) {
+        if (convergence == Convergence.ABSOLUTE) {
+            return norm < e;
+        }
+        for (int i = 0; i < size; ++i) {
+            if (!(Math.abs(step[i]) <= e * Math.max(Math.abs(x[i]), magnitude[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    /**
+     * Limits Newton step x -= step so that iterate stays inside bounds: step which would cross a bound is shortened
+     * as a whole to make part {@link #BOUNDARY_FRACTION} of the way to it, but not shorter than {@link #MIN_DAMPING};
+     * variables which would still cross their bounds move only part {@link #BOUNDARY_FRACTION} of the way to them.
+     * Otherwise Newton method can jump to roots which have no physical sense (negative pressures,
+     * fractions outside [0; 1]). Shortening of whole step keeps its direction, and componentwise limit lets
+     * pressures which tend to zero decrease by an order every iteration.
+     *
+     * @param lower lower bounds, null means no lower bounds
+     * @param upper upper bounds, null means no upper bounds
+     * @param step  step, is limited in place
+     * @return whether step was limited
+     */
+    static boolean limitToBounds(double[] lower, double[] upper, double[] x, double[] step) {
+        double damping = 1;
+        for (int i = 0; i < step.length; ++i) {
+            if (lower != null && step[i] > 0 && x[i] > lower[i] && x[i] - step[i] < lower[i]) {
+                damping = Math.min(damping, BOUNDARY_FRACTION * (x[i] - lower[i]) / step[i]);
+            }
+            if (upper != null && step[i] < 0 && x[i] < upper[i] && x[i] - step[i] > upper[i]) {
+                damping = Math.min(damping, BOUNDARY_FRACTION * (x[i] - upper[i]) / step[i]);
+            }
+        }
+        boolean limited = damping < 1;
+        damping = Math.max(damping, MIN_DAMPING);
+        for (int i = 0; i < step.length; ++i) {
+            step[i] *= damping;
+            // variable which is on its bound already is not moved outside
+            if (lower != null && step[i] > 0 && x[i] >= lower[i] && x[i] - step[i] < lower[i]) {
+                step[i] = BOUNDARY_FRACTION * (x[i] - lower[i]);
+                limited = true;
+            }
+            if (upper != null && step[i] < 0 && x[i] <= upper[i] && x[i] - step[i] > upper[i]) {
+                step[i] = -BOUNDARY_FRACTION * (upper[i] - x[i]);
+                limited = true;
+            }
+        }
+        return limited;
+    }
 
+    /**
+     * Moves point inside bounds
+     */
+    private void project(double[] x) {
+        for (int i = 0; i < size; ++i) {
+            if (lower != null && x[i] < lower[i]) {
+                x[i] = lower[i];
+            }
+            if (upper != null && x[i] > upper[i]) {
+                x[i] = upper[i];
+            }
+        }
+    }
 
+    private static boolean isFinite(double[] x) {
+        for (double v : x) {
+            if (Double.isNaN(v) || Double.isInfinite(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    /**
+     * Counts residuals and Jacobian at x and replaces 'inverse' with inverse of Jacobian
+     *
+     * @param values is set to residuals
+     * @return false if Jacobian is singular
+     */
+    private boolean invertJacobian(double[] x, double[] values) {
+        if (!linearize(x, values)) {
+            return false;
+        }
+        for (int j = 0; j < size; ++j) {
+            for (int k = 0; k < size; ++k) {
+                temp[k] = k == j ? 1 : 0;
+            }
+            solveFactored(jacobian, temp);
+            for (int k = 0; k < size; ++k) {
+                inverse[k][j] = temp[k];
+            }
+        }
+        return true;
+    }
 
+    /**
+     * Broyden update of inverse Jacobian after step s = -step, when residual changed from f to fNew:
+     * H += (s - H * y) * (s^T * H) / (s^T * H * y), where y = fNew - f.
+     *
+     * @return false if update is degenerate
+     */
+    private boolean updateInverse(double[] f, double[] fNew) {
+        // temp = H * y
+        for (int k = 0; k < size; ++k) {
+            double sum = 0;
+            double[] row = inverse[k];
+            for (int j = 0; j < size; ++j) {
+                sum += row[j] * (fNew[j] - f[j]);
+            }
+            temp[k] = sum;
+        }
+        // s = -step; denominator = s^T * H * y
+        double denominator = 0;
+        for (int k = 0; k < size; ++k) {
+            denominator -= step[k] * temp[k];
+        }
+        if (!(Math.abs(denominator) > 1e-300)) {
+            return false;
+        }
+        // temp = (s - H * y) / denominator
+        for (int k = 0; k < size; ++k) {
+            temp[k] = (-step[k] - temp[k]) / denominator;
+        }
+        // step = s^T * H (as row), s = -step
+        for (int j = 0; j < size; ++j) {
+            double sum = 0;
+            for (int k = 0; k < size; ++k) {
+                sum -= step[k] * inverse[k][j];
+            }
+            solutionPrev[j] = sum;
+        }
+        for (int k = 0; k < size; ++k) {
+            double[] row = inverse[k];
+            double c = temp[k];
+            for (int j = 0; j < size; ++j) {
+                row[j] += c * solutionPrev[j];
+            }
+        }
+        return true;
+    }
 
+    private static void multiply(double[][] a, double[] x, double[] out) {
+        for (int i = 0; i < out.length; ++i) {
+            double sum = 0;
+            double[] row = a[i];
+            for (int j = 0; j < x.length; ++j) {
+                sum += row[j] * x[j];
+            }
+            out[i] = sum;
+        }
+    }
+
+    private static double norm(double[] x) {
+        double sum = 0;
+        for (double v : x) {
+            sum += v * v;
+        }
+        return Math.sqrt(sum);
+    }
 
+    /**
+     * Same as {@link #getSolution(double[], double, int)}, for boxed values.
+     */
+    public List<Double> getSolution(List<Double> initial, double e, int maxIteration) {
+        double[] start = new double[initial.size()];
+        for (int i = 0; i < start.length; ++i) {
+            start[i] = initial.get(i);
+        }
+
+        double[] solution = getSolution(start, e, maxIteration);
+        List<Double> result = new ArrayList<>(solution.length);
+        for (double value : solution) {
+            result.add(value);
+        }
+        return result;
+    }
+}
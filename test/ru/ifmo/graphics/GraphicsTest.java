@@ -0,0 +1,23 @@
+package ru.ifmo.graphics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.fail;
+
+public class GraphicsTest {
+
+    @Test
+    public void saveRejectsNamesWithoutExtensionOrName() throws IOException {
+        Graphics graphics = new Graphics("x", "y");
+        for (String filename : new String[]{"svg", ".svg", "chart", "chart.txt", "chart."}) {
+            try {
+                graphics.save(filename);
+                fail(filename);
+            } catch (IllegalArgumentException e) {
+                // nothing is written
+            }
+        }
+    }
+}
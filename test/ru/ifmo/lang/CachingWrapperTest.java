@@ -0,0 +1,183 @@
+package ru.ifmo.lang;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingWrapperTest {
+
+    @Test
+    public void concurrentCallsComputeOnce() throws Exception {
+        int threads = 8, calls = 1000;
+        AtomicInteger computed = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CachingWrapper<Integer, Integer> cached = new CachingWrapper<>(x -> {
+            computed.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return x * x;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                results.add(executor.submit(() -> {
+                    int sum = 0;
+                    for (int i = 0; i < calls; ++i) {
+                        sum += cached.apply(i % 2 + 3);
+                    }
+                    return sum;
+                }));
+            }
+            // all threads wait for the first two results
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(calls / 2 * (9 + 16), (int) result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, computed.get());
+        assertEquals(2, cached.getMissCount());
+        assertEquals(threads * calls - 2, cached.getHitCount());
+    }
+
+    @Test
+    public void lruEvictsDownToBound() {
+        AtomicInteger computed = new AtomicInteger();
+        CachingWrapper<Integer, Integer> cached = new CachingWrapper<Integer, Integer>(x -> {
+            computed.incrementAndGet();
+            return -x;
+        }).bound(10, CachingWrapper.Eviction.LRU);
+        for (int x = 0; x < 10; ++x) {
+            cached.apply(x);
+        }
+        assertEquals(10, cached.size());
+        // 0 becomes the most recently used one
+        cached.apply(0);
+        cached.apply(10);
+        // evicted down to 0.9 of bound: 1 and 2 are the least recently used
+        assertEquals(9, cached.size());
+        assertEquals(2, cached.getEvictionCount());
+        computed.set(0);
+        for (int x : new int[]{0, 3, 9, 10}) {
+            assertEquals(-x, (int) cached.apply(x));
+        }
+        assertEquals(0, computed.get());
+        cached.apply(1);
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    public void lfuKeepsFrequentlyUsedOnesUnderConcurrentHits() throws Exception {
+        CachingWrapper<Integer, Integer> cached = new CachingWrapper<Integer, Integer>(x -> -x)
+                .bound(100, CachingWrapper.Eviction.LFU);
+        for (int x = 0; x < 100; ++x) {
+            cached.apply(x);
+        }
+        // hot entries are hit from several threads at once
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; ++i) {
+                    cached.apply(i % 10);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // newer, but rarely used entries are evicted first
+        for (int x = 100; x < 150; ++x) {
+            cached.apply(x);
+            assertTrue(cached.size() <= 100);
+        }
+        long misses = cached.getMissCount();
+        for (int x = 0; x < 10; ++x) {
+            cached.apply(x);
+        }
+        assertEquals(misses, cached.getMissCount());
+    }
+
+    @Test
+    public void weightsAreBounded() {
+        CachingWrapper<Integer, int[]> cached = new CachingWrapper<Integer, int[]>(x -> new int[x < 10 ? 10 : 5])
+                .weigher(values -> values.length).bound(100, CachingWrapper.Eviction.LRU);
+        for (int x = 0; x < 10; ++x) {
+            cached.apply(x);
+        }
+        assertEquals(0, cached.getEvictionCount());
+        // weight 105 goes down to 85, not below 90 of bound
+        cached.apply(10);
+        assertEquals(2, cached.getEvictionCount());
+        assertEquals(9, cached.size());
+        long misses = cached.getMissCount();
+        cached.apply(10);
+        cached.apply(2);
+        assertEquals(misses, cached.getMissCount());
+        cached.apply(0);
+        assertEquals(misses + 1, cached.getMissCount());
+    }
+
+    @Test
+    public void quantizedArgumentsShareResult() {
+        List<Double> arguments = new ArrayList<>();
+        Function<Double, Double> cached = new CachingWrapper<Double, Double>(x -> {
+            arguments.add(x);
+            return 2 * x;
+        }).quantize(1e-6);
+        double grid = 922;
+        for (int i = 0; i < 10; ++i) {
+            grid += 0.1;
+        }
+        // accumulated by steps
+        assertNotEquals(923, grid, 0);
+        assertEquals(923, grid, 1e-9);
+        assertEquals(2 * grid, cached.apply(grid), 0);
+        assertEquals(2 * grid, cached.apply(923.), 0);
+        assertEquals(2 * 923.1, cached.apply(923.1), 0);
+        assertEquals(Arrays.asList(grid, 923.1), arguments);
+    }
+
+    @Test
+    public void recursiveCallWithSameArgumentFails() {
+        AtomicReference<Function<Integer, Integer>> self = new AtomicReference<>();
+        CachingWrapper<Integer, Integer> cached = new CachingWrapper<>(x -> x <= 1 ? 1 : x * self.get().apply(x % 3 == 0 ? x : x - 1));
+        self.set(cached);
+        assertEquals(2, (int) cached.apply(2));
+        try {
+            cached.apply(3);
+            fail();
+        } catch (IllegalStateException e) {
+            // result for 3 depends on itself
+        }
+        // failed computation is not stored
+        assertEquals(1, (int) cached.apply(1));
+        try {
+            cached.apply(3);
+            fail();
+        } catch (IllegalStateException e) {
+            // and is repeated
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.ifmo.lang;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContinuationTest {
+    private static final List<Double> INITIAL = Collections.singletonList(1.0);
+
+    /**
+     * Newton method for y^3 + y = x, which counts its iterations and remembers start approximations
+     */
+    private static class CountingSolver implements Continuation.Solver {
+        private final AtomicInteger iterations = new AtomicInteger();
+        private final List<Double> starts = new ArrayList<>();
+
+        @Override
+        public double[] solve(double x, double[] start) {
+            starts.add(start[0]);
+            double y = start[0];
+            for (int i = 0; i < 100; ++i) {
+                double f = y * y * y + y - x;
+                if (Math.abs(f) < 1e-12 * x) {
+                    return new double[]{y};
+                }
+                iterations.incrementAndGet();
+                y -= f / (3 * y * y + 1);
+            }
+            return new double[]{Double.NaN};
+        }
+    }
+
+    /**
+     * @return number of iterations made on grid 1..200
+     */
+    private static int sweep(Continuation.Mode mode, boolean cold) {
+        CountingSolver solver = new CountingSolver();
+        Continuation continuation = new Continuation(solver, INITIAL, mode, 1, 1);
+        for (int x = 1; x <= 200; ++x) {
+            if (cold) {
+                continuation.startSweep();
+            }
+            double y = continuation.apply((double) x).get(0);
+            assertEquals(x, y * y * y + y, 1e-9 * x);
+        }
+        return solver.iterations.get();
+    }
+
+    @Test
+    public void continuationReducesIterations() {
+        int cold = sweep(Continuation.Mode.PREVIOUS, true);
+        int previous = sweep(Continuation.Mode.PREVIOUS, false);
+        int secant = sweep(Continuation.Mode.SECANT, false);
+        assertEquals(cold, sweep(Continuation.Mode.SECANT, true));
+        assertTrue(previous + " of " + cold, 2 * previous < cold);
+        assertTrue(secant + " of " + previous, secant < previous);
+    }
+
+    @Test
+    public void failedWarmStartFallsBackToInitial() {
+        CountingSolver counting = new CountingSolver();
+        List<Double> starts = new ArrayList<>();
+        // fails from any start but initial one: gives NaN at even points and throws at odd ones
+        Continuation continuation = new Continuation((x, start) -> {
+            starts.add(start[0]);
+            if (start[0] != 1) {
+                if (x % 2 == 0) {
+                    return new double[]{Double.NaN};
+                }
+                throw new ArithmeticException();
+            }
+            return counting.solve(x, start);
+        }, INITIAL, Continuation.Mode.SECANT, 1, 1);
+        for (int x = 1; x <= 4; ++x) {
+            double y = continuation.apply((double) x).get(0);
+            assertEquals(x, y * y * y + y, 1e-9 * x);
+        }
+        // warm start is tried at every point but the first one, and then initial one is used
+        assertEquals(7, starts.size());
+        assertArrayEquals(new double[]{1, 1, 1, 1}, new double[]{starts.get(0), starts.get(2), starts.get(4), starts.get(6)}, 0);
+        assertEquals(0.6823278, starts.get(1), 1e-6);
+    }
+
+    @Test
+    public void newSweepStartsFromInitial() {
+        CountingSolver solver = new CountingSolver();
+        Continuation continuation = new Continuation(solver, INITIAL, Continuation.Mode.PREVIOUS, 1, 1);
+        continuation.apply(10.);
+        continuation.apply(11.);
+        continuation.startSweep();
+        // neighbour of the last point, but of previous sweep; and then neighbours in the new sweep
+        continuation.apply(12.);
+        continuation.apply(12.5);
+        continuation.apply(13.);
+        assertEquals(5, solver.starts.size());
+        assertEquals(1, solver.starts.get(0), 0);
+        assertTrue(solver.starts.get(1) != 1);
+        assertEquals(1, solver.starts.get(2), 0);
+        assertTrue(solver.starts.get(3) != 1);
+        assertTrue(solver.starts.get(4) != 1);
+    }
+
+    @Test
+    public void experimentsOfSeriesStartNewSweeps() {
+        CountingSolver solver = new CountingSolver();
+        Experiment.ExperimentSeries series = new Experiment.ExperimentSeries(1, 3, 1);
+        Continuation continuation = series.continuation(solver, INITIAL, Continuation.Mode.PREVIOUS);
+        Experiment first = series.create(x -> continuation.apply(x).get(0));
+        // second one goes backwards from the neighbour of the last point of the first one
+        Experiment second = series.create(x -> continuation.apply(5 - x).get(0));
+        first.get();
+        second.forEach((x, y) -> {
+        });
+        assertEquals(6, solver.starts.size());
+        assertEquals(1, solver.starts.get(0), 0);
+        assertEquals(1, solver.starts.get(3), 0);
+        assertTrue(solver.starts.get(4) != 1);
+
+        // already computed experiment does not restart sweep
+        first.get();
+        continuation.apply(1.);
+        assertEquals(7, solver.starts.size());
+        assertTrue(solver.starts.get(6) != 1);
+    }
+}
@@ -0,0 +1,75 @@
+package ru.ifmo.lang;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DoubleSeriesTest {
+
+    /**
+     * Noisy sine on [0; 10) with narrow peak and dip which should survive downsampling
+     */
+    private static DoubleSeries noisySine(int n, int peak, int dip) {
+        Random random = new Random(1);
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; ++i) {
+            xs[i] = 10.0 * i / n;
+            ys[i] = Math.sin(xs[i]) + 0.01 * random.nextGaussian();
+        }
+        ys[peak] = 100;
+        ys[dip] = -100;
+        return new DoubleSeries(xs, ys);
+    }
+
+    @Test
+    public void downsampleKeepsEndsAndExtremes() {
+        int n = 10000, peak = 3217, dip = 7771;
+        DoubleSeries series = noisySine(n, peak, dip);
+        for (int maxPoints : new int[]{3, 10, 100, 1000, 9999}) {
+            DoubleSeries downsampled = series.downsample(maxPoints);
+            assertEquals(maxPoints, downsampled.size());
+            assertEquals(series.getX(0), downsampled.getX(0), 0);
+            assertEquals(series.getY(0), downsampled.getY(0), 0);
+            assertEquals(series.getX(n - 1), downsampled.getX(maxPoints - 1), 0);
+            assertEquals(series.getY(n - 1), downsampled.getY(maxPoints - 1), 0);
+
+            // points are taken from series in order
+            for (int i = 0; i < maxPoints; ++i) {
+                int index = Arrays.binarySearch(series.getXs(), downsampled.getX(i));
+                assertTrue(index >= 0);
+                assertEquals(series.getY(index), downsampled.getY(i), 0);
+                if (i > 0) {
+                    assertTrue(downsampled.getX(i - 1) < downsampled.getX(i));
+                }
+            }
+            if (maxPoints >= 10) {
+                double[] ys = downsampled.getYs();
+                assertTrue(Arrays.stream(ys).anyMatch(y -> y == 100));
+                assertTrue(Arrays.stream(ys).anyMatch(y -> y == -100));
+            }
+        }
+    }
+
+    @Test
+    public void downsampleDropsMissingAndKeepsShortSeries() {
+        DoubleSeries series = new DoubleSeries(new double[]{0, 1, 2, 3, 4, 5}, new double[]{0, Double.NaN, 2, 3, Double.NaN, 5});
+        DoubleSeries present = series.downsample(4);
+        assertArrayEquals(new double[]{0, 2, 3, 5}, present.getXs(), 0);
+        assertArrayEquals(new double[]{0, 2, 3, 5}, present.getYs(), 0);
+        assertEquals(3, series.downsample(3).size());
+        assertSame(present, present.downsample(10));
+        try {
+            series.downsample(2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // ends and at least one point between them are kept
+        }
+    }
+}
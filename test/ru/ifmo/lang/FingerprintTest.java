@@ -0,0 +1,73 @@
+package ru.ifmo.lang;
+
+import org.junit.Test;
+import ru.ifmo.modeling.Coefficients;
+import ru.ifmo.modeling.EquationSystems;
+import ru.ifmo.modeling.SystemOfEquationsSolve;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class FingerprintTest {
+    private static final List<Double> INITIAL1 = Arrays.asList(50., 50., 50., 50., 500.);
+    private static final List<Double> INITIAL3 = Arrays.asList(10., 10., 10., 10., 1000., 0.5);
+
+    private static long tag(Continuation.Solver solver, List<Double> initial, Continuation.Mode mode, double a, double step) {
+        return new Fingerprint().add(new Continuation(solver, initial, mode, a, step)).get();
+    }
+
+    @Test
+    public void sameDefinitionsGiveSameTags() {
+        Coefficients.Tabulation tabulation = new Coefficients.Tabulation(623, 923, 3001);
+        assertEquals(tag(EquationSystems.createEquationSolver1(tabulation, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON),
+                INITIAL1, Continuation.Mode.SECANT, 623, 10),
+                tag(EquationSystems.createEquationSolver1(new Coefficients.Tabulation(623, 923, 3001), 1e-5, 10000,
+                        SystemOfEquationsSolve.Method.NEWTON), INITIAL1, Continuation.Mode.SECANT, 623, 10));
+        assertEquals(tag(EquationSystems.createEquationSolver3(0.1, 1e-5, 10000), INITIAL3, Continuation.Mode.SECANT, 0, 0.025),
+                tag(EquationSystems.createEquationSolver3(0.1, 1e-5, 10000), INITIAL3, Continuation.Mode.SECANT, 0, 0.025));
+    }
+
+    @Test
+    public void everySettingChangesTag() {
+        Set<Long> tags = new HashSet<>();
+        SystemOfEquationsSolve.Method newton = SystemOfEquationsSolve.Method.NEWTON;
+        Continuation.Mode secant = Continuation.Mode.SECANT;
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 10000), INITIAL1, secant, 623, 10));
+        // tabulation
+        tags.add(tag(EquationSystems.createEquationSolver1(new Coefficients.Tabulation(623, 923, 3001), 1e-5, 10000, newton),
+                INITIAL1, secant, 623, 10));
+        tags.add(tag(EquationSystems.createEquationSolver1(new Coefficients.Tabulation(623, 923, 301), 1e-5, 10000, newton),
+                INITIAL1, secant, 623, 10));
+        // system
+        tags.add(tag(EquationSystems.createEquationSolver2(1e-5, 10000), INITIAL1, secant, 623, 10));
+        // method, precision, limit of iterations
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 10000, SystemOfEquationsSolve.Method.BROYDEN), INITIAL1, secant, 623, 10));
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-6, 10000), INITIAL1, secant, 623, 10));
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 1000), INITIAL1, secant, 623, 10));
+        // continuation: start, mode, grid
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 10000), Arrays.asList(50., 50., 50., 50., 501.), secant, 623, 10));
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 10000), INITIAL1, Continuation.Mode.PREVIOUS, 623, 10));
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 10000), INITIAL1, secant, 624, 10));
+        tags.add(tag(EquationSystems.createEquationSolver1(1e-5, 10000), INITIAL1, secant, 623, 1));
+        // constants hidden in counters: portion of H2 sets P^g of H2
+        tags.add(tag(EquationSystems.createEquationSolver3(0, 1e-5, 10000), INITIAL3, secant, 0, 0.025));
+        tags.add(tag(EquationSystems.createEquationSolver3(0.1, 1e-5, 10000), INITIAL3, secant, 0, 0.025));
+        assertEquals(13, tags.size());
+    }
+
+    @Test
+    public void codeChangesTag() {
+        assertNotEquals(new Fingerprint().addCode(Continuation.class).get(), new Fingerprint().addCode(Fingerprint.class).get());
+        assertEquals(new Fingerprint().addCode(Continuation.class).get(), new Fingerprint().addCode(Continuation.class).get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void solverWithoutFingerprintIsRejected() {
+        tag((x, start) -> start, INITIAL1, Continuation.Mode.SECANT, 0, 1);
+    }
+}
@@ -0,0 +1,184 @@
+package ru.ifmo.lang;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class PersistentCacheTest {
+    private Path dir, file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("cache");
+        file = dir.resolve("results.cache");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        Files.deleteIfExists(file);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void keepsResultsBetweenOpenings() throws IOException {
+        try (PersistentCache cache = new PersistentCache(file, 3, 64)) {
+            cache.save(7, 1, new double[]{1, 2, 3});
+        }
+        try (PersistentCache cache = new PersistentCache(file, 3, 64)) {
+            assertArrayEquals(new double[]{1, 2, 3}, cache.load(7, 1), 0);
+            assertNull(cache.load(7, 2));
+        }
+    }
+
+    @Test
+    public void reopensWithDifferentCapacity() throws IOException {
+        try (PersistentCache cache = new PersistentCache(file, 2, 64)) {
+            for (int key = 0; key < 40; ++key) {
+                cache.save(1, key, new double[]{key, -key});
+            }
+        }
+        // capacity of existing file is kept whatever is requested
+        for (int capacity : new int[]{8, 1 << 12}) {
+            try (PersistentCache cache = new PersistentCache(file, 2, capacity)) {
+                for (int key = 0; key < 40; ++key) {
+                    assertArrayEquals(new double[]{key, -key}, cache.load(1, key), 0);
+                }
+                assertNull(cache.load(1, 1000 + capacity));
+                cache.save(1, 1000 + capacity, new double[]{capacity});
+                assertArrayEquals(new double[]{capacity}, cache.load(1, 1000 + capacity), 0);
+            }
+        }
+    }
+
+    @Test
+    public void storeKeepsListsByQuantizedArguments() throws IOException {
+        try (PersistentCache cache = new PersistentCache(file, 3, 64)) {
+            CachingWrapper.Store<Double, List<Double>> store = cache.store(5, 1e-3);
+            store.save(0.5, Arrays.asList(1., 2.));
+            store.save(0.25, Arrays.asList(3., 4., 5.));
+            // too many values to keep
+            store.save(0.75, Arrays.asList(1., 2., 3., 4.));
+        }
+        try (PersistentCache cache = new PersistentCache(file, 3, 64)) {
+            CachingWrapper.Store<Double, List<Double>> store = cache.store(5, 1e-3);
+            assertEquals(Arrays.asList(1., 2.), store.load(0.5));
+            assertEquals(Arrays.asList(1., 2.), store.load(0.5 + 1e-4));
+            assertEquals(Arrays.asList(3., 4., 5.), store.load(0.25));
+            assertNull(store.load(0.75));
+            assertNull(store.load(0.501));
+            // other functions don't see these results
+            assertNull(cache.store(6, 1e-3).load(0.5));
+            assertNull(cache.store(5, 0).load(0.5));
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void probesPastCollisions() throws IOException {
+        try (PersistentCache cache = new PersistentCache(file, 1, 16)) {
+            // keys which are probed from the same slot
+            long[] keys = new long[4];
+            int found = 1;
+            for (long key = 1; found < keys.length; ++key) {
+                if (cache.slot(1, key) == cache.slot(1, keys[0])) {
+                    keys[found++] = key;
+                }
+            }
+            for (int i = 0; i < 3; ++i) {
+                cache.save(1, keys[i], new double[]{i});
+                // second saving of the same key is ignored
+                cache.save(1, keys[i], new double[]{-1});
+            }
+            for (int i = 0; i < 3; ++i) {
+                assertArrayEquals(new double[]{i}, cache.load(1, keys[i]), 0);
+            }
+            assertNull(cache.load(1, keys[3]));
+            assertEquals(3, cache.size());
+        }
+    }
+
+    @Test
+    public void refusesToFillMoreThanThreeQuarters() throws IOException {
+        try (PersistentCache cache = new PersistentCache(file, 1, 16)) {
+            for (int key = 0; key < 16; ++key) {
+                cache.save(2, key, new double[]{key});
+            }
+            assertEquals(12, cache.size());
+            for (int key = 0; key < 16; ++key) {
+                if (key < 12) {
+                    assertArrayEquals(new double[]{key}, cache.load(2, key), 0);
+                } else {
+                    assertNull(cache.load(2, key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ignoresSavesAfterClose() throws IOException {
+        PersistentCache cache = new PersistentCache(file, 1, 16);
+        cache.save(3, 1, new double[]{1});
+        cache.close();
+        cache.close();
+        cache.save(3, 2, new double[]{2});
+        try (PersistentCache reopened = new PersistentCache(file, 1, 16)) {
+            assertArrayEquals(new double[]{1}, reopened.load(3, 1), 0);
+            assertNull(reopened.load(3, 2));
+        }
+    }
+
+    @Test
+    public void readerSeesOnlyCompleteRecords() throws Exception {
+        int width = 64, count = 3000;
+        try (PersistentCache writer = new PersistentCache(file, width, 4096);
+             PersistentCache reader = new PersistentCache(file, width, 4096)) {
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<String> failure = new AtomicReference<>();
+            Thread readerThread = new Thread(() -> {
+                Random random = new Random(1);
+                int seen = 0;
+                while (!done.get() || seen == 0) {
+                    int key = random.nextInt(count);
+                    double[] values = reader.load(4, key);
+                    if (values != null) {
+                        ++seen;
+                        if (!Arrays.equals(values, expected(key, width))) {
+                            failure.set("Record " + key + " is torn: " + Arrays.toString(values));
+                            return;
+                        }
+                    }
+                }
+            });
+            readerThread.start();
+            for (int key = 0; key < count; ++key) {
+                writer.save(4, key, expected(key, width));
+            }
+            done.set(true);
+            readerThread.join();
+            assertNull(failure.get());
+            assertNotEquals(0, reader.size());
+        }
+    }
+
+    private static double[] expected(int key, int width) {
+        double[] values = new double[width];
+        for (int i = 0; i < width; ++i) {
+            values[i] = key * 1000 + i;
+        }
+        return values;
+    }
+}
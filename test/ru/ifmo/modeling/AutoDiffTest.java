@@ -0,0 +1,67 @@
+package ru.ifmo.modeling;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AutoDiffTest {
+
+    @Test
+    public void countsDerivativesOfOperations() {
+        AutoDiff ad = new AutoDiff(2);
+        int x = ad.variable(0, 3), y = ad.variable(1, 2);
+        // f = (x^3 * y - 2x) / (y + 1) + 5 - y
+        int f = ad.add(ad.div(ad.sub(ad.mul(ad.pow(x, 3), y), ad.scale(2, x)), ad.shift(y, 1)), ad.minus(5, y));
+        assertEquals((27 * 2 - 6) / 3. + 3, ad.value(f), 1e-12);
+        // df/dx = (3x^2 * y - 2) / (y + 1), df/dy = (x^3 * (y + 1) - (x^3 * y - 2x)) / (y + 1)^2 - 1
+        assertEquals((27 * 2 - 2) / 3., ad.derivative(f, 0), 1e-12);
+        assertEquals((27 * 3 - 48) / 9. - 1, ad.derivative(f, 1), 1e-12);
+
+        ad.reset();
+        int z = ad.variable(1, 4);
+        assertEquals(0, ad.derivative(ad.neg(ad.pow(z, 0)), 1), 0);
+        assertEquals(-1, ad.derivative(ad.neg(z), 1), 0);
+    }
+
+    @Test
+    public void jacobiansMatchKernelOnes() {
+        for (ReactionSystem system : Arrays.asList(EquationSystems.chlorideSystem("Al", 1),
+                EquationSystems.chlorideSystem("Ga", 4), EquationSystems.nitrideSystem(0.1))) {
+            ReactionSystem.Kernel kernel = system.compile();
+            int n = kernel.size();
+            Random random = new Random(n);
+            double[] x = new double[n];
+            double[] expectedValues = new double[n], values = new double[n];
+            double[][] expectedJacobian = new double[n][n], jacobian = new double[n][n];
+            for (int test = 0; test < 10; ++test) {
+                double parameter = n == 5 ? 650 + 100 * random.nextDouble() : random.nextDouble();
+                for (int j = 0; j < n; ++j) {
+                    x[j] = j == 5 ? random.nextDouble() : 1000 * random.nextDouble();
+                }
+                kernel.linearization(parameter).apply(x, expectedValues, expectedJacobian);
+                AutoDiff.linearize(n, kernel.residuals(parameter)).apply(x, values, jacobian);
+                for (int i = 0; i < n; ++i) {
+                    assertEquals(expectedValues[i], values[i], 1e-12 * Math.abs(expectedValues[i]));
+                    for (int j = 0; j < n; ++j) {
+                        assertEquals(expectedJacobian[i][j], jacobian[i][j], 1e-12 * Math.abs(expectedJacobian[i][j]));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void solvesSystemAsKernel() {
+        ReactionSystem.Kernel kernel = EquationSystems.chlorideSystem("Al", 1).compile();
+        double[] initial = {50, 50, 50, 50, 500};
+        for (double t = 623; t <= 923; t += 50) {
+            double[] expected = new SystemOfEquationsSolve(5, kernel.linearization(t)).getSolution(initial, 1e-5, 10000);
+            double[] solution = new SystemOfEquationsSolve(5, AutoDiff.linearize(5, kernel.residuals(t))).getSolution(initial, 1e-5, 10000);
+            assertArrayEquals(expected, solution, 1e-9 * Arrays.stream(expected).map(Math::abs).max().getAsDouble());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.ifmo.modeling;
+
+import org.junit.Test;
+import ru.ifmo.lang.TabulatedFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoefficientsTest {
+
+    private static List<DoubleUnaryOperator> counters() {
+        List<DoubleUnaryOperator> res = new ArrayList<>();
+        for (int number : new int[]{1, 2, 3, 4, 5, 6, 9, 10}) {
+            res.add(Coefficients.getKCounter(number));
+        }
+        for (String gas : new String[]{"AlCl", "AlCl2", "AlCl3", "GaCl", "GaCl2", "GaCl3", "NH3", "H2", "HCl", "N2"}) {
+            res.add(Coefficients.getDCounter(gas));
+        }
+        return res;
+    }
+
+    /**
+     * @return maximal relative error of table against counter at random points of [tMin; tMax]
+     */
+    private static double measureError(TabulatedFunction table, DoubleUnaryOperator counter, double tMin, double tMax) {
+        Random random = new Random(1);
+        double error = 0;
+        for (int i = 0; i < 20000; ++i) {
+            double t = tMin + (tMax - tMin) * random.nextDouble();
+            double exact = counter.applyAsDouble(t);
+            error = Math.max(error, Math.abs(table.applyAsDouble(t) - exact) / Math.abs(exact));
+        }
+        return error;
+    }
+
+    @Test
+    public void tabulationErrorIsAsEstimated() {
+        // 1 K and 0.1 K steps on 623..1223 K, see Coefficients.Tabulation
+        for (int nodes : new int[]{601, 6001}) {
+            Coefficients.Tabulation tabulation = new Coefficients.Tabulation(623, 1223, nodes);
+            double maxError = 0;
+            for (DoubleUnaryOperator counter : counters()) {
+                TabulatedFunction table = tabulation.tabulate(counter);
+                double error = measureError(table, counter, 623, 1223);
+                // estimate is measured at 3 points of each interval, so real maximum is a bit larger
+                assertTrue(error + " > " + table.getMaxRelativeError(), error <= 1.5 * table.getMaxRelativeError() + 1e-15);
+                maxError = Math.max(maxError, error);
+            }
+            assertTrue(maxError < (nodes == 601 ? 1e-4 : 1e-8));
+        }
+    }
+
+    @Test
+    public void tabulationBelongsToKernel() {
+        ReactionSystem system = EquationSystems.chlorideSystem("Al", 1);
+        ReactionSystem.Kernel direct = system.compile();
+        ReactionSystem.Kernel tabulated = system.compile(new Coefficients.Tabulation(623, 923, 301));
+        ReactionSystem.Kernel exact = system.compile();
+        double[] directCoefs = new double[direct.getMonomialCount()];
+        double[] tabulatedCoefs = new double[direct.getMonomialCount()];
+        double[] exactCoefs = new double[direct.getMonomialCount()];
+        boolean differ = false;
+        for (double t = 623.5; t < 923; t += 10) {
+            direct.prepare(t, directCoefs);
+            tabulated.prepare(t, tabulatedCoefs);
+            exact.prepare(t, exactCoefs);
+            for (int m = 0; m < directCoefs.length; ++m) {
+                // kernels compiled before and after tabulated one both count K and D directly
+                assertEquals(directCoefs[m], exactCoefs[m], 0);
+                assertEquals(directCoefs[m], tabulatedCoefs[m], 1e-4 * Math.abs(directCoefs[m]));
+                differ |= directCoefs[m] != tabulatedCoefs[m];
+            }
+        }
+        assertTrue(differ);
+        // outside of grid tabulated counters are counted directly
+        direct.prepare(1000, directCoefs);
+        tabulated.prepare(1000, tabulatedCoefs);
+        for (int m = 0; m < directCoefs.length; ++m) {
+            assertEquals(directCoefs[m], tabulatedCoefs[m], 0);
+        }
+    }
+}
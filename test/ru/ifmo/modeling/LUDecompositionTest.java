@@ -0,0 +1,233 @@
+package ru.ifmo.modeling;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LUDecompositionTest {
+
+    private static double[][] copy(double[][] a) {
+        double[][] res = new double[a.length][];
+        for (int i = 0; i < a.length; ++i) {
+            res[i] = a[i].clone();
+        }
+        return res;
+    }
+
+    private static double[][] randomMatrix(int n, Random random) {
+        double[][] a = new double[n][n];
+        for (double[] row : a) {
+            for (int j = 0; j < n; ++j) {
+                row[j] = 2 * random.nextDouble() - 1;
+            }
+        }
+        return a;
+    }
+
+    private static double[] randomVector(int n, Random random) {
+        double[] b = new double[n];
+        for (int i = 0; i < n; ++i) {
+            b[i] = 2 * random.nextDouble() - 1;
+        }
+        return b;
+    }
+
+    /**
+     * Factors and solves by unrolled and general decompositions, checks that results are the same to the last bit
+     *
+     * @return whether matrix was found nonsingular
+     */
+    private static boolean assertSameAsGeneral(double[][] a, Random random) {
+        int n = a.length;
+        LUDecomposition unrolled = LUDecomposition.forSize(n);
+        LUDecomposition general = LUDecomposition.general(n);
+        double[][] unrolledFactors = copy(a), generalFactors = copy(a);
+        boolean factored = unrolled.factor(unrolledFactors);
+        assertEquals(general.factor(generalFactors), factored);
+        if (!factored) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            assertArrayEquals(generalFactors[i], unrolledFactors[i], 0);
+        }
+        double[] b = randomVector(n, random);
+        double[] unrolledSolution = b.clone(), generalSolution = b.clone();
+        unrolled.solve(unrolledFactors, unrolledSolution);
+        general.solve(generalFactors, generalSolution);
+        assertArrayEquals(generalSolution, unrolledSolution, 0);
+
+        // and solution is right, up to rounding of terms which may be large for near-singular matrices
+        for (int i = 0; i < n; ++i) {
+            double sum = 0, magnitude = 1;
+            for (int j = 0; j < n; ++j) {
+                sum += a[i][j] * generalSolution[j];
+                magnitude = Math.max(magnitude, Math.abs(a[i][j] * generalSolution[j]));
+            }
+            assertEquals(b[i], sum, 1e-12 * magnitude);
+        }
+        return true;
+    }
+
+    @Test
+    public void unrolledDecompositionsAreSpecialized() {
+        assertTrue(LUDecomposition.forSize(5).getClass() != LUDecomposition.general(5).getClass());
+        assertTrue(LUDecomposition.forSize(6).getClass() != LUDecomposition.general(6).getClass());
+    }
+
+    @Test
+    public void randomMatricesAreFactoredAsByGeneral() {
+        Random random = new Random(1);
+        for (int n = 5; n <= 6; ++n) {
+            for (int test = 0; test < 1000; ++test) {
+                assertTrue(assertSameAsGeneral(randomMatrix(n, random), random));
+            }
+        }
+    }
+
+    @Test
+    public void matricesRequiringPivotingAreFactoredAsByGeneral() {
+        Random random = new Random(2);
+        for (int n = 5; n <= 6; ++n) {
+            for (int test = 0; test < 200; ++test) {
+                // zero diagonal: every step has to swap rows
+                double[][] a = randomMatrix(n, random);
+                for (int i = 0; i < n; ++i) {
+                    a[i][i] = 0;
+                }
+                assertTrue(assertSameAsGeneral(a, random));
+
+                // permutation with small noise: pivots are far from diagonal
+                double[][] permutation = new double[n][n];
+                int[] columns = new int[n];
+                for (int i = 0; i < n; ++i) {
+                    columns[i] = i;
+                }
+                for (int i = n - 1; i > 0; --i) {
+                    int j = random.nextInt(i + 1);
+                    int t = columns[i];
+                    columns[i] = columns[j];
+                    columns[j] = t;
+                }
+                for (int i = 0; i < n; ++i) {
+                    for (int j = 0; j < n; ++j) {
+                        permutation[i][j] = j == columns[i] ? 1 : 1e-3 * random.nextDouble();
+                    }
+                }
+                assertTrue(assertSameAsGeneral(permutation, random));
+            }
+        }
+    }
+
+    @Test
+    public void nearSingularMatricesAreDetectedAsByGeneral() {
+        Random random = new Random(3);
+        for (int n = 5; n <= 6; ++n) {
+            int singular = 0, nonsingular = 0;
+            for (int test = 0; test < 200; ++test) {
+                double[][] a = randomMatrix(n, random);
+                // last row is combination of others plus perturbation near threshold of singularity
+                double eps = Math.pow(10, -8 - 4 * random.nextDouble());
+                int last = random.nextInt(n);
+                for (int j = 0; j < n; ++j) {
+                    double sum = 0;
+                    for (int i = 0; i < n; ++i) {
+                        if (i != last) {
+                            sum += a[i][j] * (i + 1);
+                        }
+                    }
+                    a[last][j] = sum + eps * (2 * random.nextDouble() - 1);
+                }
+                if (assertSameAsGeneral(a, random)) {
+                    ++nonsingular;
+                } else {
+                    ++singular;
+                }
+            }
+            // both outcomes are checked
+            assertTrue(singular > 10);
+            assertTrue(nonsingular > 10);
+
+            double[][] zero = randomMatrix(n, random);
+            zero[n - 2] = new double[n];
+            assertFalse(assertSameAsGeneral(zero, random));
+        }
+    }
+
+    @Test
+    public void equilibrationBringsRowsAndColumnsToUnitMagnitude() {
+        Random random = new Random(4);
+        int n = 6;
+        double[][] a = randomMatrix(n, random);
+        // partial pressures of 1e-6..1e4 raised to powers make magnitudes of rows and columns differ by many orders
+        for (int k = 0; k < n; ++k) {
+            double row = Math.pow(10, 8 * random.nextDouble() - 4);
+            double column = Math.pow(10, 8 * random.nextDouble() - 4);
+            for (int l = 0; l < n; ++l) {
+                a[k][l] *= row;
+                a[l][k] *= column;
+            }
+        }
+        // one huge entry does not hide the rest of its row
+        a[2][3] = 1e12;
+        double[][] scaled = copy(a);
+        double[] rowFactor = new double[n], columnFactor = new double[n];
+        LUDecomposition.equilibrate(scaled, rowFactor, columnFactor);
+
+        for (int i = 0; i < n; ++i) {
+            // factors are powers of 2, so scaling is exact
+            assertEquals(1, Math.abs(rowFactor[i] / Math.scalb(1.0, Math.getExponent(rowFactor[i]))), 0);
+            assertEquals(1, Math.abs(columnFactor[i] / Math.scalb(1.0, Math.getExponent(columnFactor[i]))), 0);
+            double rowMax = 0, columnMax = 0;
+            for (int j = 0; j < n; ++j) {
+                assertEquals(a[i][j] * rowFactor[i] * columnFactor[j], scaled[i][j], 0);
+                rowMax = Math.max(rowMax, Math.abs(scaled[i][j]));
+                columnMax = Math.max(columnMax, Math.abs(scaled[j][i]));
+            }
+            assertTrue(rowMax >= 1 && rowMax < 4);
+            assertTrue(columnMax >= 1 && columnMax < 4);
+        }
+
+        // solution of A * x = b is C * y, where A' * y = R * b
+        double[] b = randomVector(n, random);
+        double[] y = new double[n];
+        for (int i = 0; i < n; ++i) {
+            y[i] = b[i] * rowFactor[i];
+        }
+        LUDecomposition lu = LUDecomposition.forSize(n);
+        assertTrue(lu.factor(scaled));
+        lu.solve(scaled, y);
+        for (int i = 0; i < n; ++i) {
+            double sum = 0, magnitude = 0;
+            for (int j = 0; j < n; ++j) {
+                sum += a[i][j] * y[j] * columnFactor[j];
+                magnitude = Math.max(magnitude, Math.abs(a[i][j] * y[j] * columnFactor[j]));
+            }
+            assertEquals(b[i], sum, 1e-10 * Math.max(1, magnitude));
+        }
+    }
+
+    @Test
+    public void equilibrationLeavesZeroRowsAndScaledMatrices() {
+        double[][] a = {
+                {1, 2, 0, 0, 0},
+                {0, 0, 0, 0, 0},
+                {0, 3, 1, 0, 0},
+                {0, 0, 0, 1.5, 0},
+                {0, 0, 2, 0, 1}
+        };
+        double[][] scaled = copy(a);
+        double[] rowFactor = new double[5], columnFactor = new double[5];
+        LUDecomposition.equilibrate(scaled, rowFactor, columnFactor);
+        // all maxima are already in [1; 4)
+        for (int i = 0; i < 5; ++i) {
+            assertArrayEquals(a[i], scaled[i], 0);
+            assertEquals(1, rowFactor[i], 0);
+            assertEquals(1, columnFactor[i], 0);
+        }
+    }
+}
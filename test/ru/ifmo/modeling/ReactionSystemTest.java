@@ -0,0 +1,88 @@
+package ru.ifmo.modeling;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReactionSystemTest {
+
+    @Test
+    public void batchKernelCountsAsScalarOne() {
+        for (ReactionSystem system : Arrays.asList(EquationSystems.chlorideSystem("Al", 1),
+                EquationSystems.chlorideSystem("Ga", 4), EquationSystems.nitrideSystem(0.1))) {
+            ReactionSystem.Kernel kernel = system.compile();
+            int n = kernel.size(), points = 7;
+            Random random = new Random(n);
+            double[] parameters = new double[points];
+            double[][] x = new double[n][points];
+            for (int p = 0; p < points; ++p) {
+                parameters[p] = n == 5 ? 650 + 100 * random.nextDouble() : random.nextDouble();
+                for (int j = 0; j < n; ++j) {
+                    x[j][p] = j == 5 ? random.nextDouble() : 1000 * random.nextDouble();
+                }
+            }
+            double[][] coefs = new double[kernel.getMonomialCount()][points];
+            double[][] values = new double[n][points];
+            double[][][] jacobian = new double[n][n][points];
+            kernel.prepare(parameters, coefs);
+            kernel.apply(coefs, x, points, values, jacobian);
+
+            double[] pointCoefs = new double[kernel.getMonomialCount()];
+            double[] point = new double[n], pointValues = new double[n];
+            double[][] pointJacobian = new double[n][n];
+            for (int p = 0; p < points; ++p) {
+                kernel.prepare(parameters[p], pointCoefs);
+                for (int j = 0; j < n; ++j) {
+                    point[j] = x[j][p];
+                }
+                kernel.apply(pointCoefs, point, pointValues, pointJacobian);
+                for (int i = 0; i < n; ++i) {
+                    assertEquals(pointValues[i], values[i][p], 1e-12 * Math.abs(pointValues[i]));
+                    for (int j = 0; j < n; ++j) {
+                        assertEquals(pointJacobian[i][j], jacobian[i][j][p], 1e-12 * Math.abs(pointJacobian[i][j]));
+                    }
+                }
+            }
+
+            // buffer of products may be longer than batch and keep garbage of previous calls
+            double[] product = new double[points + 3];
+            Arrays.fill(product, Double.NaN);
+            double[][] bufferedValues = new double[n][points];
+            double[][][] bufferedJacobian = new double[n][n][points];
+            kernel.apply(coefs, x, points, bufferedValues, bufferedJacobian, product);
+            for (int i = 0; i < n; ++i) {
+                assertArrayEquals(values[i], bufferedValues[i], 0);
+                for (int j = 0; j < n; ++j) {
+                    assertArrayEquals(jacobian[i][j], bufferedJacobian[i][j], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchSolutionsMatchScalarOnes() {
+        List<Double> initial = Arrays.asList(10., 10., 10., 10., 1000., 0.5);
+        Function<Double, List<Double>> scalar = EquationSystems.createEquationSystem3(0.1, initial, 1e-5, 10000);
+        Function<double[], double[][]> batch = EquationSystems.createBatchEquationSystem3(0.1, initial, 1e-5, 10000);
+        double[] xgs = new double[21];
+        for (int i = 0; i < xgs.length; ++i) {
+            xgs[i] = i / 20.;
+        }
+        double[][] solutions = batch.apply(xgs);
+        for (int i = 0; i < xgs.length; ++i) {
+            double[] expected = scalar.apply(xgs[i]).stream().mapToDouble(Double::doubleValue).toArray();
+            assertArrayEquals(expected, solutions[i], 1e-9);
+            // solutions are physical: pressures are not negative, 0 <= x <= 1
+            for (int j = 0; j < 5; ++j) {
+                assertEquals(0, Math.min(0, solutions[i][j]), 0);
+            }
+            assertEquals(solutions[i][5], Math.max(0, Math.min(1, solutions[i][5])), 0);
+        }
+    }
+}
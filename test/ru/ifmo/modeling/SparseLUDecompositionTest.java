@@ -0,0 +1,235 @@
+package ru.ifmo.modeling;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SparseLUDecompositionTest {
+
+    private static int[] identity(int n) {
+        int[] res = new int[n];
+        for (int i = 0; i < n; ++i) {
+            res[i] = i;
+        }
+        return res;
+    }
+
+    private static int[] randomPermutation(int n, Random random) {
+        int[] res = identity(n);
+        for (int i = n - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int t = res[i];
+            res[i] = res[j];
+            res[j] = t;
+        }
+        return res;
+    }
+
+    /**
+     * Diagonal, entries (i, dominant[i]) and about 'perRow' random entries in each row
+     */
+    private static JacobianPattern randomPattern(int[] dominant, int perRow, Random random) {
+        int n = dominant.length;
+        boolean[][] nonZero = new boolean[n][n];
+        for (int i = 0; i < n; ++i) {
+            nonZero[i][i] = true;
+            nonZero[i][dominant[i]] = true;
+            for (int k = 0; k < perRow; ++k) {
+                nonZero[i][random.nextInt(n)] = true;
+            }
+        }
+        return new JacobianPattern(nonZero);
+    }
+
+    /**
+     * Diagonal, last row and last column, as in systems where balance of some atom links all gases
+     */
+    private static JacobianPattern arrowheadPattern(int n) {
+        boolean[][] nonZero = new boolean[n][n];
+        for (int i = 0; i < n; ++i) {
+            nonZero[i][i] = true;
+            nonZero[i][n - 1] = true;
+            nonZero[n - 1][i] = true;
+        }
+        return new JacobianPattern(nonZero);
+    }
+
+    /**
+     * Random entries, rows are multiplied by magnitudes from 1e-6 to 1e6 as in systems of equilibrium.
+     * Entries (i, dominant[i]) are 10 times larger than the rest, so matrix is well conditioned;
+     * when they are not on diagonal, pivots have to be chosen off it.
+     */
+    private static double[] randomEntries(JacobianPattern pattern, int[] dominant, Random random) {
+        double[] entries = new double[pattern.getNonZeroCount()];
+        for (int i = 0; i < pattern.size(); ++i) {
+            double magnitude = Math.pow(10, random.nextInt(13) - 6);
+            for (int k = pattern.getRowStart(i); k < pattern.getRowStart(i + 1); ++k) {
+                double value = 2 * random.nextDouble() - 1;
+                entries[k] = magnitude * (pattern.getColumn(k) == dominant[i] ? 10 * (Math.signum(value) + value) : value);
+            }
+        }
+        return entries;
+    }
+
+    private static double[] randomVector(int n, Random random) {
+        double[] b = new double[n];
+        for (int i = 0; i < n; ++i) {
+            b[i] = 2 * random.nextDouble() - 1;
+        }
+        return b;
+    }
+
+    /**
+     * @return solution by dense factorization of equilibrated matrix, or null if it is singular
+     */
+    private static double[] solveDense(JacobianPattern pattern, double[] entries, double[] b) {
+        int n = pattern.size();
+        double[][] a = new double[n][n];
+        pattern.scatter(entries, a);
+        double[] rowFactor = new double[n], columnFactor = new double[n];
+        LUDecomposition.equilibrate(a, rowFactor, columnFactor);
+        LUDecomposition lu = LUDecomposition.forSize(n);
+        if (!lu.factor(a)) {
+            return null;
+        }
+        double[] x = new double[n];
+        for (int i = 0; i < n; ++i) {
+            x[i] = b[i] * rowFactor[i];
+        }
+        lu.solve(a, x);
+        for (int i = 0; i < n; ++i) {
+            x[i] *= columnFactor[i];
+        }
+        return x;
+    }
+
+    /**
+     * Checks that sparse factorization solves system as dense one does
+     */
+    private static void assertSolvesAsDense(SparseLUDecomposition sparse, JacobianPattern pattern, double[] entries, Random random) {
+        double[] b = randomVector(pattern.size(), random);
+        double[] expected = solveDense(pattern, entries, b);
+        assertTrue(expected != null);
+        assertTrue(sparse.factor(entries));
+        double[] x = b.clone();
+        sparse.solve(x);
+        double norm = 1;
+        for (double value : expected) {
+            norm = Math.max(norm, Math.abs(value));
+        }
+        for (int i = 0; i < x.length; ++i) {
+            assertEquals(expected[i], x[i], 1e-10 * norm);
+        }
+    }
+
+    @Test
+    public void randomSparseMatricesAreSolvedAsByDense() {
+        Random random = new Random(1);
+        for (int n : new int[]{5, 6, 12, 30, 100}) {
+            for (int test = 0; test < 20; ++test) {
+                int[] permutation = randomPermutation(n, random);
+                JacobianPattern pattern = randomPattern(permutation, 3, random);
+                SparseLUDecomposition sparse = new SparseLUDecomposition(pattern);
+                // dominant diagonal and then dominant entries off it, the latter require pivoting
+                assertSolvesAsDense(sparse, pattern, randomEntries(pattern, identity(n), random), random);
+                assertSolvesAsDense(sparse, pattern, randomEntries(pattern, permutation, random), random);
+            }
+        }
+    }
+
+    @Test
+    public void arrowheadMatricesAreSolvedWithoutFill() {
+        Random random = new Random(2);
+        for (int n : new int[]{12, 64, 256}) {
+            JacobianPattern pattern = arrowheadPattern(n);
+            SparseLUDecomposition sparse = new SparseLUDecomposition(pattern);
+            for (int test = 0; test < 10; ++test) {
+                assertSolvesAsDense(sparse, pattern, randomEntries(pattern, identity(n), random), random);
+            }
+            // minimum degree puts dense row and column last, so factors keep the pattern: L gets the last row
+            // and U the last column, both with diagonal
+            assertTrue(sparse.factor(randomEntries(pattern, identity(n), random)));
+            assertEquals(pattern.getNonZeroCount() + n, sparse.getFactorNonZeroCount());
+        }
+    }
+
+    @Test
+    public void singularMatricesAreDetectedAsByDense() {
+        Random random = new Random(3);
+        int n = 20;
+        JacobianPattern pattern = randomPattern(identity(n), 3, random);
+        SparseLUDecomposition sparse = new SparseLUDecomposition(pattern);
+        double[] entries = randomEntries(pattern, identity(n), random);
+        assertTrue(sparse.factor(entries));
+
+        // zero row
+        double[] zeroRow = entries.clone();
+        for (int k = pattern.getRowStart(7); k < pattern.getRowStart(8); ++k) {
+            zeroRow[k] = 0;
+        }
+        assertFalse(sparse.factor(zeroRow));
+        assertTrue(solveDense(pattern, zeroRow, new double[n]) == null);
+
+        // last row is a multiple of another row, on pattern which allows it
+        boolean[][] nonZero = new boolean[n][n];
+        for (int i = 0; i < n; ++i) {
+            nonZero[i][i] = true;
+            nonZero[i][(i + 1) % n] = true;
+        }
+        nonZero[n - 1][3] = nonZero[n - 1][4] = true;
+        JacobianPattern dependent = new JacobianPattern(nonZero);
+        double[] dependentEntries = randomEntries(dependent, identity(n), random);
+        for (int k = dependent.getRowStart(n - 1); k < dependent.getRowStart(n); ++k) {
+            int j = dependent.getColumn(k);
+            dependentEntries[k] = j == 3 || j == 4 ? 1e5 * dependentEntries[dependent.indexOf(3, j)] : 0;
+        }
+        SparseLUDecomposition dependentSparse = new SparseLUDecomposition(dependent);
+        assertFalse(dependentSparse.factor(dependentEntries));
+        assertTrue(solveDense(dependent, dependentEntries, new double[n]) == null);
+
+        // factorization recovers after singular matrix
+        assertSolvesAsDense(sparse, pattern, entries, random);
+        assertSolvesAsDense(dependentSparse, dependent, randomEntries(dependent, identity(n), random), random);
+    }
+
+    @Test
+    public void refactorizationFallsBackToPivotingWhenPivotGoesBad() {
+        Random random = new Random(4);
+        int n = 40;
+        JacobianPattern pattern = arrowheadPattern(n);
+        boolean[][] nonZero = new boolean[n][n];
+        for (int i = 0; i < n; ++i) {
+            for (int k = pattern.getRowStart(i); k < pattern.getRowStart(i + 1); ++k) {
+                nonZero[i][pattern.getColumn(k)] = true;
+            }
+            nonZero[i][(i + 1) % n] = true;
+        }
+        pattern = new JacobianPattern(nonZero);
+        SparseLUDecomposition sparse = new SparseLUDecomposition(pattern);
+        double[] entries = randomEntries(pattern, identity(n), random);
+        assertSolvesAsDense(sparse, pattern, entries, random);
+
+        // Newton-like sequence of close matrices is refactored with the same pivots
+        for (int iteration = 0; iteration < 5; ++iteration) {
+            for (int k = 0; k < entries.length; ++k) {
+                entries[k] *= 1 + 0.01 * (2 * random.nextDouble() - 1);
+            }
+            assertSolvesAsDense(sparse, pattern, entries, random);
+        }
+
+        // diagonal pivots become small relatively to their columns, or exactly 0
+        for (double diagonal : new double[]{1e-3, 0}) {
+            double[] bad = entries.clone();
+            for (int i = 0; i < n; i += 3) {
+                bad[pattern.indexOf(i, i)] *= diagonal;
+            }
+            assertSolvesAsDense(sparse, pattern, bad, random);
+        }
+        // and become good again
+        assertSolvesAsDense(sparse, pattern, entries, random);
+    }
+}
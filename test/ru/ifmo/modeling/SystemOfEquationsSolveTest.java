@@ -0,0 +1,182 @@
+package ru.ifmo.modeling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SystemOfEquationsSolveTest {
+    private static final double[] START1 = {50, 50, 50, 50, 500};
+    private static final double[] START2 = {1.0e4, 15., 100., 15000., 10.};
+    private static final double[] START3 = {10, 10, 10, 10, 1000, 0.5};
+
+    @Test
+    public void boundedStepsKeepSystem3Physical() {
+        EquationSystem free = new EquationSystem(EquationSystems.nitrideSystem(0.1).compile());
+        EquationSystem bounded = new EquationSystem(EquationSystems.nitrideSystem(0.1).compile()).boundedSteps(true);
+        double[] solution = new double[6];
+        // from these x^g free Newton method jumps to roots with negative x
+        for (double xg : new double[]{0.1, 0.2, 0.6}) {
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    free.solve(xg, START3, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON, solution));
+            assertTrue(solution[5] < 0);
+
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    bounded.solve(xg, START3, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON, solution));
+            for (int j = 0; j < 5; ++j) {
+                assertTrue(solution[j] >= 0);
+            }
+            assertTrue(solution[5] > 0 && solution[5] <= 1);
+        }
+    }
+
+    @Test
+    public void boundedStepsSlowDownSystem1() {
+        EquationSystem free = new EquationSystem(EquationSystems.chlorideSystem("Al", 1).compile());
+        EquationSystem bounded = new EquationSystem(EquationSystems.chlorideSystem("Al", 1).compile()).boundedSteps(true);
+        double[] expected = new double[5], solution = new double[5];
+        int freeIterations = 0, boundedIterations = 0;
+        for (double t = 623; t <= 923; t += 50) {
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    free.solve(t, START1, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON, expected));
+            freeIterations += free.getIterationCount();
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    bounded.solve(t, START1, 1e-5, 10000, SystemOfEquationsSolve.Method.NEWTON, solution));
+            boundedIterations += bounded.getIterationCount();
+            // both reach the same physical root
+            for (int j = 0; j < 5; ++j) {
+                assertTrue(expected[j] > 0);
+                assertEquals(expected[j], solution[j], 1e-6 * expected[j]);
+            }
+        }
+        // shortened steps make cold starts of system 1 about 45% longer, so they are off by default
+        assertTrue(boundedIterations > 1.3 * freeIterations);
+    }
+
+    private static void assertSameRoot(double[] expected, double[] solution) {
+        for (int j = 0; j < expected.length; ++j) {
+            assertTrue(solution[j] >= 0);
+            assertEquals(expected[j], solution[j], 1e-6 * Math.max(1, expected[j]));
+        }
+    }
+
+    /**
+     * Newton roots at parameters from 'from' to 'to' are found by Levenberg-Marquardt and bounded Broyden methods
+     * from the same start, and by all methods from start close to them
+     *
+     * @param boundedNewton whether Newton steps are bounded
+     * @param coldBroyden   whether Broyden method is checked from the same start
+     */
+    private static void assertMethodsAgree(ReactionSystem.Kernel kernel, boolean boundedNewton, double[] start,
+                                           double from, double to, double step, boolean coldBroyden) {
+        EquationSystem system = new EquationSystem(kernel).boundedSteps(boundedNewton);
+        EquationSystem broyden = new EquationSystem(kernel).boundedSteps(true);
+        double[] expected = new double[start.length], solution = new double[start.length], warm = new double[start.length];
+        for (double p = from; p <= to + 1e-9; p += step) {
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    system.solve(p, start, 1e-9, 10000, SystemOfEquationsSolve.Method.NEWTON, expected));
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    system.solve(p, start, 1e-9, 10000, SystemOfEquationsSolve.Method.LEVENBERG_MARQUARDT, solution));
+            assertSameRoot(expected, solution);
+            if (coldBroyden) {
+                assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                        broyden.solve(p, start, 1e-9, 10000, SystemOfEquationsSolve.Method.BROYDEN, solution));
+                assertSameRoot(expected, solution);
+            }
+            for (int j = 0; j < start.length; ++j) {
+                warm[j] = 1.1 * expected[j];
+            }
+            for (SystemOfEquationsSolve.Method method : SystemOfEquationsSolve.Method.values()) {
+                assertEquals(SystemOfEquationsSolve.Status.CONVERGED, system.solve(p, warm, 1e-9, 10000, method, solution));
+                assertSameRoot(expected, solution);
+            }
+        }
+    }
+
+    @Test
+    public void allMethodsFindNewtonRoots() {
+        // from the default start bounded Broyden method wanders many orders away and meets singular Jacobians
+        assertMethodsAgree(EquationSystems.chlorideSystem("Al", 1).compile(), false, START1, 623, 923, 50, false);
+        assertMethodsAgree(EquationSystems.chlorideSystem("Ga", 4).compile(), false, START2, 923, 1223, 50, true);
+        assertMethodsAgree(EquationSystems.nitrideSystem(0.1).compile(), true, START3, 0.1, 0.9, 0.1, true);
+    }
+
+    @Test
+    public void freeBroydenReachesNegativePressures() {
+        EquationSystem system2 = new EquationSystem(EquationSystems.chlorideSystem("Ga", 4).compile());
+        double[] solution = new double[5];
+        int negative = 0;
+        for (double t = 923; t <= 1223; t += 50) {
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    system2.solve(t, START2, 1e-9, 10000, SystemOfEquationsSolve.Method.BROYDEN, solution));
+            for (double value : solution) {
+                if (value < 0) {
+                    ++negative;
+                    break;
+                }
+            }
+        }
+        // so EquationSystems always bounds Broyden steps
+        assertTrue(negative > 0);
+    }
+
+    @Test
+    public void iterationsEndWithMaxIterations() {
+        EquationSystem system1 = new EquationSystem(EquationSystems.chlorideSystem("Al", 1).compile());
+        double[] solution = new double[5];
+        for (SystemOfEquationsSolve.Method method : SystemOfEquationsSolve.Method.values()) {
+            assertEquals(SystemOfEquationsSolve.Status.MAX_ITERATIONS, system1.solve(723, START1, 1e-7, 2, method, solution));
+            assertEquals(2, system1.getIterationCount());
+        }
+    }
+
+    /**
+     * log(x) = 5, from x = 1e4 Newton step goes to negative x, where logarithm is NaN
+     */
+    private static SystemOfEquationsSolve logarithm() {
+        return new SystemOfEquationsSolve(1, (x, values, jacobian) -> {
+            values[0] = Math.log(x[0]) - 5;
+            jacobian[0][0] = 1 / x[0];
+        }).bounds(new double[]{0}, null);
+    }
+
+    @Test
+    public void freeStepsDivergeAndBoundedStepsConverge() {
+        double[] solution = new double[1];
+        for (SystemOfEquationsSolve.Method method : new SystemOfEquationsSolve.Method[]{
+                SystemOfEquationsSolve.Method.NEWTON, SystemOfEquationsSolve.Method.BROYDEN}) {
+            assertEquals(SystemOfEquationsSolve.Status.DIVERGED, logarithm().solve(new double[]{1e4}, 1e-10, 100, method, solution));
+            assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                    logarithm().boundedSteps(true).solve(new double[]{1e4}, 1e-10, 100, method, solution));
+            assertEquals(Math.exp(5), solution[0], 1e-8);
+        }
+    }
+
+    @Test
+    public void levenbergMarquardtKeepsToBounds() {
+        double[] solution = new double[1];
+        assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                logarithm().solve(new double[]{1e4}, 1e-10, 100, SystemOfEquationsSolve.Method.LEVENBERG_MARQUARDT, solution));
+        assertEquals(Math.exp(5), solution[0], 1e-8);
+        // from where residual is infinite it does not start
+        assertEquals(SystemOfEquationsSolve.Status.DIVERGED,
+                logarithm().solve(new double[]{0}, 1e-10, 100, SystemOfEquationsSolve.Method.LEVENBERG_MARQUARDT, solution));
+    }
+
+    @Test
+    public void levenbergMarquardtStallsAtBoundWithoutRoot() {
+        // x + 1 = 0 has no root with x >= 0, the closest point is the bound
+        SystemOfEquationsSolve solve = new SystemOfEquationsSolve(1, (x, values, jacobian) -> {
+            values[0] = x[0] + 1;
+            jacobian[0][0] = 1;
+        }).bounds(new double[]{0}, null);
+        double[] solution = new double[1];
+        assertEquals(SystemOfEquationsSolve.Status.STALLED,
+                solve.solve(new double[]{3}, 1e-10, 100, SystemOfEquationsSolve.Method.LEVENBERG_MARQUARDT, solution));
+        assertEquals(0, solution[0], 0);
+        // Newton method is free to find it
+        assertEquals(SystemOfEquationsSolve.Status.CONVERGED,
+                solve.solve(new double[]{3}, 1e-10, 100, SystemOfEquationsSolve.Method.NEWTON, solution));
+        assertEquals(-1, solution[0], 1e-12);
+    }
+}